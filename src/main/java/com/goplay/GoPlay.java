@@ -4,20 +4,33 @@ import com.goplay.core.*;
 import com.goplay.core.Package;
 import com.goplay.core.protocols.ProtocolProto.*;
 import com.goplay.encoder.EncoderFactory;
-import org.java_websocket.WebSocket;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
+import com.goplay.transport.TcpEventLoopGroup;
+import com.goplay.transport.Transport;
+import com.goplay.transport.TransportFactory;
+import com.goplay.transport.WebSocketTransport;
+import com.google.protobuf.MessageLite;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
- * GoPlay is the main WebSocket client framework.
+ * GoPlay is the main client framework, over WebSocket or raw TCP.
  * Handles connection, message sending/receiving, heartbeat, and event dispatching.
  */
 public class GoPlay {
@@ -38,6 +51,8 @@ public class GoPlay {
             public static final String KICKED = "__ON_KICKED";
             public static final String BEFORE_SEND = "__ON_BEFORE_SEND";
             public static final String BEFORE_RECV = "__ON_BEFORE_RECV";
+            // Args: route, previous CircuitBreaker.State, new CircuitBreaker.State
+            public static final String CIRCUIT_STATE = "__ON_CIRCUIT_STATE";
         }
 
         public static class TimeOut {
@@ -46,29 +61,98 @@ public class GoPlay {
             public static int MAX_TIMEOUT = 3;
             public static long REQUEST = 3000;
         }
+
+        public static class Outbound {
+            // Upper bound for frames packed into one websocket message by the writer
+            public static int MAX_BATCH_BYTES = 64 * 1024;
+            // Bytes the transport may buffer before the writer holds back bulk chunks, so
+            // control frames are not stuck behind an upload in the socket
+            public static long BULK_WATERMARK = 128 * 1024;
+            // Same for interactive frames; control frames are never held back
+            public static long INTERACTIVE_WATERMARK = 1024 * 1024;
+        }
+
+        public static class Window {
+            // Requests that may queue for a slot of a full request window; more are rejected
+            public static int MAX_QUEUE = 1024;
+        }
+
+        public static class Stream {
+            // Bytes of a received stream held in memory before the rest goes to a temp file
+            public static long SPILL_THRESHOLD = 4 * 1024 * 1024;
+            // Chunks of an outgoing stream allowed ahead of the socket
+            public static int SEND_WINDOW = 8;
+        }
+
+        /**
+         * Client-local status codes, outside the range of the protocol StatusCode enum.
+         */
+        public static class ClientStatus {
+            public static final int CONNECTION_LOST = 100;
+            public static final int OVERLOADED = 101;
+            public static final int RATE_LIMITED = 102;
+            public static final int CIRCUIT_OPEN = 103;
+            public static final int CANCELLED = 104;
+        }
     }
 
     public static boolean debug = false;
 
-    private static GoPlayWebSocketClient ws;
+    private static Connection ws;
+    // Held while a connection is swapped in or torn down, so a stale close never resets a newer one
+    private static final Object connectionLock = new Object();
+    private static volatile TransportFactory transportFactory;
     private static String url;
-    private static ByteArray buffer;
     private static Emitter emitter = new Emitter();
 
-    private static TaskCompletionSource<Boolean> connectTask;
+    private static volatile TaskCompletionSource<Boolean> connectTask;
     private static ScheduledFuture<?> connectTimeOutId;
-    private static TaskCompletionSource<Boolean> disconnectTask;
 
     private static Object handShake;
-    private static Map<String, Class<?>> requestMap = new ConcurrentHashMap<>();
+    // Calls made while the handshake is under way, run once the route table arrives
+    private static List<Runnable> preHandshakeQueue = new ArrayList<>();
+    // Notifies and idempotent requests made while disconnected, replayed on the next connect
+    private static volatile OfflineBuffer offlineBuffer;
+    private static volatile PayloadCodec payloadCodec;
+    private static volatile boolean varintFramingOffered = true;
+    private static Map<String, Integer> routePriorities = new ConcurrentHashMap<>();
+    private static Map<String, PendingRequest> requestMap = new ConcurrentHashMap<>();
     private static Map<String, Class<?>> pushMap = new ConcurrentHashMap<>();
-    private static Map<String, Queue<Package<?>>> chunkMap = new ConcurrentHashMap<>();
-
-    private static IdGen idGen = new IdGen(255);
+    private static Map<String, IncomingStream> incomingStreams = new ConcurrentHashMap<>();
+    private static Map<String, Consumer<IncomingStream>> streamHandlers = new ConcurrentHashMap<>();
+
+    private static RequestWindow requestWindow = new RequestWindow();
+    private static SingleFlight<ResponseResult<?>> singleFlight = new SingleFlight<>();
+    private static Set<String> coalescedRoutes = ConcurrentHashMap.newKeySet();
+    private static Map<String, LatencyTracker> routeLatency = new ConcurrentHashMap<>();
+    private static Map<String, AdaptiveTimeout> adaptiveTimeouts = new ConcurrentHashMap<>();
+    private static Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private static Map<String, RetryPolicy> idempotentRoutes = new ConcurrentHashMap<>();
+    private static Map<String, RateLimiter> routeRateLimits = new ConcurrentHashMap<>();
+    private static volatile RateLimiter connectionRateLimit;
+    private static Map<String, Function<Object, Object>> conflatedRoutes = new ConcurrentHashMap<>();
+    private static ResponseCache<ResponseResult<?>> responseCache = new ResponseCache<>(1024);
+
+    private static AtomicLong expiredBeforeSend = new AtomicLong();
+
+    // The whole int32 id field, so ids never wrap while requests are still pending
+    private static IdGen idGen = new IdGen(Integer.MAX_VALUE);
     private static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private static ExecutorService writerExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GoPlay-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Stream senders and handlers, which may block on their channels
+    private static ExecutorService streamExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "GoPlay-stream");
+        t.setDaemon(true);
+        return t;
+    });
 
     // Static initialization
     static {
+        requestWindow.setTimer(scheduler);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
                 disconnect().get();
@@ -162,6 +246,104 @@ public class GoPlay {
         Consts.Info.ServerTag = tag;
     }
 
+    /**
+     * Number of requests still waiting for a response.
+     */
+    public static int getPendingCount() {
+        return requestMap.size();
+    }
+
+    /**
+     * Bound the number of requests in flight. When the window is full, BLOCK waits up to
+     * the request timeout, QUEUE defers the request, FAIL_FAST completes it with OVERLOADED.
+     * Queued requests are also completed with OVERLOADED after waiting the request
+     * timeout, and when Consts.Window.MAX_QUEUE requests already wait.
+     * A limit of 0 disables the bound.
+     */
+    public static void setRequestWindow(int maxInFlight, RequestWindow.Policy policy) {
+        requestWindow.configure(maxInFlight, policy, Consts.TimeOut.REQUEST, Consts.Window.MAX_QUEUE);
+    }
+
+    /**
+     * Bound the number of requests in flight on a single route (0 removes the bound).
+     */
+    public static void setRouteInFlightLimit(String route, int limit) {
+        requestWindow.setRouteLimit(route, limit);
+    }
+
+    /**
+     * The admission window, for in-flight counts, queue depth and wait time.
+     */
+    public static RequestWindow getRequestWindow() {
+        return requestWindow;
+    }
+
+    /**
+     * Coalesce identical requests on the route: a request whose payload matches one
+     * already in flight shares its response instead of being sent again. Each caller
+     * still gets its own future; the request is cancelled only once all have cancelled.
+     * Only enable this for idempotent routes.
+     */
+    public static void setCoalesced(String route, boolean enabled) {
+        if (enabled) {
+            coalescedRoutes.add(route);
+        } else {
+            coalescedRoutes.remove(route);
+        }
+    }
+
+    /**
+     * Coalescing statistics: calls started and calls that joined one in flight.
+     */
+    public static SingleFlight<ResponseResult<?>> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Cache successful responses of the route for ttlMs. After that a cached response
+     * is still returned for up to staleMs while one request refreshes it in the
+     * background. A ttlMs of 0 stops caching the route.
+     */
+    public static void setCacheTtl(String route, long ttlMs, long staleMs) {
+        responseCache.setTtl(route, ttlMs, staleMs);
+    }
+
+    /**
+     * Bound the number of cached responses across all routes.
+     */
+    public static void setCacheSize(int maxEntries) {
+        responseCache.setMaxEntries(maxEntries);
+    }
+
+    /**
+     * Drop the cached responses of the given routes whenever a push arrives on pushRoute.
+     */
+    public static void invalidateCacheOn(String pushRoute, String... cachedRoutes) {
+        responseCache.invalidateOn(pushRoute, cachedRoutes);
+    }
+
+    /**
+     * The response cache, for hit and miss counts and manual invalidation.
+     */
+    public static ResponseCache<ResponseResult<?>> getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Use the factory for the transport of new connections (null restores the default:
+     * tcp:// URLs on the shared TCP event loops, anything else over WebSocket).
+     */
+    public static void setTransportFactory(TransportFactory factory) {
+        transportFactory = factory;
+    }
+
+    private static Transport createTransport(URI uri, Transport.Listener listener) {
+        TransportFactory factory = transportFactory;
+        if (factory != null) return factory.create(uri, listener);
+        if ("tcp".equalsIgnoreCase(uri.getScheme())) return TcpEventLoopGroup.shared().create(uri, listener);
+        return new WebSocketTransport(uri, listener);
+    }
+
     public static void setTimeout(String key, long value) {
         if ("CONNECT".equals(key)) Consts.TimeOut.CONNECT = value;
         else if ("HEARTBEAT".equals(key)) Consts.TimeOut.HEARTBEAT = value;
@@ -198,10 +380,11 @@ public class GoPlay {
         }
 
         if (connectTask != null) {
+            TaskCompletionSource<Boolean> pendingTask = connectTask;
             CompletableFuture<Boolean> future = new CompletableFuture<>();
             scheduler.submit(() -> {
                 try {
-                    future.complete(connectTask.getResult());
+                    future.complete(pendingTask.getResult());
                 } catch (Exception e) {
                     future.completeExceptionally(e);
                 }
@@ -212,23 +395,31 @@ public class GoPlay {
         url = wsUrl;
         try {
             GoPlayLogger.logConnect("Connecting", wsUrl);
-            ws = new GoPlayWebSocketClient(new URI(wsUrl));
-            ws.connect();
-
-            connectTask = new TaskCompletionSource<>();
-            connectTimeOutId = scheduler.schedule(() -> {
-                if (isConnected()) return;
-                if (connectTask == null) return;
-
-                connectTask.setResult(false);
-                connectTask = null;
-                connectTimeOutId = null;
-            }, Consts.TimeOut.CONNECT, TimeUnit.MILLISECONDS);
+            TaskCompletionSource<Boolean> task = new TaskCompletionSource<>();
+            Connection client;
+            synchronized (connectionLock) {
+                // A previous socket may still be closing; settle its state now
+                if (ws != null) cleanup();
+
+                client = new Connection(new URI(wsUrl));
+                connectTask = task;
+                connectTimeOutId = scheduler.schedule(() -> {
+                    if (isConnected()) return;
+                    if (connectTask != task) return;
+
+                    task.setResult(false);
+                    endConnectAttempt();
+                    // A handshake arriving later must not connect behind the caller's back
+                    client.close();
+                }, Consts.TimeOut.CONNECT, TimeUnit.MILLISECONDS);
+                ws = client;
+            }
+            client.connect();
 
             CompletableFuture<Boolean> future = new CompletableFuture<>();
             scheduler.submit(() -> {
                 try {
-                    Boolean result = connectTask.getResult();
+                    Boolean result = task.getResult();
                     future.complete(result);
                 } catch (Exception e) {
                     future.completeExceptionally(e);
@@ -251,12 +442,14 @@ public class GoPlay {
             return CompletableFuture.completedFuture(true);
         }
 
-        disconnectTask = new TaskCompletionSource<>();
-        if (ws != null && ws.isOpen()) {
-            ws.close();
+        Connection client = ws;
+        TaskCompletionSource<Boolean> disconnectTask = client.closeTask;
+        if (client.isOpen()) {
+            // Let the writer flush what was already sent before closing the socket
+            client.outbound.shutdown().whenComplete((v, e) -> client.close());
         } else {
-            disconnectTask.setResult(true);
             cleanup();
+            disconnectTask.setResult(true);
         }
 
         CompletableFuture<Boolean> future = new CompletableFuture<>();
@@ -274,28 +467,82 @@ public class GoPlay {
     }
 
     /**
-     * Send a package.
+     * Send a package. The package is encoded on the calling thread and written to the
+     * socket by the outbound writer. Handshake, heartbeat and kick packages take the
+     * control lane; multi-chunk packages take the bulk lane, chunks in order.
      */
     public static void send(Package<?> pack) {
+        send(pack, 0, null);
+    }
+
+    /**
+     * Send a package that the writer skips if it is still queued at deadline
+     * (System.nanoTime based, 0 = none); onExpired then runs instead.
+     */
+    private static void send(Package<?> pack, long deadline, Runnable onExpired) {
         emit(Consts.Events.BEFORE_SEND, pack);
 
         try {
-            Package<?>[] packs = pack.split(getEncodingType());
-            for (Package<?> p : packs) {
-                ByteArray data = p.encode(getEncodingType());
-                if (debug) GoPlayLogger.logPackage("Send", p);
-
-                ByteArray buffer = new ByteArray(2 + data.getLength());
-                buffer.writeUint16(data.getLength());
-                buffer.writeBytes(data);
-
-                ws.send(buffer.getData());
+            Connection client = ws;
+            Package<?>[] packs = pack.split(getEncodingType(), client.framing.getMaxContentSize());
+            if (packs.length > 1) {
+                byte[][] chunks = new byte[packs.length][];
+                for (int i = 0; i < packs.length; i++) {
+                    ByteArray buffer = new ByteArray(0);
+                    writeFrame(client, buffer, packs[i]);
+                    chunks[i] = buffer.slice(0, buffer.woffset);
+                }
+                client.outbound.offerTransfer(chunks, deadline, onExpired);
+            } else {
+                ByteArray buffer = new ByteArray(0);
+                writeFrame(client, buffer, packs[0]);
+                client.outbound.offer(laneOf(pack), buffer.slice(0, buffer.woffset), deadline, onExpired);
             }
         } catch (Exception e) {
             logger.error("Error sending package", e);
         }
     }
 
+    private static OutboundWriter.Lane laneOf(Package<?> pack) {
+        if (pack.getHeader() instanceof Header) {
+            switch (((Header) pack.getHeader()).getPackageInfo().getType()) {
+                case HankShakeReq:
+                case HankShakeResp:
+                case Ping:
+                case Pong:
+                case Kick:
+                    return OutboundWriter.Lane.CONTROL;
+                default:
+                    break;
+            }
+        }
+        return OutboundWriter.Lane.INTERACTIVE;
+    }
+
+    /**
+     * Requests completed with Timeout while still queued, without being sent.
+     */
+    public static long getExpiredBeforeSendCount() {
+        return expiredBeforeSend.get();
+    }
+
+    /**
+     * The outbound writer of the current connection, for per-lane queue depth and latency.
+     */
+    public static OutboundWriter getOutboundWriter() {
+        Connection client = ws;
+        return client != null ? client.outbound : null;
+    }
+
+    /**
+     * Append a length-prefixed frame for a single (already split) package, in the frame
+     * mode of the connection it is sent on.
+     */
+    private static void writeFrame(Connection client, ByteArray out, Package<?> p) throws Exception {
+        client.framing.writeFrame(out, p, getEncodingType(), payloadCodec);
+        if (debug) GoPlayLogger.logPackage("Send", p);
+    }
+
     /**
      * Send a heartbeat ping.
      */
@@ -314,256 +561,1134 @@ public class GoPlay {
      */
     // ...existing code...
     public static <T, RT> CompletableFuture<ResponseResult<RT>> request(String route, T data, Class<RT> resultType) {
+        return request(route, data, resultType, 0);
+    }
+
+    /**
+     * Make a request with an explicit timeout, overriding the route's (0 = route default).
+     */
+    public static <T, RT> CompletableFuture<ResponseResult<RT>> request(String route, T data, Class<RT> resultType,
+                                                                         long timeoutMs) {
         CompletableFuture<ResponseResult<RT>> future = new CompletableFuture<>();
 
         try {
-            int encodedRoute = getRouteEncoded(route);
-            Package<?> pack = Package.createFromData(encodedRoute, data, PackageType.Request_VALUE, getEncodingType());
-
-            Object header = pack.getHeader();
-            if (header instanceof Header) {
-                Header h = (Header) header;
-                Header newHeader = Header.newBuilder(h)
-                        .setPackageInfo(PackageInfo.newBuilder(h.getPackageInfo())
-                                .setId(idGen.next())
-                                .build())
-                        .build();
-                pack.setHeader(newHeader);
-            }
-
-            String key = getCallbackKey(pack.getHeader());
-            requestMap.put(key, resultType);
-
-            ScheduledFuture<?> timeoutHandle = scheduler.schedule(() -> {
-                if (requestMap.remove(key) != null) {
-                    // 与 TS 对齐：Timeout + "request time out"
-                    Status timeoutStatus =
-                            /* 若是 proto: */
-                             Status.newBuilder()
-                                 .setCode(StatusCode.Timeout_VALUE) // 或 setCode(StatusCode.Timeout)
-                                 .setMessage("request time out")
-                                 .build();
-
-
-                    ResponseResult<RT> result = new ResponseResult<>(timeoutStatus, null);
-                    emit(key, result);
-                }
-            }, Consts.TimeOut.REQUEST, TimeUnit.MILLISECONDS);
-
-            once(key, (args) -> {
-                if (args.length > 0 && args[0] instanceof ResponseResult) {
-                    @SuppressWarnings("unchecked")
-                    ResponseResult<RT> result = (ResponseResult<RT>) args[0];
-                    timeoutHandle.cancel(false);
-                    requestMap.remove(key);
-                    future.complete(result);
+            boolean cached = responseCache.isCached(route);
+            if (cached || coalescedRoutes.contains(route)) {
+                // Encode once up front: the bytes are both the lookup key and the content
+                ByteArray rawData = EncoderFactory.getEncoder(getEncodingType()).encode(data);
+                RequestKey key = new RequestKey(route, resultType, rawData != null ? rawData.getData() : null);
+                if (cached) {
+                    // Hits never touch the connection, so they also work while it is down
+                    ResponseCache.Lookup<ResponseResult<?>> hit = responseCache.get(key);
+                    if (hit != null) {
+                        if (hit.stale && responseCache.beginRefresh(key)) {
+                            // The caller already has its answer; the refresh must not hold it up
+                            fetch(key, data, rawData, resultType, timeoutMs, false);
+                        }
+                        return CompletableFuture.completedFuture(castResult(hit.value));
+                    }
                 }
-            });
-
-            send(pack);
+                return fetch(key, data, rawData, resultType, timeoutMs, true);
+            }
+            submitRequest(route, data, null, resultType, timeoutMs, future, true);
         } catch (Exception e) {
             future.completeExceptionally(e);
         }
 
         return future;
     }
-// ...existing code...
 
     /**
-     * Send a notify message (no response expected).
+     * Send a request that goes through coalescing and fills the response cache.
      */
-    public static <T> void notify(String route, T data) {
-        try {
-            int encodedRoute = getRouteEncoded(route);
-            Package<?> pack = Package.createFromData(encodedRoute, data, PackageType.Notify_VALUE, getEncodingType());
-            send(pack);
-        } catch (Exception e) {
-            logger.error("Error sending notify", e);
+    private static <T, RT> CompletableFuture<ResponseResult<RT>> fetch(RequestKey key, T data, ByteArray rawData,
+                                                                       Class<RT> resultType, long timeoutMs,
+                                                                       boolean mayBlock) {
+        String route = key.getRoute();
+        CompletableFuture<ResponseResult<RT>> call;
+        if (coalescedRoutes.contains(route)) {
+            call = castResult(singleFlight.execute(key, () -> {
+                CompletableFuture<ResponseResult<RT>> f = new CompletableFuture<>();
+                submitRequest(route, data, rawData, resultType, timeoutMs, f, mayBlock);
+                return castResult(f);
+            }));
+        } else {
+            call = new CompletableFuture<>();
+            submitRequest(route, data, rawData, resultType, timeoutMs, call, mayBlock);
         }
+
+        if (!responseCache.isCached(route)) return call;
+
+        // Fill the cache before the caller sees the response, so a repeat right after is a hit
+        CompletableFuture<ResponseResult<RT>> result = new CompletableFuture<>();
+        call.whenComplete((r, e) -> {
+            if (e == null && r.getCode() == StatusCode.Success_VALUE) {
+                responseCache.put(key, r);
+            } else {
+                responseCache.endRefresh(key);
+            }
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(r);
+            }
+        });
+        // A caller giving up gives up the request, and with it the window slot
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) call.cancel(false);
+        });
+        return result;
     }
 
     /**
-     * Register a push handler with type.
+     * mayBlock is true only on the caller's own thread, where the BLOCK window policy
+     * may park it; retries, hedges and delayed sends run on internal threads and queue.
      */
-    public static <T> void onType(String event, Class<T> type, Emitter.Function fn) {
-        if (pushMap.containsKey(event) && !pushMap.get(event).equals(type)) {
-            throw new IllegalStateException("Event already registered with different type");
+    private static <T, RT> void submitRequest(String route, T data, ByteArray rawData,
+                                              Class<RT> resultType, long timeoutMs,
+                                              CompletableFuture<ResponseResult<RT>> future, boolean mayBlock) {
+        RetryPolicy policy = idempotentRoutes.isEmpty() ? null : idempotentRoutes.get(route);
+        if (policy != null) {
+            new IdempotentCall<>(policy, route, data, rawData, resultType, timeoutMs, future).start(mayBlock);
+        } else {
+            submitAttempt(route, data, rawData, resultType, timeoutMs, future, mayBlock);
         }
-        pushMap.put(event, type);
-        emitter.on(event, fn);
     }
 
     /**
-     * Register a one-time push handler with type.
+     * Send one attempt of a request through the circuit breaker, rate limits and request window.
      */
-    public static <T> void onceType(String event, Class<T> type, Emitter.Function fn) {
-        if (pushMap.containsKey(event) && !pushMap.get(event).equals(type)) {
-            throw new IllegalStateException("Event already registered with different type");
-        }
-        pushMap.put(event, type);
-        emitter.once(event, fn);
+    private static <T, RT> void submitAttempt(String route, T data, ByteArray rawData,
+                                              Class<RT> resultType, long timeoutMs,
+                                              CompletableFuture<ResponseResult<RT>> future, boolean mayBlock) {
+        admit(route, sizeOf(data, rawData), future,
+                () -> dispatchRequest(route, data, rawData, resultType, timeoutMs, future), mayBlock);
     }
 
-    // Private helper methods
+    /**
+     * The admission chain every request goes through: circuit breaker, rate limits, then the
+     * request window. onAdmit runs once a window slot is held; a rejection completes the future.
+     */
+    private static <RT> void admit(String route, int size, CompletableFuture<ResponseResult<RT>> future,
+                                   Runnable onAdmit, boolean mayBlock) {
+        CircuitBreaker breaker = circuitBreakers.isEmpty() ? null : circuitBreakers.get(route);
+        if (breaker != null) {
+            if (!breaker.tryAcquire()) {
+                future.complete(new ResponseResult<>(statusOf(Consts.ClientStatus.CIRCUIT_OPEN, "circuit open"), null));
+                return;
+            }
+            future.whenComplete((r, e) -> recordOutcome(breaker, r));
+        }
 
-    private static String getChunkKey(Package<?> pack) {
-        // Implement based on header structure
-        return "chunk_key";
+        if (!isRateLimited(route)) {
+            enterWindow(route, future, onAdmit, mayBlock);
+            return;
+        }
+        // A delayed send runs on the scheduler, which must never be parked
+        Thread caller = Thread.currentThread();
+        throttle(route, size, false,
+                () -> enterWindow(route, future, onAdmit, mayBlock && Thread.currentThread() == caller),
+                () -> future.complete(new ResponseResult<>(
+                        statusOf(Consts.ClientStatus.RATE_LIMITED, "rate limit exceeded"), null)));
     }
 
-    private static Package<?> resolveChunk(Package<?> pack) {
-        String key = getChunkKey(pack);
-        Queue<Package<?>> chunks = chunkMap.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
-        chunks.offer(pack);
-
-        // Check if all chunks received
-        // If yes, join and return; if no, return null
+    private static <RT> void enterWindow(String route, CompletableFuture<ResponseResult<RT>> future,
+                                         Runnable onAdmit, boolean mayBlock) {
+        requestWindow.submit(route, onAdmit,
+                () -> future.complete(new ResponseResult<>(
+                        statusOf(Consts.ClientStatus.OVERLOADED, "request window full"), null)),
+                mayBlock);
+    }
 
-        return null;
+    // Shared and cached results are keyed by result type, so the unchecked casts are safe
+    @SuppressWarnings("unchecked")
+    private static <A, B> CompletableFuture<B> castResult(CompletableFuture<A> future) {
+        return (CompletableFuture<B>) (CompletableFuture<?>) future;
     }
 
-    private static Package<?> recv() throws Exception {
-        if (buffer == null || buffer.getLength() == 0) return null;
+    @SuppressWarnings("unchecked")
+    private static <B> ResponseResult<B> castResult(ResponseResult<?> result) {
+        return (ResponseResult<B>) result;
+    }
 
-        if (!buffer.hasReadSize(2)) return null;
-        int packSize = buffer.readUint16();
-        if (packSize <= 0) {
-            // Invalid or empty frame; reset and skip
-            buffer.roffset -= 2;
-            return null;
+    /**
+     * Register and send a request that holds a slot in the request window.
+     */
+    private static <T, RT> void dispatchRequest(String route, T data, ByteArray rawData,
+                                                Class<RT> resultType, long timeoutMs,
+                                                CompletableFuture<ResponseResult<RT>> future) {
+        if (deferUntilHandshake(() -> dispatchRequest(route, data, rawData, resultType, timeoutMs, future))) {
+            return;
         }
-
-        if (!buffer.hasReadSize(packSize)) {
-            buffer.roffset -= 2;
-            return null;
+        if (future.isDone()) {
+            // Cancelled while it waited for a slot
+            requestWindow.release(route);
+            return;
+        }
+        if (handShake == null) {
+            if (idempotentRoutes.containsKey(route)
+                    && holdRequestOffline(route, data, rawData, resultType, timeoutMs, future)) {
+                return;
+            }
+            // Connection went away while this request waited for a slot
+            requestWindow.release(route);
+            future.complete(new ResponseResult<>(statusOf(Consts.ClientStatus.CONNECTION_LOST, "connection lost"), null));
+            return;
         }
 
-        byte[] data = buffer.readBytes(packSize);
-        Package<?> pack = null;
+        String key = null;
         try {
-            pack = Package.tryDecodeRaw(new ByteArray(data), getEncodingType());
-        } catch (Exception ex) {
-            logger.error("Error decoding package", ex);
+            Package<?> pack = createRequestPackage(getRouteEncoded(route), data, idGen.next());
+            if (rawData != null) pack.setRawData(rawData);
+            key = getCallbackKey(pack.getHeader());
+
+            PendingRequest pending = registerPending(key, route, resultType, future);
+            String pendingKey = key;
+            long timeout = resolveTimeout(route, timeoutMs);
+            pending.timeout = scheduler.schedule(() -> {
+                if (completePending(pendingKey, timeoutResult())) {
+                    latencyOf(route).recordCensored();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            // Completed from outside, e.g. a hedge that lost: give up the entry and the slot
+            future.whenComplete((r, e) -> cancelPending(pendingKey, pending));
+
+            // Not worth sending once the caller has given up on the answer
+            send(pack, requestDeadline(timeout), () -> {
+                expiredBeforeSend.incrementAndGet();
+                completePending(pendingKey, timeoutResult());
+            });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            // Settle through the pending entry when it exists, so the slot is released once
+            if (key == null || !completePending(key, new ResponseResult<>(500, null))) {
+                requestWindow.release(route);
+            }
         }
+    }
 
-        if (debug && pack != null) logger.info("Recv: {}", pack);
-
-        if (pack == null) return null;
-
-        // Handle chunked messages
-        // if (pack.header.PackageInfo.ChunkCount > 1) {
-        //     pack = resolveChunk(pack);
-        //     if (pack.header.PackageInfo.ChunkCount > 1) return null;
-        // }
-
-        emit(Consts.Events.BEFORE_RECV, pack);
-        return pack;
+    /**
+     * Make one request per item on the same route. IDs are allocated in one step, all
+     * admitted requests share a single deadline and go out together in one outbound
+     * buffer. Each item passes the circuit breaker, rate limits and request window like
+     * request() does; items the limiter or window defers are sent on their own once admitted.
+     * On a route with caching, coalescing or retries every item is a plain request().
+     */
+    public static <T, RT> BatchResult<RT> requestAll(String route, List<T> items, Class<RT> resultType) {
+        if (responseCache.isCached(route) || coalescedRoutes.contains(route) || idempotentRoutes.containsKey(route)) {
+            List<CompletableFuture<ResponseResult<RT>>> futures = new ArrayList<>(items.size());
+            for (T item : items) {
+                futures.add(request(route, item, resultType));
+            }
+            return new BatchResult<>(futures);
+        }
+        return requestAll(route, items, resultType, true);
     }
 
-    private static int getRouteEncoded(String route) {
-        if (handShake == null) {
-            throw new IllegalStateException("Handshake not completed; routes unavailable");
+    private static <T, RT> BatchResult<RT> requestAll(String route, List<T> items, Class<RT> resultType,
+                                                      boolean mayBlock) {
+        List<CompletableFuture<ResponseResult<RT>>> futures = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            futures.add(new CompletableFuture<>());
         }
-        if (handShake instanceof RespHandShake) {
-            RespHandShake hs = (RespHandShake) handShake;
-            Integer id = hs.getRoutesMap().get(route);
-            if (id == null) {
-                throw new IllegalArgumentException("Route not found: " + route);
+        BatchResult<RT> batch = new BatchResult<>(futures);
+        if (items.isEmpty()) return batch;
+        if (deferUntilHandshake(() -> {
+            // Replayed on the read thread once the handshake is done
+            BatchResult<RT> sent = requestAll(route, items, resultType, false);
+            for (int i = 0; i < futures.size(); i++) {
+                CompletableFuture<ResponseResult<RT>> future = futures.get(i);
+                sent.futures.get(i).whenComplete((r, e) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(r);
+                    }
+                });
             }
-            return id;
+        })) {
+            return batch;
         }
-        throw new IllegalStateException("Invalid handshake state");
-    }
 
-    private static String getRoute(int encodedRoute) {
-        if (handShake == null) return "";
-        if (handShake instanceof RespHandShake) {
-            RespHandShake hs = (RespHandShake) handShake;
-            for (Map.Entry<String, Integer> e : hs.getRoutesMap().entrySet()) {
-                if (e.getValue() == encodedRoute) return e.getKey();
+        try {
+            Connection client = ws;
+            int encodedRoute = getRouteEncoded(route);
+            int[] ids = idGen.next(items.size());
+            List<String> keys = new ArrayList<>(items.size());
+            ByteArray buffer = new ByteArray(0);
+            Thread caller = Thread.currentThread();
+            boolean[] collecting = {true};
+
+            for (int i = 0; i < items.size(); i++) {
+                T data = items.get(i);
+                int id = ids[i];
+                CompletableFuture<ResponseResult<RT>> future = futures.get(i);
+
+                admit(route, sizeOf(data, null), future, () -> {
+                    // Admitted later from the limiter or the queue: fall back to a regular request
+                    if (Thread.currentThread() != caller || !collecting[0]) {
+                        dispatchRequest(route, data, null, resultType, 0, future);
+                        return;
+                    }
+                    if (handShake == null) {
+                        requestWindow.release(route);
+                        future.complete(new ResponseResult<>(statusOf(Consts.ClientStatus.CONNECTION_LOST, "connection lost"), null));
+                        return;
+                    }
+
+                    String key = null;
+                    try {
+                        Package<?> pack = createRequestPackage(encodedRoute, data, id);
+                        key = getCallbackKey(pack.getHeader());
+                        registerPending(key, route, resultType, future);
+                        keys.add(key);
+
+                        emit(Consts.Events.BEFORE_SEND, pack);
+                        for (Package<?> p : pack.split(getEncodingType(), client.framing.getMaxContentSize())) {
+                            writeFrame(client, buffer, p);
+                        }
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                        if (key == null || !completePending(key, new ResponseResult<>(500, null))) {
+                            requestWindow.release(route);
+                        }
+                    }
+                }, mayBlock);
+            }
+            collecting[0] = false;
+
+            if (!keys.isEmpty()) {
+                long timeoutMs = resolveTimeout(route, 0);
+                ScheduledFuture<?> deadline = scheduler.schedule(() -> {
+                    ResponseResult<?> timeout = timeoutResult();
+                    for (String key : keys) {
+                        completePending(key, timeout);
+                    }
+                }, timeoutMs, TimeUnit.MILLISECONDS);
+                batch.all.whenComplete((r, e) -> deadline.cancel(false));
+
+                try {
+                    Runnable onExpired = () -> {
+                        expiredBeforeSend.addAndGet(keys.size());
+                        ResponseResult<?> timeout = timeoutResult();
+                        for (String key : keys) {
+                            completePending(key, timeout);
+                        }
+                    };
+                    client.outbound.offer(OutboundWriter.Lane.INTERACTIVE, buffer.slice(0, buffer.woffset),
+                            requestDeadline(timeoutMs), onExpired);
+                } catch (Exception e) {
+                    logger.error("Error sending batch", e);
+                }
+            }
+        } catch (Exception e) {
+            for (CompletableFuture<ResponseResult<RT>> future : futures) {
+                future.completeExceptionally(e);
             }
         }
-        return "";
+
+        return batch;
     }
 
-    private static String getCallbackKey(Object header) {
+    private static <T> Package<T> createRequestPackage(int encodedRoute, T data, int id) {
+        Package<T> pack = Package.createFromData(encodedRoute, data, PackageType.Request_VALUE, getEncodingType());
+
+        Object header = pack.getHeader();
         if (header instanceof Header) {
             Header h = (Header) header;
-            return h.getPackageInfo().getRoute() + "-" + h.getPackageInfo().getId();
+            Header newHeader = Header.newBuilder(h)
+                    .setPackageInfo(PackageInfo.newBuilder(h.getPackageInfo())
+                            .setId(id)
+                            .build())
+                    .build();
+            pack.setHeader(newHeader);
         }
-        return "";
+        return pack;
     }
 
-    private static String getPushKey(Object header) {
-        if (header instanceof Header) {
-            Header h = (Header) header;
-            return getRoute(h.getPackageInfo().getRoute());
-        }
-        return "";
+    /**
+     * Track a request under its callback key; the future completes through completePending().
+     */
+    private static <RT> PendingRequest registerPending(String key, String route, Class<RT> resultType,
+                                                       CompletableFuture<ResponseResult<RT>> future) {
+        // Listener first, so that any completion path always finds it
+        Emitter.Function listener = (args) -> {
+            if (args.length > 0 && args[0] instanceof ResponseResult) {
+                @SuppressWarnings("unchecked")
+                ResponseResult<RT> result = (ResponseResult<RT>) args[0];
+                future.complete(result);
+            }
+        };
+        once(key, listener);
+
+        PendingRequest pending = new PendingRequest(route, resultType, listener);
+        requestMap.put(key, pending);
+        return pending;
     }
 
-    private static void cleanup() {
-        ws = null;
-        handShake = null;
-        buffer = null;
-        requestMap.clear();
-        chunkMap.clear();
+    private static long requestDeadline(long timeoutMs) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
     }
 
-    private static void onHandshake(Package<?> pack) {
-        GoPlayLogger.logHandshake("Received");
+    /**
+     * The timeout for a request: the per-call override, else the route's adaptive
+     * timeout, else Consts.TimeOut.REQUEST.
+     */
+    private static long resolveTimeout(String route, long timeoutMs) {
+        if (timeoutMs > 0) return timeoutMs;
+        AdaptiveTimeout adaptive = adaptiveTimeouts.isEmpty() ? null : adaptiveTimeouts.get(route);
+        if (adaptive == null) return Consts.TimeOut.REQUEST;
+        return adaptive.timeoutMs(routeLatency.get(route), Consts.TimeOut.REQUEST);
+    }
+
+    private static LatencyTracker latencyOf(String route) {
+        LatencyTracker tracker = routeLatency.get(route);
+        return tracker != null ? tracker : routeLatency.computeIfAbsent(route, k -> new LatencyTracker());
+    }
+
+    // 与 TS 对齐：Timeout + "request time out"
+    private static <RT> ResponseResult<RT> timeoutResult() {
+        return new ResponseResult<>(statusOf(StatusCode.Timeout_VALUE, "request time out"), null);
+    }
+// ...existing code...
+
+    /**
+     * Send a notify message (no response expected).
+     */
+    public static <T> void notify(String route, T data) {
         try {
-            Package<RespHandShake> p = pack.decodeFromRaw(RespHandShake.class, getEncodingType());
-            handShake = p.getData();
-            HeartBeat.start();
-            emit(Consts.Events.CONNECTED);
-            if (connectTask != null) {
-                connectTask.setResult(true);
-                if (connectTimeOutId != null) connectTimeOutId.cancel(false);
-                connectTask = null;
-                connectTimeOutId = null;
+            if (!isRateLimited(route)) {
+                sendNotify(route, data);
+                return;
             }
+            throttle(route, sizeOf(data, null), true,
+                    () -> sendNotify(route, data),
+                    () -> {
+                        if (debug) logger.warn("Notify dropped by rate limit: {}", route);
+                    });
         } catch (Exception e) {
-            logger.error("Error parsing handshake", e);
+            logger.error("Error sending notify", e);
         }
     }
 
-    private static void onResponse(Package<?> pack) {
-        // Get callback key from header
-        String key = getCallbackKey(pack.getHeader());
-        
-        if (!requestMap.containsKey(key)) {
-            if (debug) logger.warn("Response received for unknown request: {}", key);
+    private static <T> void sendNotify(String route, T data) {
+        if (deferUntilHandshake(() -> sendNotify(route, data))) return;
+        if (handShake == null && holdOffline(route, sizeOf(data, null), () -> sendNotify(route, data), null) != null) {
             return;
         }
-        
         try {
-            // Get the expected result type for this response
-            Class<?> resultType = requestMap.get(key);
-            
-            // Decode the response data
-            Package<?> decodedPack = pack.decodeFromRaw(resultType, getEncodingType());
-            
-            // Create response result (status code 0 = success)
-            ResponseResult<?> result = new ResponseResult<>(0, decodedPack.getData());
-            
-            // Emit the response event to trigger the once handler registered in request()
-            emit(key, result);
-            
-            if (debug) logger.info("Response processed for: {}", key);
+            Package<?> pack = Package.createFromData(getRouteEncoded(route), data, PackageType.Notify_VALUE,
+                    getEncodingType());
+            Function<Object, Object> keyExtractor = conflatedRoutes.get(route);
+            if (keyExtractor != null) {
+                sendConflated(pack, new AbstractMap.SimpleImmutableEntry<>(route, keyExtractor.apply(data)));
+            } else {
+                send(pack);
+            }
         } catch (Exception e) {
-            logger.error("Error processing response for: {}", key, e);
-            // Emit error response
-            ResponseResult<?> result = new ResponseResult<>(500, null);
-            emit(key, result);
+            logger.error("Error sending notify", e);
         }
     }
 
-    private static void onPush(Package<?> pack) {
-        // TODO: Implement push processing
-    }
-
+    /**
+     * Send the content of a file to a route as a stream of Notify chunks, see sendStream().
+     * The file is memory-mapped a window at a time rather than read onto the heap.
+     */
+    public static CompletableFuture<Long> sendFile(String route, Path file) {
+        FileChannel channel = null;
+        long size;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+        } catch (IOException e) {
+            closeQuietly(channel);
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return sendStream(route, channel, size);
+    }
+
+    /**
+     * Send size bytes read from a channel to a route, as a stream of Notify chunks the
+     * server reassembles by id. Chunks are read only as the socket drains, so memory use
+     * does not depend on size. The channel is closed at the end; a FileChannel is
+     * memory-mapped from its current position. The future completes with the bytes sent
+     * once the last chunk is handed to the connection, or fails if the channel ends early
+     * or the connection goes away. Cancelling it stops the transfer.
+     */
+    public static CompletableFuture<Long> sendStream(String route, ReadableByteChannel channel, long size) {
+        Connection client = ws;
+        if (client == null || handShake == null) {
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Not connected"));
+            closeQuietly(channel);
+            return failed;
+        }
+        PackageInfo info = PackageInfo.newBuilder()
+                .setRoute(getRouteEncoded(route))
+                .setType(PackageType.Notify)
+                .setEncodingType(EncodingType.forNumber(getEncodingType()))
+                .setId(idGen.next())
+                .build();
+        StreamSender sender = new StreamSender(client, Header.newBuilder().setPackageInfo(info).build(), channel, size);
+        streamExecutor.execute(sender);
+        return sender.future;
+    }
+
+    /**
+     * Receive pushes of a route as streams. The handler runs on a thread of its own as
+     * soon as the first chunk arrives, and may block reading; it should close the stream.
+     * A stream fails with EOFException if the connection is lost before its last chunk.
+     */
+    public static void onStream(String route, Consumer<IncomingStream> handler) {
+        if (handler == null) {
+            streamHandlers.remove(route);
+        } else {
+            streamHandlers.put(route, handler);
+        }
+    }
+
+    /**
+     * Make a request whose response is delivered as a stream, chunked or not. The result
+     * is available as soon as the first chunk arrives; the route's timeout applies until then.
+     */
+    public static <T> CompletableFuture<ResponseResult<IncomingStream>> requestStream(String route, T data) {
+        return request(route, data, IncomingStream.class);
+    }
+
+    /**
+     * Derive the route's request timeout from its observed latency instead of
+     * Consts.TimeOut.REQUEST (null goes back to the static timeout).
+     */
+    public static void setAdaptiveTimeout(String route, AdaptiveTimeout timeout) {
+        if (timeout == null) {
+            adaptiveTimeouts.remove(route);
+        } else {
+            adaptiveTimeouts.put(route, timeout);
+        }
+    }
+
+    /**
+     * The timeout a request on the route would get now.
+     */
+    public static long getRequestTimeout(String route) {
+        return resolveTimeout(route, 0);
+    }
+
+    /**
+     * Response latency observed on the route.
+     */
+    public static LatencyTracker getRouteLatency(String route) {
+        return latencyOf(route);
+    }
+
+    /**
+     * Hold notifies and requests on idempotent routes in the buffer while disconnected and
+     * replay them in one flush on the next connect (null stops buffering and evicts what
+     * is held). Evicted requests complete with CONNECTION_LOST; buffered requests time
+     * out as usual.
+     */
+    public static void setOfflineBuffer(OfflineBuffer buffer) {
+        OfflineBuffer previous = offlineBuffer;
+        offlineBuffer = buffer;
+        if (previous != null && previous != buffer) previous.clear();
+    }
+
+    public static OfflineBuffer getOfflineBuffer() {
+        return offlineBuffer;
+    }
+
+    /**
+     * Deflate package content with the codec's per-route dictionaries and inflate what
+     * arrives compressed (null turns it off). The server must have the same dictionaries.
+     */
+    public static void setPayloadCodec(PayloadCodec codec) {
+        Object hs = handShake;
+        if (codec != null && hs instanceof RespHandShake) codec.bindRoutes(((RespHandShake) hs).getRoutesMap());
+        payloadCodec = codec;
+    }
+
+    public static PayloadCodec getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    /**
+     * Offer varint length prefixes in the handshake (on by default), so packages of up
+     * to Framing.MAX_VARINT_CONTENT_SIZE go unchunked. The server decides; servers that
+     * do not know the offer keep uint16 framing. Takes effect on the next connection.
+     */
+    public static void setVarintFramingOffered(boolean offered) {
+        varintFramingOffered = offered;
+    }
+
+    /**
+     * Length prefix mode of the current connection; Uint16 until the handshake completes.
+     */
+    public static FrameMode getFrameMode() {
+        Connection client = ws;
+        return client != null ? client.framing.getMode() : FrameMode.Uint16;
+    }
+
+    /**
+     * Priority of the route in the offline buffer (default 0). When the buffer is full,
+     * calls on lower-priority routes are evicted first.
+     */
+    public static void setRoutePriority(String route, int priority) {
+        routePriorities.put(route, priority);
+    }
+
+    /**
+     * Declare the route idempotent, so its requests may be sent more than once: hedged
+     * when slower than usual and retried after a timeout, as the policy allows
+     * (null removes the declaration). Extra attempts go through the same limits as
+     * the first one; the caller sees only the first answer.
+     */
+    public static void setIdempotent(String route, RetryPolicy policy) {
+        if (policy == null) {
+            idempotentRoutes.remove(route);
+        } else {
+            idempotentRoutes.put(route, policy);
+        }
+    }
+
+    public static RetryPolicy getRetryPolicy(String route) {
+        return idempotentRoutes.get(route);
+    }
+
+    /**
+     * Guard the route with a circuit breaker (null removes it). Timeout and Error
+     * statuses count as failures; state changes are emitted as Events.CIRCUIT_STATE.
+     */
+    public static void setCircuitBreaker(String route, CircuitBreaker breaker) {
+        if (breaker == null) {
+            circuitBreakers.remove(route);
+            return;
+        }
+        breaker.setListener((from, to) -> {
+            if (debug) logger.info("Circuit {} -> {}: {}", from, to, route);
+            emit(Consts.Events.CIRCUIT_STATE, route, from, to);
+        });
+        circuitBreakers.put(route, breaker);
+    }
+
+    public static CircuitBreaker getCircuitBreaker(String route) {
+        return circuitBreakers.get(route);
+    }
+
+    private static void recordOutcome(CircuitBreaker breaker, ResponseResult<?> result) {
+        int code = result != null ? result.getCode() : Consts.ClientStatus.CONNECTION_LOST;
+        if (code == StatusCode.Timeout_VALUE || code == StatusCode.Error_VALUE) {
+            breaker.onFailure();
+        } else if (code >= Consts.ClientStatus.CONNECTION_LOST && code <= Consts.ClientStatus.CANCELLED) {
+            // Decided on the client; says nothing about the backend
+            breaker.onIgnored();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    /**
+     * Rate limit requests and notifies on the route (null removes the limit).
+     * Limits are checked before encoding, using the message's serialized size.
+     */
+    public static void setRateLimit(String route, RateLimiter limiter) {
+        if (limiter == null) {
+            routeRateLimits.remove(route);
+        } else {
+            routeRateLimits.put(route, limiter);
+        }
+    }
+
+    /**
+     * Rate limit all requests and notifies on the connection (null removes the limit).
+     * CONFLATE acts as DELAY here, since messages of different routes never replace each other.
+     */
+    public static void setConnectionRateLimit(RateLimiter limiter) {
+        connectionRateLimit = limiter;
+    }
+
+    public static RateLimiter getRateLimit(String route) {
+        return routeRateLimits.get(route);
+    }
+
+    public static RateLimiter getConnectionRateLimit() {
+        return connectionRateLimit;
+    }
+
+    private static boolean isRateLimited(String route) {
+        return connectionRateLimit != null || (!routeRateLimits.isEmpty() && routeRateLimits.containsKey(route));
+    }
+
+    /**
+     * Pass a message through the route limit, then the connection limit. proceed runs
+     * now or after the delay the limits ask for; reject runs if either limit drops it.
+     */
+    private static void throttle(String route, int size, boolean conflatable, Runnable proceed, Runnable reject) {
+        RateLimiter limiter = routeRateLimits.get(route);
+        if (limiter != null) {
+            long wait = limiter.acquire(size, conflatable);
+            if (wait == RateLimiter.REJECTED) {
+                reject.run();
+                return;
+            }
+            if (wait > 0) {
+                Runnable next = () -> throttleConnection(size, proceed, reject);
+                if (conflatable && limiter.getPolicy() == RateLimiter.Policy.CONFLATE) {
+                    limiter.conflate(next, size, wait, scheduler);
+                } else {
+                    scheduler.schedule(next, wait, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+        }
+        throttleConnection(size, proceed, reject);
+    }
+
+    private static void throttleConnection(int size, Runnable proceed, Runnable reject) {
+        RateLimiter limiter = connectionRateLimit;
+        if (limiter == null) {
+            proceed.run();
+            return;
+        }
+        long wait = limiter.acquire(size, false);
+        if (wait == RateLimiter.REJECTED) {
+            reject.run();
+        } else if (wait > 0) {
+            scheduler.schedule(proceed, wait, TimeUnit.NANOSECONDS);
+        } else {
+            proceed.run();
+        }
+    }
+
+    // Protobuf messages memoize their size, so this is cheap and needs no encoding
+    private static int sizeOf(Object data, ByteArray rawData) {
+        if (rawData != null) return rawData.getLength();
+        if (data instanceof MessageLite) return ((MessageLite) data).getSerializedSize();
+        return 0;
+    }
+
+    /**
+     * Conflate notifies on the route: a new notify replaces one on the same route that
+     * has not been sent yet, so only the latest value goes out under congestion.
+     */
+    public static void setConflated(String route, boolean enabled) {
+        if (enabled) {
+            conflatedRoutes.put(route, data -> null);
+        } else {
+            conflatedRoutes.remove(route);
+        }
+    }
+
+    /**
+     * Conflate notifies on the route per key, e.g. per entity id, so updates for
+     * different keys never replace each other.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void setConflated(String route, Function<T, ?> keyExtractor) {
+        conflatedRoutes.put(route, (Function<Object, Object>) keyExtractor);
+    }
+
+    private static void sendConflated(Package<?> pack, Object key) {
+        try {
+            Connection client = ws;
+            Package<?>[] packs = pack.split(getEncodingType(), client.framing.getMaxContentSize());
+            if (packs.length > 1) {
+                // Too large to replace in place; send as a regular transfer
+                send(pack);
+                return;
+            }
+            emit(Consts.Events.BEFORE_SEND, pack);
+            ByteArray buffer = new ByteArray(0);
+            writeFrame(client, buffer, packs[0]);
+            client.outbound.offerConflated(key, buffer.slice(0, buffer.woffset));
+        } catch (Exception e) {
+            logger.error("Error sending package", e);
+        }
+    }
+
+    /**
+     * Register a push handler with type.
+     */
+    public static <T> void onType(String event, Class<T> type, Emitter.Function fn) {
+        if (pushMap.containsKey(event) && !pushMap.get(event).equals(type)) {
+            throw new IllegalStateException("Event already registered with different type");
+        }
+        pushMap.put(event, type);
+        emitter.on(event, fn);
+    }
+
+    /**
+     * Register a one-time push handler with type.
+     */
+    public static <T> void onceType(String event, Class<T> type, Emitter.Function fn) {
+        if (pushMap.containsKey(event) && !pushMap.get(event).equals(type)) {
+            throw new IllegalStateException("Event already registered with different type");
+        }
+        pushMap.put(event, type);
+        emitter.once(event, fn);
+    }
+
+    // Private helper methods
+
+    /**
+     * Handle a chunk: feed it to the stream it belongs to, opening one on the first
+     * chunk of a streamed push or response, or collect it until the package is whole.
+     * Chunks of one package arrive in order on the one connection.
+     */
+    private static void onChunk(Connection client, Package<?> pack) throws Exception {
+        String key = FrameCodec.chunkKey(pack);
+        IncomingStream stream = incomingStreams.get(key);
+        if (stream == null && !client.framing.isCollecting(key)) {
+            stream = openStream(pack);
+            if (stream != null) incomingStreams.put(key, stream);
+        }
+        if (stream != null) {
+            if (stream.offer(pack.getRawData().getData())) incomingStreams.remove(key);
+            return;
+        }
+        Package<?> whole = client.framing.collectChunk(pack);
+        if (whole != null) processPackage(client, whole);
+    }
+
+    /**
+     * Open a stream for a push with a stream handler or a response to requestStream(),
+     * and hand it over off the receive thread. Returns null for other packages.
+     */
+    private static IncomingStream openStream(Package<?> pack) {
+        Header h = (Header) pack.getHeader();
+        PackageInfo info = h.getPackageInfo();
+        if (info.getType() == PackageType.Push) {
+            String route = getRoute(info.getRoute());
+            Consumer<IncomingStream> handler = streamHandlers.get(route);
+            if (handler == null) return null;
+            responseCache.onPush(route);
+            IncomingStream stream = new IncomingStream(info.getChunkCount(), Consts.Stream.SPILL_THRESHOLD);
+            streamExecutor.execute(() -> {
+                try {
+                    handler.accept(stream);
+                } catch (Exception e) {
+                    logger.error("Error in stream handler for: {}", route, e);
+                    stream.close();
+                }
+            });
+            return stream;
+        }
+        if (info.getType() == PackageType.Response) {
+            String key = getCallbackKey(h);
+            PendingRequest pending = requestMap.get(key);
+            if (pending == null || pending.resultType != IncomingStream.class) return null;
+            latencyOf(pending.route).record(System.nanoTime() - pending.sentAt);
+            IncomingStream stream = new IncomingStream(info.getChunkCount(), Consts.Stream.SPILL_THRESHOLD);
+            Status status = h.hasStatus() ? h.getStatus() : statusOf(StatusCode.Success_VALUE, "");
+            // Callers read the stream in their callback, which must not hold up the receive thread
+            streamExecutor.execute(() -> {
+                if (!completePending(key, new ResponseResult<>(status, stream))) stream.close();
+            });
+            return stream;
+        }
+        return null;
+    }
+
+    /**
+     * The next package received, or null once only part of a frame is left. A frame
+     * that cannot be decoded is logged and skipped.
+     */
+    private static Package<?> recv(Connection client) {
+        while (true) {
+            byte[] data;
+            try {
+                data = client.framing.nextFrame();
+            } catch (IOException ex) {
+                // The stream cannot be resynchronized past a bad length
+                logger.error("Invalid frame, closing connection", ex);
+                client.close();
+                return null;
+            }
+            if (data == null) return null;
+
+            Package<?> pack = null;
+            try {
+                pack = Package.tryDecodeRaw(new ByteArray(data), getEncodingType(), payloadCodec);
+            } catch (Exception ex) {
+                logger.error("Error decoding package", ex);
+            }
+            if (pack == null) continue;
+
+            if (debug) logger.info("Recv: {}", pack);
+            emit(Consts.Events.BEFORE_RECV, pack);
+            return pack;
+        }
+    }
+
+    /**
+     * Hold an action that needs the route table while the handshake is under way.
+     * Returns false when the table is known or no connection is being made; the
+     * caller then goes ahead right away.
+     */
+    private static boolean deferUntilHandshake(Runnable action) {
+        if (handShake != null) return false;
+        // connectTask is cleared under the same lock the queue is drained under, so an
+        // action added here is always either drained or never added
+        synchronized (preHandshakeQueue) {
+            if (handShake != null || connectTask == null) return false;
+            preHandshakeQueue.add(action);
+            return true;
+        }
+    }
+
+    /**
+     * Replay the offline buffer, then run the actions held for the handshake. Once
+     * connected their frames are corked into one flush; after a failed connect the held
+     * actions fail as if called without a connection.
+     */
+    private static void flushPreHandshake() {
+        flushPreHandshake(false);
+    }
+
+    /**
+     * A failed connect attempt is over: stop holding actions and fail the held ones.
+     */
+    private static void endConnectAttempt() {
+        flushPreHandshake(true);
+    }
+
+    private static void flushPreHandshake(boolean endAttempt) {
+        List<Runnable> actions;
+        synchronized (preHandshakeQueue) {
+            if (endAttempt) {
+                connectTask = null;
+                connectTimeOutId = null;
+            }
+            actions = preHandshakeQueue.isEmpty() ? Collections.emptyList() : new ArrayList<>(preHandshakeQueue);
+            preHandshakeQueue.clear();
+        }
+        OfflineBuffer offline = handShake != null ? offlineBuffer : null;
+        if (actions.isEmpty() && (offline == null || offline.isEmpty())) return;
+
+        Connection client = ws;
+        OutboundWriter outbound = client != null && handShake != null ? client.outbound : null;
+        if (outbound != null) outbound.cork();
+        try {
+            if (offline != null) {
+                int replayed = offline.replay();
+                if (debug) logger.info("Replayed {} offline calls", replayed);
+            }
+            for (Runnable action : actions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error running call held for handshake", e);
+                }
+            }
+        } finally {
+            if (outbound != null) outbound.uncork();
+        }
+    }
+
+    /**
+     * Put a call in the offline buffer, if there is one. Returns null if it was not buffered.
+     */
+    private static OfflineBuffer.Entry holdOffline(String route, int size, Runnable replay, Runnable evict) {
+        OfflineBuffer buffer = offlineBuffer;
+        if (buffer == null) return null;
+        Integer priority = routePriorities.get(route);
+        return buffer.add(priority != null ? priority : 0, size, replay, evict);
+    }
+
+    /**
+     * Buffer a request that holds a window slot. It keeps the slot while buffered and
+     * times out as if it had been sent.
+     */
+    private static <T, RT> boolean holdRequestOffline(String route, T data, ByteArray rawData, Class<RT> resultType,
+                                                      long timeoutMs, CompletableFuture<ResponseResult<RT>> future) {
+        OfflineBuffer.Entry entry = holdOffline(route, sizeOf(data, rawData),
+                () -> dispatchRequest(route, data, rawData, resultType, timeoutMs, future),
+                () -> {
+                    requestWindow.release(route);
+                    future.complete(new ResponseResult<>(
+                            statusOf(Consts.ClientStatus.CONNECTION_LOST, "evicted from offline buffer"), null));
+                });
+        if (entry == null) return false;
+
+        OfflineBuffer buffer = offlineBuffer;
+        scheduler.schedule(() -> {
+            // Already replayed or evicted otherwise
+            if (buffer.remove(entry)) {
+                requestWindow.release(route);
+                future.complete(timeoutResult());
+            }
+        }, resolveTimeout(route, timeoutMs), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private static int getRouteEncoded(String route) {
+        if (handShake == null) {
+            throw new IllegalStateException("Handshake not completed; routes unavailable");
+        }
+        if (handShake instanceof RespHandShake) {
+            RespHandShake hs = (RespHandShake) handShake;
+            Integer id = hs.getRoutesMap().get(route);
+            if (id == null) {
+                throw new IllegalArgumentException("Route not found: " + route);
+            }
+            return id;
+        }
+        throw new IllegalStateException("Invalid handshake state");
+    }
+
+    private static String getRoute(int encodedRoute) {
+        if (handShake == null) return "";
+        if (handShake instanceof RespHandShake) {
+            RespHandShake hs = (RespHandShake) handShake;
+            for (Map.Entry<String, Integer> e : hs.getRoutesMap().entrySet()) {
+                if (e.getValue() == encodedRoute) return e.getKey();
+            }
+        }
+        return "";
+    }
+
+    private static String getCallbackKey(Object header) {
+        if (header instanceof Header) {
+            Header h = (Header) header;
+            return h.getPackageInfo().getRoute() + "-" + h.getPackageInfo().getId();
+        }
+        return "";
+    }
+
+    private static String getPushKey(Object header) {
+        if (header instanceof Header) {
+            Header h = (Header) header;
+            return getRoute(h.getPackageInfo().getRoute());
+        }
+        return "";
+    }
+
+    /**
+     * Complete a pending request exactly once: drop its entry, cancel its timer
+     * and deliver the result to the listener registered in request().
+     */
+    private static boolean completePending(String key, ResponseResult<?> result) {
+        PendingRequest pending = requestMap.remove(key);
+        if (pending == null) return false;
+        if (pending.timeout != null) pending.timeout.cancel(false);
+        emit(key, result);
+        // The once listener removes itself; drop it anyway if emit never reached it
+        off(key, pending.listener);
+        requestWindow.release(pending.route);
+        return true;
+    }
+
+    /**
+     * Drop a pending request whose future was completed by someone else. The entry
+     * must still be the given one, since ids are reused once released.
+     */
+    private static void cancelPending(String key, PendingRequest pending) {
+        if (!requestMap.remove(key, pending)) return;
+        if (pending.timeout != null) pending.timeout.cancel(false);
+        off(key, pending.listener);
+        requestWindow.release(pending.route);
+    }
+
+    /**
+     * Fail every pending request at once, e.g. when the connection goes away.
+     */
+    private static void failPending(int code, String message) {
+        if (requestMap.isEmpty()) return;
+        Status status = statusOf(code, message);
+        for (String key : new ArrayList<>(requestMap.keySet())) {
+            completePending(key, new ResponseResult<>(status, null));
+        }
+    }
+
+    private static Status statusOf(int code, String message) {
+        return Status.newBuilder().setCode(code).setMessage(message).build();
+    }
+
+    private static void cleanup() {
+        if (ws != null) ws.outbound.abort();
+        ws = null;
+        handShake = null;
+        failPending(Consts.ClientStatus.CONNECTION_LOST, "connection lost");
+        for (IncomingStream stream : incomingStreams.values()) {
+            stream.fail(new EOFException("connection lost"));
+        }
+        incomingStreams.clear();
+    }
+
+    private static void onHandshake(Connection client, Package<?> pack) {
+        GoPlayLogger.logHandshake("Received");
+        try {
+            Package<RespHandShake> p = pack.decodeFromRaw(RespHandShake.class, getEncodingType());
+            PayloadCodec codec = payloadCodec;
+            if (codec != null) codec.bindRoutes(p.getData().getRoutesMap());
+            // Every frame after the response uses the mode it names, both ways
+            client.framing.setMode(p.getData().getFrameMode());
+            synchronized (preHandshakeQueue) {
+                handShake = p.getData();
+            }
+            flushPreHandshake();
+            HeartBeat.start();
+            emit(Consts.Events.CONNECTED);
+            if (connectTask != null) {
+                connectTask.setResult(true);
+                if (connectTimeOutId != null) connectTimeOutId.cancel(false);
+                connectTask = null;
+                connectTimeOutId = null;
+            }
+        } catch (Exception e) {
+            logger.error("Error parsing handshake", e);
+        }
+    }
+
+    private static void onResponse(Package<?> pack) {
+        // Get callback key from header
+        String key = getCallbackKey(pack.getHeader());
+        
+        PendingRequest pending = requestMap.get(key);
+        if (pending == null) {
+            if (debug) logger.warn("Response received for unknown request: {}", key);
+            return;
+        }
+        if (pending.resultType == IncomingStream.class) {
+            openStream(pack).offer(pack.getRawData().getData());
+            return;
+        }
+        latencyOf(pending.route).record(System.nanoTime() - pending.sentAt);
+        
+        try {
+            // Decode the response data with the expected result type
+            Package<?> decodedPack = pack.decodeFromRaw(pending.resultType, getEncodingType());
+            
+            // The server reports the outcome in the header status; none means success
+            Header h = (Header) pack.getHeader();
+            Status status = h.hasStatus() ? h.getStatus() : statusOf(StatusCode.Success_VALUE, "");
+            ResponseResult<?> result = new ResponseResult<>(status, decodedPack.getData());
+            
+            // Trigger the once handler registered in request()
+            completePending(key, result);
+            
+            if (debug) logger.info("Response processed for: {}", key);
+        } catch (Exception e) {
+            logger.error("Error processing response for: {}", key, e);
+            // Emit error response
+            completePending(key, new ResponseResult<>(500, null));
+        }
+    }
+
+    private static void onPush(Package<?> pack) {
+        IncomingStream stream = openStream(pack);
+        if (stream != null) {
+            stream.offer(pack.getRawData().getData());
+            return;
+        }
+        Header h = (Header) pack.getHeader();
+        responseCache.onPush(getRoute(h.getPackageInfo().getRoute()));
+        // TODO: Implement push processing
+    }
+
     private static void onKick(Package<?> pack) {
+        failPending(Consts.ClientStatus.CONNECTION_LOST, "kicked");
         emit(Consts.Events.KICKED);
         try {
             disconnect();
@@ -572,78 +1697,105 @@ public class GoPlay {
         }
     }
 
-    // WebSocket client implementation
-    private static class GoPlayWebSocketClient extends WebSocketClient {
-        public GoPlayWebSocketClient(URI serverUri) {
-            super(serverUri);
+    // One connection to the server over the configured transport
+    private static class Connection implements Transport.Listener {
+        // Settled once this connection is fully closed and its state cleaned up
+        final TaskCompletionSource<Boolean> closeTask = new TaskCompletionSource<>();
+        final Transport transport;
+        final OutboundWriter outbound;
+        // Frame mode, partial frames and chunks of this connection
+        final FrameCodec framing = new FrameCodec();
+
+        Connection(URI serverUri) {
+            transport = createTransport(serverUri, this);
+            outbound = new OutboundWriter(writerExecutor, transport::send, Consts.Outbound.MAX_BATCH_BYTES);
+            outbound.setBackpressure(transport::getBufferedBytes, Consts.Outbound.BULK_WATERMARK,
+                    Consts.Outbound.INTERACTIVE_WATERMARK, scheduler);
         }
 
-        @Override
-        public void onOpen(ServerHandshake handshakedata) {
-            GoPlayLogger.logEvent("WebSocket Connected");
-            sendHandshake();
+        boolean isOpen() {
+            return transport.isOpen();
+        }
+
+        void connect() {
+            transport.connect();
+        }
+
+        void close() {
+            transport.close();
         }
 
         @Override
-        public void onMessage(String message) {
-            logger.warn("Received text message (binary expected): {}", message);
+        public void onOpen() {
+            GoPlayLogger.logEvent("Transport Connected");
+            sendHandshake();
         }
 
         @Override
         public void onMessage(ByteBuffer message) {
-            ByteArray data = new ByteArray(message);
+            // Late bytes of a connection that was already replaced
+            if (ws != this) return;
+            framing.append(message);
 
-            if (buffer == null) {
-                buffer = data;
-            } else {
-                buffer.writeBytes(data);
+            Package<?> pack;
+            while ((pack = recv(this)) != null) {
+                processPackage(this, pack);
             }
+        }
 
-            Package<?> pack = null;
-            try {
-                pack = recv();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            while (pack != null) {
-                processPackage(pack);
-                try {
-                    pack = recv();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        @Override
+        public void onDrained() {
+            // Frames held back by backpressure can go now, without waiting for the recheck
+            outbound.resume();
         }
 
         @Override
         public void onError(Exception ex) {
-            GoPlayLogger.logError("WebSocket Error", ex);
+            GoPlayLogger.logError("Transport Error", ex);
+            if (ws == this && !isOpen()) {
+                failPending(Consts.ClientStatus.CONNECTION_LOST, "transport error");
+            }
             emit(Consts.Events.ERROR, ex);
         }
 
         @Override
         public void onClose(int code, String reason, boolean remote) {
-            GoPlayLogger.logEvent("WebSocket Closed", "code=" + code, "reason=" + reason);
-            HeartBeat.stop();
+            GoPlayLogger.logEvent("Transport Closed", "code=" + code, "reason=" + reason);
+            synchronized (connectionLock) {
+                // A newer connection may already have replaced this one
+                if (ws != this) {
+                    closeTask.setResult(true);
+                    return;
+                }
+                HeartBeat.stop();
 
-            if (disconnectTask != null) {
-                disconnectTask.setResult(true);
-            }
-            if (connectTask != null) {
-                connectTask.setResult(false);
+                cleanup();
+                TaskCompletionSource<Boolean> task = connectTask;
+                if (task != null) {
+                    task.setResult(false);
+                    if (connectTimeOutId != null) connectTimeOutId.cancel(false);
+                }
+                endConnectAttempt();
             }
-
-            cleanup();
             emit(Consts.Events.DISCONNECTED);
+
+            // Wake disconnect() waiters last, so a reconnect never races the reset above
+            closeTask.setResult(true);
         }
     }
 
-    private static void processPackage(Package<?> pack) {
+    private static void processPackage(Connection client, Package<?> pack) {
         Object hdr = pack.getHeader();
         if (!(hdr instanceof Header)) return;
         Header h = (Header) hdr;
         int typeVal = h.getPackageInfo().getTypeValue();
-        if (typeVal == PackageType.Response_VALUE) {
+        if (h.getPackageInfo().getChunkCount() > 0) {
+            try {
+                onChunk(client, pack);
+            } catch (Exception ex) {
+                logger.error("Error handling chunk", ex);
+            }
+        } else if (typeVal == PackageType.Response_VALUE) {
             onResponse(pack);
         } else if (typeVal == PackageType.Push_VALUE) {
             onPush(pack);
@@ -657,7 +1809,7 @@ public class GoPlay {
         } else if (typeVal == PackageType.Pong_VALUE) {
             HeartBeat.onPong(h.getPackageInfo().getId());
         } else if (typeVal == PackageType.HankShakeResp_VALUE) {
-            onHandshake(pack);
+            onHandshake(client, pack);
         } else if (typeVal == PackageType.Kick_VALUE) {
             onKick(pack);
         }
@@ -666,11 +1818,11 @@ public class GoPlay {
     private static void sendHandshake() {
         try {
             GoPlayLogger.logHandshake("Sending", Consts.Info.ClientVersion);
-            ReqHankShake data = ReqHankShake.newBuilder()
+            ReqHankShake.Builder data = ReqHankShake.newBuilder()
                     .setClientVersion(Consts.Info.ClientVersion)
-                    .setServerTag(ServerTag.forNumber(Consts.Info.ServerTag))
-                    .build();
-            Package<?> pack = Package.createFromData(0, data, PackageType.HankShakeReq_VALUE, getEncodingType());
+                    .setServerTag(ServerTag.forNumber(Consts.Info.ServerTag));
+            if (varintFramingOffered) data.addFrameModes(FrameMode.Varint);
+            Package<?> pack = Package.createFromData(0, data.build(), PackageType.HankShakeReq_VALUE, getEncodingType());
             send(pack);
         } catch (Exception e) {
             logger.error("Error sending handshake", e);
@@ -680,6 +1832,102 @@ public class GoPlay {
         }
     }
 
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Sends one outgoing stream: reads a chunk at a time and queues it on the bulk lane
+     * while fewer than SEND_WINDOW chunks wait in the writer and the transport, and
+     * checks back shortly when the window is full.
+     */
+    private static class StreamSender implements Runnable {
+        // File chunks mapped at a time; a whole number of chunks
+        private static final long MAP_WINDOW = (long) Package.MAX_CHUNK_SIZE * 64;
+
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final Connection client;
+        private final Header header;
+        private final ReadableByteChannel source;
+        private final long size;
+        private final int chunkCount;
+        private final ByteBuffer readBuffer;
+        private long position;
+        private MappedByteBuffer window;
+        private long sent;
+        private int index;
+
+        StreamSender(Connection client, Header header, ReadableByteChannel source, long size) {
+            this.client = client;
+            this.header = header;
+            this.source = source;
+            this.size = size;
+            this.chunkCount = (int) Math.max(1, (size + Package.MAX_CHUNK_SIZE - 1) / Package.MAX_CHUNK_SIZE);
+            this.readBuffer = source instanceof FileChannel ? null
+                    : ByteBuffer.allocate((int) Math.min(Package.MAX_CHUNK_SIZE, size));
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (source instanceof FileChannel && index == 0) position = ((FileChannel) source).position();
+                while (!future.isDone()) {
+                    if (ws != client) throw new IOException("Connection lost");
+                    if (isCongested()) {
+                        scheduler.schedule(() -> streamExecutor.execute(this), 1, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    ByteBuffer chunk = nextChunk((int) Math.min(Package.MAX_CHUNK_SIZE, size - sent));
+                    int length = chunk.remaining();
+                    Package<?> pack = Package.createRaw(Package.cloneHeader(header, index, chunkCount, length),
+                            new ByteArray(chunk));
+                    ByteArray frame = new ByteArray(length + 64);
+                    writeFrame(client, frame, pack);
+                    if (!client.outbound.offer(OutboundWriter.Lane.BULK, frame.slice(0, frame.woffset))) {
+                        throw new IOException("Outbound queue refused stream chunk");
+                    }
+                    sent += length;
+                    if (++index == chunkCount) future.complete(sent);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            window = null;
+            closeQuietly(source);
+        }
+
+        private boolean isCongested() {
+            int limit = Consts.Stream.SEND_WINDOW;
+            return client.outbound.getLaneStats(OutboundWriter.Lane.BULK).getQueueDepth() >= limit
+                    || client.transport.getBufferedBytes() >= (long) limit * Package.MAX_CHUNK_SIZE;
+        }
+
+        private ByteBuffer nextChunk(int length) throws IOException {
+            if (source instanceof FileChannel) {
+                if (window == null || !window.hasRemaining()) {
+                    window = ((FileChannel) source).map(FileChannel.MapMode.READ_ONLY, position + sent,
+                            Math.min(MAP_WINDOW, size - sent));
+                }
+                ByteBuffer chunk = window.slice();
+                chunk.limit(length);
+                window.position(window.position() + length);
+                return chunk;
+            }
+            readBuffer.clear().limit(length);
+            while (readBuffer.hasRemaining()) {
+                if (source.read(readBuffer) < 0) {
+                    throw new EOFException("Stream ended after " + (sent + readBuffer.position()) + " of " + size + " bytes");
+                }
+            }
+            readBuffer.flip();
+            return readBuffer;
+        }
+    }
+
     // Heartbeat implementation
     private static class HeartBeat {
         private static ScheduledFuture<?> intervalId;
@@ -717,6 +1965,148 @@ public class GoPlay {
         }
     }
 
+    // Bookkeeping for a request awaiting its response
+    private static class PendingRequest {
+        final String route;
+        final Class<?> resultType;
+        final Emitter.Function listener;
+        final long sentAt = System.nanoTime();
+        volatile ScheduledFuture<?> timeout;
+
+        PendingRequest(String route, Class<?> resultType, Emitter.Function listener) {
+            this.route = route;
+            this.resultType = resultType;
+            this.listener = listener;
+        }
+    }
+
+    // A request on an idempotent route: its attempts in flight, and which one answers
+    private static class IdempotentCall<T, RT> {
+        final RetryPolicy policy;
+        final String route;
+        final T data;
+        final ByteArray rawData;
+        final Class<RT> resultType;
+        final long timeoutMs;
+        final CompletableFuture<ResponseResult<RT>> future;
+
+        final List<CompletableFuture<ResponseResult<RT>>> attempts = new ArrayList<>(2);
+        CompletableFuture<ResponseResult<RT>> hedgeAttempt;
+        ScheduledFuture<?> hedgeTimer;
+        boolean hedged;
+        boolean settled;
+        int retries;
+
+        IdempotentCall(RetryPolicy policy, String route, T data, ByteArray rawData,
+                       Class<RT> resultType, long timeoutMs, CompletableFuture<ResponseResult<RT>> future) {
+            this.policy = policy;
+            this.route = route;
+            this.data = data;
+            this.rawData = rawData;
+            this.resultType = resultType;
+            this.timeoutMs = timeoutMs;
+            this.future = future;
+        }
+
+        void start(boolean mayBlock) {
+            policy.getBudget().deposit();
+            long delay = policy.hedgeDelayMs(routeLatency.get(route));
+            attempt(false, mayBlock);
+            if (delay >= 0 && delay < resolveTimeout(route, timeoutMs)) {
+                ScheduledFuture<?> timer = scheduler.schedule(this::hedge, delay, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    if (settled) {
+                        timer.cancel(false);
+                    } else {
+                        hedgeTimer = timer;
+                    }
+                }
+            }
+        }
+
+        private void attempt(boolean hedge, boolean mayBlock) {
+            CompletableFuture<ResponseResult<RT>> attempt = new CompletableFuture<>();
+            synchronized (this) {
+                attempts.add(attempt);
+                if (hedge) hedgeAttempt = attempt;
+            }
+            attempt.whenComplete((r, e) -> onAttempt(attempt, r, e));
+            submitAttempt(route, data, rawData, resultType, timeoutMs, attempt, mayBlock);
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (settled || hedged || !policy.getBudget().tryWithdraw()) return;
+                hedged = true;
+            }
+            policy.onHedged();
+            attempt(true, false);
+        }
+
+        private void onAttempt(CompletableFuture<ResponseResult<RT>> attempt, ResponseResult<RT> result,
+                               Throwable error) {
+            List<CompletableFuture<ResponseResult<RT>>> losers;
+            boolean hedgeWon;
+            synchronized (this) {
+                if (settled || !attempts.remove(attempt)) return;
+                if (error == null && result.getCode() == StatusCode.Timeout_VALUE) {
+                    // Another attempt may still answer in time
+                    if (!attempts.isEmpty()) return;
+                    if (retries < policy.getMaxRetries() && policy.getBudget().tryWithdraw()) {
+                        retries++;
+                        losers = null;
+                    } else {
+                        losers = Collections.emptyList();
+                    }
+                } else {
+                    losers = new ArrayList<>(attempts);
+                    attempts.clear();
+                }
+                if (losers != null) {
+                    settled = true;
+                    if (hedgeTimer != null) hedgeTimer.cancel(false);
+                }
+                hedgeWon = attempt == hedgeAttempt;
+            }
+
+            if (losers == null) {
+                policy.onRetried();
+                attempt(false, false);
+                return;
+            }
+            if (hedgeWon) policy.onHedgeWon();
+            // Release the losers first, so the caller never observes their entries
+            ResponseResult<RT> cancelled = new ResponseResult<>(
+                    statusOf(Consts.ClientStatus.CANCELLED, "superseded by another attempt"), null);
+            for (CompletableFuture<ResponseResult<RT>> loser : losers) {
+                loser.complete(cancelled);
+            }
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    // Per-item futures of a batch request, plus one that completes when all of them have
+    public static class BatchResult<T> {
+        public final List<CompletableFuture<ResponseResult<T>>> futures;
+        public final CompletableFuture<List<ResponseResult<T>>> all;
+
+        public BatchResult(List<CompletableFuture<ResponseResult<T>>> futures) {
+            this.futures = Collections.unmodifiableList(futures);
+            this.all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(v -> {
+                        List<ResponseResult<T>> results = new ArrayList<>(futures.size());
+                        for (CompletableFuture<ResponseResult<T>> f : futures) {
+                            results.add(f.join());
+                        }
+                        return results;
+                    });
+        }
+    }
+
     // Response result wrapper
     // ...existing code...
     public static class ResponseResult<T> {
@@ -0,0 +1,669 @@
+package com.goplay;
+
+import com.goplay.GoPlay.ResponseResult;
+import com.goplay.core.*;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.transport.TcpEventLoopGroup;
+import com.goplay.transport.Transport;
+import com.goplay.transport.TransportFactory;
+import com.goplay.transport.WebSocketTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * GoPlayPool spreads requests over several connections to a set of GoPlay servers, for
+ * a process that needs more than one socket or one frontend can carry, e.g.
+ *
+ *   GoPlayPool pool = new GoPlayPool(Arrays.asList("tcp://fe1:7000", "tcp://fe2:7000"), 4);
+ *   pool.onPush("chat.message", ChatMessage.class, args -> ...);
+ *   pool.start().get();
+ *   pool.request("user.get", req, User.class).thenAccept(...);
+ *
+ * Every connection does its own handshake and keeps its own route table, so endpoints
+ * may run different versions; a request only goes to connections whose table has its
+ * route. Each request goes to the ready connection with the fewest outstanding
+ * requests, ties taken in turn, so a slow server is given less work.
+ *
+ * An endpoint is ejected after maxFailures failures in a row - connects that fail,
+ * connections that drop, requests that time out. Lost connections count once per
+ * outage: not while another connection to the endpoint is still ready, and once for
+ * all those lost within RECONNECT_DELAY_MS of each other; a kick or a normal (1000)
+ * close does not count at all. It then gets no requests for the
+ * ejection time, which doubles with every ejection in a row up to MAX_EJECTION_MS.
+ * When the time is up it is re-admitted and its lost connections are made again; one
+ * more failure ejects it again, a handshake or response resets its record.
+ *
+ * Pushes from every connection are dispatched on the pool's emitter: listeners added
+ * with onPush(route, ...) get the decoded message and the URL of the endpoint it came
+ * from. CONNECTED and DISCONNECTED (per connection), ENDPOINT_EJECTED and
+ * ENDPOINT_READMITTED are emitted there too, with the endpoint URL.
+ *
+ * The pool is independent of the static GoPlay connection. It speaks the same protocol,
+ * framing packages with the same FrameCodec, but leaves out the per-route policies of
+ * GoPlay (caching, coalescing, retries, circuit breakers, rate limits) and streams;
+ * chunked messages are joined whole.
+ */
+public class GoPlayPool {
+    private static final Logger logger = LoggerFactory.getLogger(GoPlayPool.class);
+
+    public static final String ENDPOINT_EJECTED = "__ON_ENDPOINT_EJECTED";
+    public static final String ENDPOINT_READMITTED = "__ON_ENDPOINT_READMITTED";
+
+    public static final long MAX_EJECTION_MS = 30_000;
+    // Pause before a dropped connection to a healthy endpoint is made again
+    public static final long RECONNECT_DELAY_MS = 200;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "GoPlay-pool");
+        t.setDaemon(true);
+        return t;
+    });
+    // Drains the outbound writers; each writer runs on one thread at a time
+    private static final ExecutorService writerExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "GoPlay-pool-writer");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final AtomicReferenceArray<Connection> slots;
+    private final Emitter emitter = new Emitter();
+    private final Map<String, Class<?>> pushTypes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    private volatile TransportFactory transportFactory;
+    private volatile PayloadCodec payloadCodec;
+    private volatile int maxFailures = 3;
+    private volatile long ejectionMs = 1000;
+    private volatile boolean closed;
+
+    private final CompletableFuture<Boolean> started = new CompletableFuture<>();
+    private final AtomicInteger startsPending;
+
+    // Statistics
+    private final AtomicLong ejectionCount = new AtomicLong();
+
+    /**
+     * A pool of connectionsPerEndpoint connections to each of the URLs; nothing connects
+     * before start().
+     */
+    public GoPlayPool(List<String> urls, int connectionsPerEndpoint) {
+        if (urls.isEmpty() || connectionsPerEndpoint < 1) {
+            throw new IllegalArgumentException("A pool needs at least one endpoint and connection");
+        }
+        for (String url : urls) {
+            endpoints.add(new Endpoint(url));
+        }
+        slots = new AtomicReferenceArray<>(urls.size() * connectionsPerEndpoint);
+        startsPending = new AtomicInteger(slots.length());
+    }
+
+    /**
+     * Use the factory for the transports of new connections (null = tcp:// URLs on the
+     * shared TCP event loops, anything else over WebSocket, as in GoPlay).
+     */
+    public void setTransportFactory(TransportFactory factory) {
+        this.transportFactory = factory;
+    }
+
+    /**
+     * Compress and inflate content with the codec's dictionaries (null = none). Each
+     * connection binds it to the route table of its own handshake.
+     */
+    public void setPayloadCodec(PayloadCodec codec) {
+        this.payloadCodec = codec;
+    }
+
+    /**
+     * Eject an endpoint after maxFailures failures in a row, at first for ejectionMs.
+     */
+    public void setEjection(int maxFailures, long ejectionMs) {
+        this.maxFailures = maxFailures;
+        this.ejectionMs = ejectionMs;
+    }
+
+    /**
+     * Connect every connection. Completes with true once one of them is ready, with
+     * false if none of them could connect.
+     */
+    public CompletableFuture<Boolean> start() {
+        for (int i = 0; i < slots.length(); i++) {
+            connect(i, true);
+        }
+        return started;
+    }
+
+    /**
+     * Close every connection once its queued frames are written.
+     */
+    public CompletableFuture<Void> close() {
+        closed = true;
+        List<CompletableFuture<Void>> closing = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            Connection connection = slots.get(i);
+            if (connection == null) continue;
+            closing.add(connection.closeFuture);
+            connection.close();
+        }
+        started.complete(false);
+        return CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0]));
+    }
+
+    public <T, RT> CompletableFuture<ResponseResult<RT>> request(String route, T data, Class<RT> resultType) {
+        return request(route, data, resultType, 0);
+    }
+
+    /**
+     * Make a request on the least busy connection that knows the route, with a timeout
+     * (0 = GoPlay.Consts.TimeOut.REQUEST). Completes with CONNECTION_LOST when no
+     * connection can take it.
+     */
+    public <T, RT> CompletableFuture<ResponseResult<RT>> request(String route, T data, Class<RT> resultType,
+                                                                 long timeoutMs) {
+        CompletableFuture<ResponseResult<RT>> future = new CompletableFuture<>();
+        Connection connection = pick(route);
+        if (connection == null) {
+            future.complete(new ResponseResult<>(
+                    statusOf(GoPlay.Consts.ClientStatus.CONNECTION_LOST, "no connection for " + route), null));
+            return future;
+        }
+        try {
+            connection.request(route, data, resultType,
+                    timeoutMs > 0 ? timeoutMs : GoPlay.Consts.TimeOut.REQUEST, future);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Send a notify on the least busy connection that knows the route. Returns false if
+     * there is none.
+     */
+    public <T> boolean notify(String route, T data) {
+        Connection connection = pick(route);
+        if (connection == null) return false;
+        try {
+            connection.send(Package.createFromData(connection.routeId(route), data,
+                    PackageType.Notify_VALUE, GoPlay.getEncodingType()));
+            return true;
+        } catch (Exception e) {
+            logger.error("Error sending notify on {}", route, e);
+            return false;
+        }
+    }
+
+    /**
+     * Listen for pushes on route from any endpoint, decoded as type. The listener is
+     * called on the receiving connection's thread with (message, endpoint URL).
+     */
+    public <T> void onPush(String route, Class<T> type, Emitter.Function fn) {
+        pushTypes.put(route, type);
+        emitter.on(route, fn);
+    }
+
+    public void offPush(String route, Emitter.Function fn) {
+        emitter.off(route, fn);
+    }
+
+    public Emitter getEmitter() {
+        return emitter;
+    }
+
+    public List<String> getEndpoints() {
+        List<String> urls = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            urls.add(endpoint.url);
+        }
+        return urls;
+    }
+
+    /**
+     * Connections that completed their handshake, ejected endpoints included.
+     */
+    public int getReadyCount() {
+        int ready = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            Connection connection = slots.get(i);
+            if (connection != null && connection.isReady()) ready++;
+        }
+        return ready;
+    }
+
+    /**
+     * Requests awaiting a response from the endpoint, over all its connections.
+     */
+    public int getOutstanding(String url) {
+        int outstanding = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            Connection connection = slots.get(i);
+            if (connection != null && connection.endpoint.url.equals(url)) {
+                outstanding += connection.outstanding.get();
+            }
+        }
+        return outstanding;
+    }
+
+    public boolean isEjected(String url) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.url.equals(url)) return endpoint.isEjected();
+        }
+        throw new IllegalArgumentException("Unknown endpoint: " + url);
+    }
+
+    public long getEjectionCount() {
+        return ejectionCount.get();
+    }
+
+    // Slots are interleaved over the endpoints, so ties rotate between them too
+    private Endpoint endpointOf(int slot) {
+        return endpoints.get(slot % endpoints.size());
+    }
+
+    private Connection pick(String route) {
+        int count = slots.length();
+        int start = Math.floorMod(nextSlot.getAndIncrement(), count);
+        Connection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Connection connection = slots.get((start + i) % count);
+            if (connection == null || !connection.isReady() || connection.endpoint.isEjected()) continue;
+            if (!connection.hasRoute(route)) continue;
+            int load = connection.outstanding.get();
+            if (load < bestLoad) {
+                best = connection;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fill an empty slot, unless the pool is closed or the endpoint is ejected; the
+     * endpoint's re-admission fills it then.
+     */
+    private void connect(int slot, boolean initial) {
+        Endpoint endpoint = endpointOf(slot);
+        if (closed || (!initial && endpoint.isEjected())) return;
+        Connection connection = new Connection(slot, endpoint, initial);
+        if (!slots.compareAndSet(slot, null, connection)) return;
+        connection.connect();
+    }
+
+    private void reportStart(boolean ready) {
+        if (ready) {
+            started.complete(true);
+        } else if (startsPending.decrementAndGet() == 0) {
+            started.complete(false);
+        }
+    }
+
+    private Transport createTransport(URI uri, Transport.Listener listener) {
+        TransportFactory factory = transportFactory;
+        if (factory != null) return factory.create(uri, listener);
+        if ("tcp".equalsIgnoreCase(uri.getScheme())) return TcpEventLoopGroup.shared().create(uri, listener);
+        return new WebSocketTransport(uri, listener);
+    }
+
+    private static Status statusOf(int code, String message) {
+        return Status.newBuilder().setCode(code).setMessage(message).build();
+    }
+
+    // Health of one server: its failures in a row, and whether it is ejected
+    private class Endpoint {
+        final String url;
+        final URI uri;
+        private int failures;
+        private int ejections;
+        private long lastLossNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MS);
+        private volatile boolean ejected;
+
+        Endpoint(String url) {
+            this.url = url;
+            this.uri = URI.create(url);
+        }
+
+        boolean isEjected() {
+            return ejected;
+        }
+
+        void onSuccess() {
+            synchronized (this) {
+                failures = 0;
+                ejections = 0;
+            }
+        }
+
+        void onFailure() {
+            long delay;
+            synchronized (this) {
+                if (ejected || ++failures < maxFailures) return;
+                ejected = true;
+                delay = Math.min(ejectionMs << Math.min(ejections, 20), MAX_EJECTION_MS);
+                ejections++;
+            }
+            ejectionCount.incrementAndGet();
+            GoPlayLogger.logEvent("Endpoint ejected", url, "for=" + delay + "ms");
+            emitter.emit(ENDPOINT_EJECTED, url);
+            timer.schedule(this::readmit, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * A connection to the endpoint failed or dropped. Only the first loss of an outage
+         * is a failure, so an endpoint with many connections is not ejected by one outage.
+         */
+        void onConnectionLost() {
+            if (hasReadyConnection()) return;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (now - lastLossNanos < TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MS)) return;
+                lastLossNanos = now;
+            }
+            onFailure();
+        }
+
+        private boolean hasReadyConnection() {
+            for (int i = 0; i < slots.length(); i++) {
+                Connection connection = slots.get(i);
+                if (connection != null && connection.endpoint == this && connection.isReady()) return true;
+            }
+            return false;
+        }
+
+        private void readmit() {
+            if (closed) return;
+            synchronized (this) {
+                ejected = false;
+                // On probation: the next failure ejects it again
+                failures = Math.max(0, maxFailures - 1);
+            }
+            GoPlayLogger.logEvent("Endpoint readmitted", url);
+            emitter.emit(ENDPOINT_READMITTED, url);
+            for (int i = 0; i < slots.length(); i++) {
+                if (endpointOf(i) == this) connect(i, false);
+            }
+        }
+    }
+
+    // Bookkeeping for a request awaiting its response
+    private static class Pending {
+        final Class<?> resultType;
+        final Consumer<ResponseResult<?>> onResult;
+        volatile ScheduledFuture<?> timeout;
+
+        Pending(Class<?> resultType, Consumer<ResponseResult<?>> onResult) {
+            this.resultType = resultType;
+            this.onResult = onResult;
+        }
+    }
+
+    // One connection in a slot, from connect to close; a reconnect is a new Connection
+    private class Connection implements Transport.Listener {
+        final int slot;
+        final Endpoint endpoint;
+        final boolean initial;
+        final Transport transport;
+        final OutboundWriter outbound;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final CompletableFuture<Void> closeFuture = new CompletableFuture<>();
+        private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+        private final FrameCodec framing = new FrameCodec();
+        private final IdGen idGen = new IdGen(Integer.MAX_VALUE);
+
+        // Set by the handshake; read by any thread picking a connection
+        private volatile RespHandShake handShake;
+        private volatile Map<Integer, String> routeNames = Collections.emptyMap();
+        private volatile PayloadCodec codec;
+        // Set before closing the transport on our side, to tell the close apart from a normal one
+        private volatile boolean failed;
+        private volatile boolean kicked;
+        // Only touched by the transport's callbacks, which never run concurrently
+        private ScheduledFuture<?> connectTimeout;
+
+        Connection(int slot, Endpoint endpoint, boolean initial) {
+            this.slot = slot;
+            this.endpoint = endpoint;
+            this.initial = initial;
+            this.transport = createTransport(endpoint.uri, this);
+            this.outbound = new OutboundWriter(writerExecutor, transport::send, GoPlay.Consts.Outbound.MAX_BATCH_BYTES);
+        }
+
+        boolean isReady() {
+            return handShake != null && transport.isOpen();
+        }
+
+        boolean hasRoute(String route) {
+            RespHandShake hs = handShake;
+            return hs != null && hs.getRoutesMap().containsKey(route);
+        }
+
+        int routeId(String route) {
+            RespHandShake hs = handShake;
+            if (hs == null) throw new IllegalStateException("Connection lost before the request was sent");
+            Integer id = hs.getRoutesMap().get(route);
+            if (id == null) throw new IllegalArgumentException("Route not found: " + route);
+            return id;
+        }
+
+        void connect() {
+            connectTimeout = timer.schedule(() -> {
+                if (handShake == null) {
+                    failed = true;
+                    transport.close();
+                }
+            }, GoPlay.Consts.TimeOut.CONNECT, TimeUnit.MILLISECONDS);
+            transport.connect();
+        }
+
+        void close() {
+            if (transport.isOpen()) {
+                outbound.shutdown().whenComplete((v, e) -> transport.close());
+            } else {
+                transport.close();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        <T, RT> void request(String route, T data, Class<RT> resultType, long timeoutMs,
+                             CompletableFuture<ResponseResult<RT>> future) throws Exception {
+            int id = idGen.next();
+            Package<T> pack = Package.createFromData(routeId(route), data, PackageType.Request_VALUE,
+                    GoPlay.getEncodingType());
+            Header h = (Header) pack.getHeader();
+            pack.setHeader(Header.newBuilder(h)
+                    .setPackageInfo(PackageInfo.newBuilder(h.getPackageInfo()).setId(id).build())
+                    .build());
+
+            // The response is decoded as resultType, so the unchecked cast is safe
+            Pending p = new Pending(resultType, r -> future.complete((ResponseResult<RT>) r));
+            outstanding.incrementAndGet();
+            pending.put(id, p);
+            p.timeout = timer.schedule(() -> {
+                if (complete(id, new ResponseResult<>(statusOf(StatusCode.Timeout_VALUE, "request time out"), null))) {
+                    endpoint.onFailure();
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+            // Completed from outside, e.g. cancelled: give up the entry
+            future.whenComplete((r, e) -> {
+                if (pending.remove(id, p)) {
+                    p.timeout.cancel(false);
+                    outstanding.decrementAndGet();
+                }
+            });
+            send(pack);
+        }
+
+        private boolean complete(int id, ResponseResult<?> result) {
+            Pending p = pending.remove(id);
+            if (p == null) return false;
+            if (p.timeout != null) p.timeout.cancel(false);
+            outstanding.decrementAndGet();
+            p.onResult.accept(result);
+            return true;
+        }
+
+        void send(Package<?> pack) throws Exception {
+            byte[][] frames = framing.encode(pack, GoPlay.getEncodingType(), codec);
+            if (frames.length > 1) {
+                outbound.offerTransfer(frames);
+            } else {
+                int type = ((Header) pack.getHeader()).getPackageInfo().getTypeValue();
+                boolean control = type == PackageType.HankShakeReq_VALUE || type == PackageType.Pong_VALUE;
+                outbound.offer(control ? OutboundWriter.Lane.CONTROL : OutboundWriter.Lane.INTERACTIVE, frames[0]);
+            }
+        }
+
+        @Override
+        public void onOpen() {
+            try {
+                ReqHankShake data = ReqHankShake.newBuilder()
+                        .setClientVersion(GoPlay.Consts.Info.ClientVersion)
+                        .setServerTag(ServerTag.forNumber(GoPlay.Consts.Info.ServerTag))
+                        .addFrameModes(FrameMode.Varint)
+                        .build();
+                send(Package.createFromData(0, data, PackageType.HankShakeReq_VALUE, GoPlay.getEncodingType()));
+            } catch (Exception e) {
+                logger.error("Error sending handshake to {}", endpoint.url, e);
+                failed = true;
+                transport.close();
+            }
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            framing.append(message);
+            while (true) {
+                byte[] frame;
+                try {
+                    frame = framing.nextFrame();
+                } catch (IOException e) {
+                    // The stream cannot be resynchronized past a bad length
+                    logger.error("Invalid frame from {}, closing connection", endpoint.url, e);
+                    failed = true;
+                    transport.close();
+                    return;
+                }
+                if (frame == null) return;
+                try {
+                    Package<?> pack = Package.tryDecodeRaw(new ByteArray(frame), GoPlay.getEncodingType(), codec);
+                    if (pack != null) process(pack);
+                } catch (Exception e) {
+                    logger.error("Error decoding package from {}", endpoint.url, e);
+                }
+            }
+        }
+
+        private void process(Package<?> pack) throws Exception {
+            Header h = (Header) pack.getHeader();
+            PackageInfo info = h.getPackageInfo();
+            if (info.getChunkCount() > 0) {
+                pack = framing.collectChunk(pack);
+                if (pack == null) return;
+                h = (Header) pack.getHeader();
+                info = h.getPackageInfo();
+            }
+            switch (info.getType()) {
+                case HankShakeResp:
+                    onHandshake(pack.decodeFromRaw(RespHandShake.class, GoPlay.getEncodingType()).getData());
+                    break;
+                case Response:
+                    onResponse(pack, h);
+                    break;
+                case Push:
+                    onPush(pack, info.getRoute());
+                    break;
+                case Ping:
+                    send(Package.createFromData(0, null, PackageType.Pong_VALUE, GoPlay.getEncodingType()));
+                    break;
+                case Kick:
+                    GoPlayLogger.logEvent("Kicked", endpoint.url);
+                    kicked = true;
+                    transport.close();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onHandshake(RespHandShake resp) {
+            Map<Integer, String> names = new HashMap<>();
+            for (Map.Entry<String, Integer> e : resp.getRoutesMap().entrySet()) {
+                names.put(e.getValue(), e.getKey());
+            }
+            routeNames = names;
+            PayloadCodec shared = payloadCodec;
+            codec = shared != null ? shared.forRoutes(resp.getRoutesMap()) : null;
+            // Every frame after the response uses the mode it names, both ways
+            framing.setMode(resp.getFrameMode());
+            handShake = resp;
+            if (connectTimeout != null) connectTimeout.cancel(false);
+            endpoint.onSuccess();
+            emitter.emit(GoPlay.Consts.Events.CONNECTED, endpoint.url);
+            if (initial) reportStart(true);
+        }
+
+        private void onResponse(Package<?> pack, Header h) {
+            int id = h.getPackageInfo().getId();
+            Pending p = pending.get(id);
+            if (p == null) return;
+            ResponseResult<?> result;
+            try {
+                Object data = pack.decodeFromRaw(p.resultType, GoPlay.getEncodingType()).getData();
+                // The server reports the outcome in the header status; none means success
+                Status status = h.hasStatus() ? h.getStatus() : statusOf(StatusCode.Success_VALUE, "");
+                result = new ResponseResult<>(status, data);
+            } catch (Exception e) {
+                logger.error("Error decoding response from {}", endpoint.url, e);
+                result = new ResponseResult<>(500, null);
+            }
+            endpoint.onSuccess();
+            complete(id, result);
+        }
+
+        private void onPush(Package<?> pack, int routeId) throws Exception {
+            String route = routeNames.get(routeId);
+            Class<?> type = route != null ? pushTypes.get(route) : null;
+            if (type == null) return;
+            emitter.emit(route, pack.decodeFromRaw(type, GoPlay.getEncodingType()).getData(), endpoint.url);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            GoPlayLogger.logError("Pool transport error " + endpoint.url, ex);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            boolean wasReady = handShake != null;
+            handShake = null;
+            if (connectTimeout != null) connectTimeout.cancel(false);
+            outbound.abort();
+            for (Integer id : new ArrayList<>(pending.keySet())) {
+                complete(id, new ResponseResult<>(
+                        statusOf(GoPlay.Consts.ClientStatus.CONNECTION_LOST, "connection lost"), null));
+            }
+            framing.reset();
+            slots.compareAndSet(slot, this, null);
+            if (wasReady) emitter.emit(GoPlay.Consts.Events.DISCONNECTED, endpoint.url);
+            if (initial && !wasReady) reportStart(false);
+            closeFuture.complete(null);
+            if (closed) return;
+
+            // Kicked or closed normally: nothing wrong with the endpoint
+            if (!kicked && (code != 1000 || failed)) endpoint.onConnectionLost();
+            timer.schedule(() -> GoPlayPool.this.connect(slot, false), RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+}
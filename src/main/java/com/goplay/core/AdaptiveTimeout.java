@@ -0,0 +1,45 @@
+package com.goplay.core;
+
+/**
+ * AdaptiveTimeout derives a request timeout from observed latency: the chosen quantile
+ * times a safety factor, clamped to [minMs, maxMs]. Until the tracker has minSamples
+ * samples the fallback timeout is used.
+ *
+ * Calls that timed out count as slower than every answer, so the quantile is taken that
+ * much higher among the answers. Once more calls time out than the quantile leaves above
+ * it, the quantile lies past every answer seen and maxMs is used: a route that got slower
+ * than its timeout would otherwise never get an answer to derive a longer one from.
+ */
+public class AdaptiveTimeout {
+    private final double quantile;
+    private final double factor;
+    private final long minMs;
+    private final long maxMs;
+    private final long minSamples;
+
+    /**
+     * p99.9 x 2, clamped to [min, max], after 100 samples.
+     */
+    public AdaptiveTimeout(long minMs, long maxMs) {
+        this(0.999, 2.0, minMs, maxMs, 100);
+    }
+
+    public AdaptiveTimeout(double quantile, double factor, long minMs, long maxMs, long minSamples) {
+        if (minMs > maxMs) throw new IllegalArgumentException("minMs must not exceed maxMs");
+        this.quantile = quantile;
+        this.factor = factor;
+        this.minMs = minMs;
+        this.maxMs = maxMs;
+        this.minSamples = minSamples;
+    }
+
+    public long timeoutMs(LatencyTracker tracker, long fallbackMs) {
+        if (tracker == null || tracker.getCount() < minSamples) {
+            return Math.max(minMs, Math.min(maxMs, fallbackMs));
+        }
+        double answered = 1 - tracker.getCensoredShare();
+        if (quantile > answered) return maxMs;
+        long derived = (long) Math.ceil(tracker.getQuantileMs(quantile / answered) * factor);
+        return Math.max(minMs, Math.min(maxMs, derived));
+    }
+}
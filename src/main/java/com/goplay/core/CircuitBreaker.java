@@ -0,0 +1,196 @@
+package com.goplay.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CircuitBreaker fails calls fast while a backend looks unhealthy.
+ * CLOSED lets calls through and tracks the failure rate over the last windowSize
+ * outcomes; past the threshold it trips to OPEN, which rejects calls for openMs.
+ * After that HALF_OPEN lets probeCount probe calls through: all succeeding closes
+ * the breaker, any failure opens it again.
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public interface Listener {
+        void onStateChange(State from, State to);
+    }
+
+    private final Object lock = new Object();
+    private final boolean[] window;
+    private final int minCalls;
+    private final double failureThreshold;
+    private final long openNanos;
+    private final int probeCount;
+
+    private State state = State.CLOSED;
+    private int windowPos = 0;
+    private int windowCount = 0;
+    private int windowFailures = 0;
+    private long openUntil = 0;
+    private int probesIssued = 0;
+    private int probesSucceeded = 0;
+    private volatile Listener listener;
+
+    // Statistics
+    private long rejectedCount = 0;
+    private long tripCount = 0;
+
+    /**
+     * Trip at 50% failures over the last 20 calls (at least 10), stay open 5 s, probe with 1 call.
+     */
+    public CircuitBreaker() {
+        this(20, 10, 0.5, 5000, 1);
+    }
+
+    public CircuitBreaker(int windowSize, int minCalls, double failureThreshold, long openMs, int probeCount) {
+        this.window = new boolean[Math.max(1, windowSize)];
+        this.minCalls = Math.max(1, Math.min(minCalls, this.window.length));
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMs * 1_000_000L;
+        this.probeCount = Math.max(1, probeCount);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Ask to make a call. Every permitted call must report exactly one outcome.
+     */
+    public boolean tryAcquire() {
+        State from;
+        State to;
+        boolean permitted;
+        synchronized (lock) {
+            from = state;
+            if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+                state = State.HALF_OPEN;
+                probesIssued = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.CLOSED) {
+                permitted = true;
+            } else if (state == State.HALF_OPEN && probesIssued < probeCount) {
+                probesIssued++;
+                permitted = true;
+            } else {
+                rejectedCount++;
+                permitted = false;
+            }
+            to = state;
+        }
+        notifyChange(from, to);
+        return permitted;
+    }
+
+    public void onSuccess() {
+        record(false);
+    }
+
+    public void onFailure() {
+        record(true);
+    }
+
+    /**
+     * The permitted call never reached the backend; give back its probe slot.
+     */
+    public void onIgnored() {
+        synchronized (lock) {
+            if (state == State.HALF_OPEN && probesIssued > 0) probesIssued--;
+        }
+    }
+
+    public State getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /**
+     * Failure rate over the current window.
+     */
+    public double getFailureRate() {
+        synchronized (lock) {
+            return windowCount == 0 ? 0 : windowFailures / (double) windowCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    public long getTripCount() {
+        synchronized (lock) {
+            return tripCount;
+        }
+    }
+
+    private void record(boolean failure) {
+        State from;
+        State to;
+        synchronized (lock) {
+            from = state;
+            switch (state) {
+                case CLOSED:
+                    if (windowCount == window.length && window[windowPos]) windowFailures--;
+                    if (windowCount < window.length) windowCount++;
+                    window[windowPos] = failure;
+                    if (failure) windowFailures++;
+                    windowPos = (windowPos + 1) % window.length;
+                    if (windowCount >= minCalls && windowFailures >= failureThreshold * windowCount) {
+                        trip();
+                    }
+                    break;
+                case HALF_OPEN:
+                    if (failure) {
+                        trip();
+                    } else if (++probesSucceeded >= probeCount) {
+                        state = State.CLOSED;
+                        resetWindow();
+                    }
+                    break;
+                case OPEN:
+                default:
+                    // Late outcome of a call made before the trip
+                    break;
+            }
+            to = state;
+        }
+        notifyChange(from, to);
+    }
+
+    // Must hold lock
+    private void trip() {
+        state = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+        tripCount++;
+        resetWindow();
+    }
+
+    // Must hold lock
+    private void resetWindow() {
+        windowPos = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+
+    private void notifyChange(State from, State to) {
+        Listener l = listener;
+        if (from == to || l == null) return;
+        try {
+            l.onStateChange(from, to);
+        } catch (RuntimeException e) {
+            logger.error("Error in circuit breaker listener", e);
+        }
+    }
+}
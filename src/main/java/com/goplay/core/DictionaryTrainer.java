@@ -0,0 +1,197 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DictionaryTrainer builds preset dictionaries for PayloadCodec from sample payloads.
+ * It counts in how many samples each 6-byte string occurs, takes the runs of strings
+ * common to many samples as candidate segments, and fills the dictionary with the
+ * segments that cover the most sample bytes. Deflate reaches the end of a dictionary
+ * with the shortest distances, so the best segments go last.
+ *
+ * As a command it trains one dictionary per route from a capture file: the stream of
+ * length-prefixed frames exactly as GoPlay sends and receives them (what a tcp://
+ * connection carries, or the payloads of its binary WebSocket messages, concatenated).
+ * Route names, and the framing mode of the frames after it, come from a handshake
+ * response in the capture.
+ *
+ *   java -cp goplay-java-client.jar com.goplay.core.DictionaryTrainer capture.bin dicts/ [size]
+ */
+public class DictionaryTrainer {
+    static final String SUFFIX = ".dict";
+
+    // Length of the strings counted; deflate matches need at least 3 bytes
+    private static final int K = 6;
+    private static final int MAX_SEGMENT = 256;
+    private static final int MIN_SAMPLES = 10;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryTrainer <capture-file> <output-dir> [dictionary-size]");
+            System.exit(1);
+        }
+        try {
+            int size = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+            Map<String, List<byte[]>> samples = readCapture(Paths.get(args[0]));
+            Path out = Files.createDirectories(Paths.get(args[1]));
+
+            for (Map.Entry<String, List<byte[]>> e : samples.entrySet()) {
+                String route = e.getKey();
+                List<byte[]> routeSamples = e.getValue();
+                if (routeSamples.size() < MIN_SAMPLES) {
+                    GoPlayLogger.info("{}: {} samples, skipped", route, routeSamples.size());
+                    continue;
+                }
+                byte[] dictionary = train(routeSamples, size);
+                if (dictionary.length == 0) {
+                    GoPlayLogger.info("{}: {} samples, nothing in common", route, routeSamples.size());
+                    continue;
+                }
+                Files.write(out.resolve(route + SUFFIX), dictionary);
+                GoPlayLogger.info("{}: {} samples, {} byte dictionary, content to {}%", route,
+                        routeSamples.size(), dictionary.length, Math.round(100 * ratio(route, dictionary, routeSamples)));
+            }
+        } catch (Exception e) {
+            GoPlayLogger.error("Dictionary training failed", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build a dictionary of at most maxSize bytes from samples of one route.
+     */
+    public static byte[] train(List<byte[]> samples, int maxSize) {
+        // In how many samples each string occurs
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + K <= sample.length; i++) {
+                seen.add(key(sample, i));
+            }
+            for (Long k : seen) {
+                frequency.merge(k, 1, Integer::sum);
+            }
+        }
+        int minFrequency = Math.max(2, samples.size() / 100);
+
+        // Runs of common strings, scored by the sample bytes they would cover
+        Map<String, Long> segments = new HashMap<>();
+        for (byte[] sample : samples) {
+            int i = 0;
+            while (i + K <= sample.length) {
+                if (frequency.get(key(sample, i)) < minFrequency) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                long score = 0;
+                while (i + K <= sample.length && i - start + K < MAX_SEGMENT
+                        && frequency.get(key(sample, i)) >= minFrequency) {
+                    score += frequency.get(key(sample, i));
+                    i++;
+                }
+                String segment = new String(sample, start, i - start + K - 1, StandardCharsets.ISO_8859_1);
+                segments.merge(segment, score, Math::max);
+            }
+        }
+
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>(segments.entrySet());
+        ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        List<String> chosen = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        int size = 0;
+        for (Map.Entry<String, Long> e : ranked) {
+            String segment = e.getKey();
+            if (size + segment.length() > maxSize) continue;
+            if (content.indexOf(segment) >= 0) continue;
+            chosen.add(segment);
+            content.append(segment);
+            size += segment.length();
+            if (size >= maxSize - K) break;
+        }
+
+        // Best segment last, nearest to the data
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            byte[] bytes = chosen.get(i).getBytes(StandardCharsets.ISO_8859_1);
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * Content of each route in a capture file, by route name.
+     */
+    public static Map<String, List<byte[]>> readCapture(Path file) throws Exception {
+        ByteArray buffer = new ByteArray(Files.readAllBytes(file));
+        Map<Integer, List<byte[]>> byRoute = new LinkedHashMap<>();
+        Map<Integer, String> names = new HashMap<>();
+        FrameMode mode = FrameMode.Uint16;
+
+        while (true) {
+            int size = Framing.readLength(buffer, mode);
+            if (size < 0 || !buffer.hasReadSize(size)) break;
+            Package<?> pack = Package.tryDecodeRaw(new ByteArray(buffer.readBytes(size)), EncoderFactory.PROTOBUF);
+            if (pack == null) continue;
+            PackageInfo info = ((Header) pack.getHeader()).getPackageInfo();
+            if (info.getType() == PackageType.HankShakeResp) {
+                RespHandShake hs = pack.decodeFromRaw(RespHandShake.class, EncoderFactory.PROTOBUF).getData();
+                for (Map.Entry<String, Integer> e : hs.getRoutesMap().entrySet()) {
+                    names.put(e.getValue(), e.getKey());
+                }
+                mode = hs.getFrameMode();
+            } else if (info.getRoute() != 0 && info.getDictionary() == 0 && pack.getRawData().getLength() > 0) {
+                byRoute.computeIfAbsent(info.getRoute(), r -> new ArrayList<>()).add(pack.getRawData().getData());
+            }
+        }
+
+        Map<String, List<byte[]>> result = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<byte[]>> e : byRoute.entrySet()) {
+            String name = names.get(e.getKey());
+            if (name == null) {
+                GoPlayLogger.warn("Route {} is not in a handshake in the capture, skipped", e.getKey());
+                continue;
+            }
+            result.put(name, e.getValue());
+        }
+        return result;
+    }
+
+    // Compressed share of the samples' content with the dictionary
+    private static double ratio(String route, byte[] dictionary, List<byte[]> samples) {
+        PayloadCodec codec = new PayloadCodec();
+        codec.addDictionary(route, dictionary);
+        Map<String, Integer> routes = new HashMap<>();
+        routes.put(route, 1);
+        codec.bindRoutes(routes);
+        for (byte[] sample : samples) {
+            codec.compress(1, sample, sample.length);
+        }
+        return (double) codec.getCompressedBytes() / codec.getRawBytes();
+    }
+
+    private static long key(byte[] data, int offset) {
+        long key = 0;
+        for (int i = 0; i < K; i++) {
+            key = (key << 8) | (data[offset + i] & 0xff);
+        }
+        return key;
+    }
+
+    private DictionaryTrainer() {
+    }
+}
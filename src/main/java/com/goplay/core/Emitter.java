@@ -1,6 +1,7 @@
 package com.goplay.core;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -8,7 +9,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * Supports on, off, once, emit operations similar to EventEmitter.
  */
 public class Emitter {
-    private Map<String, List<Listener>> callbacks = new HashMap<>();
+    private Map<String, List<Listener>> callbacks = new ConcurrentHashMap<>();
 
     public static class Listener {
         private Function function;
@@ -38,8 +39,7 @@ public class Emitter {
      * Register an event listener.
      */
     public Emitter on(String event, Function fn) {
-        callbacks.computeIfAbsent(event, k -> new CopyOnWriteArrayList<>())
-                .add(new Listener(fn));
+        addListener(event, new Listener(fn));
         return this;
     }
 
@@ -53,26 +53,29 @@ public class Emitter {
             fn.call(args);
         };
         wrapper[0] = new Listener(wrappedFn, fn);
-        callbacks.computeIfAbsent(event, k -> new CopyOnWriteArrayList<>())
-                .add(wrapper[0]);
+        addListener(event, wrapper[0]);
         return this;
     }
 
+    private void addListener(String event, Listener listener) {
+        callbacks.compute(event, (k, list) -> {
+            if (list == null) {
+                list = new CopyOnWriteArrayList<>();
+            }
+            list.add(listener);
+            return list;
+        });
+    }
+
     /**
      * Remove an event listener.
      */
     public Emitter off(String event, Function fn) {
-        List<Listener> listeners = callbacks.get(event);
-        if (listeners == null) {
-            return this;
-        }
-
-        listeners.removeIf(cb ->
-                cb.function == fn || cb.originalFunction == fn);
-
-        if (listeners.isEmpty()) {
-            callbacks.remove(event);
-        }
+        callbacks.computeIfPresent(event, (k, list) -> {
+            list.removeIf(cb ->
+                    cb.function == fn || cb.originalFunction == fn);
+            return list.isEmpty() ? null : list;
+        });
         return this;
     }
 
@@ -0,0 +1,159 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.FrameMode;
+import com.goplay.core.protocols.ProtocolProto.Header;
+import com.goplay.core.protocols.ProtocolProto.PackageInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * FrameCodec holds the framing state of one connection: the frame mode agreed in the
+ * handshake, the bytes of a frame still being received, and the chunks of packages that
+ * are not whole yet. GoPlay and GoPlayPool both frame and unframe packages with it.
+ *
+ * Frames are read by the transport's callbacks, which never run concurrently; frames
+ * may be written from any thread.
+ */
+public class FrameCodec {
+    private volatile FrameMode mode = FrameMode.Uint16;
+    private final Map<String, Queue<Package<?>>> chunks = new ConcurrentHashMap<>();
+    // Only touched by the receiving thread
+    private ByteArray buffer;
+
+    public FrameMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Use the mode for every frame from now on, both ways.
+     */
+    public void setMode(FrameMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Largest content of one package in the current mode; anything larger is chunked.
+     */
+    public int getMaxContentSize() {
+        return Framing.maxContentSize(mode);
+    }
+
+    /**
+     * Split a package to fit the mode and frame each part, in order.
+     */
+    public byte[][] encode(Package<?> pack, int encodingType, PayloadCodec codec) throws Exception {
+        Package<?>[] packs = pack.split(encodingType, getMaxContentSize());
+        byte[][] frames = new byte[packs.length][];
+        for (int i = 0; i < packs.length; i++) {
+            ByteArray out = new ByteArray(0);
+            writeFrame(out, packs[i], encodingType, codec);
+            frames[i] = out.slice(0, out.woffset);
+        }
+        return frames;
+    }
+
+    /**
+     * Append a length-prefixed frame for a single (already split) package.
+     */
+    public void writeFrame(ByteArray out, Package<?> p, int encodingType, PayloadCodec codec) throws Exception {
+        ByteArray data = p.encode(encodingType, codec);
+        Framing.writeLength(out, mode, data.getLength());
+        out.writeBytes(data);
+    }
+
+    /**
+     * Add bytes received from the transport. The buffer is only read during the call.
+     */
+    public void append(ByteBuffer data) {
+        ByteArray received = new ByteArray(data);
+        if (buffer == null) {
+            buffer = received;
+        } else {
+            buffer.writeBytes(received);
+        }
+    }
+
+    /**
+     * The next whole frame received, without its length prefix. Returns null once only
+     * part of a frame is left, which is kept for the next append(). A bad length prefix
+     * throws, and the bytes received so far are dropped: the stream cannot be
+     * resynchronized past it.
+     */
+    public byte[] nextFrame() throws IOException {
+        while (buffer != null) {
+            int start = buffer.roffset;
+            int size;
+            try {
+                size = Framing.readLength(buffer, mode);
+            } catch (IOException e) {
+                buffer = null;
+                throw e;
+            }
+            if (size < 0 || size > buffer.woffset - buffer.roffset) {
+                buffer.roffset = start;
+                break;
+            }
+            if (size > 0) return buffer.readBytes(size);
+        }
+        compact();
+        return null;
+    }
+
+    /**
+     * Collect a chunk of a package. Returns the joined package once all chunks are in,
+     * null until then. Chunks of one package arrive in order on the one connection.
+     */
+    public Package<?> collectChunk(Package<?> chunk) throws Exception {
+        String key = chunkKey(chunk);
+        Queue<Package<?>> parts = chunks.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>());
+        parts.offer(chunk);
+
+        int count = ((Header) chunk.getHeader()).getPackageInfo().getChunkCount();
+        if (parts.size() < count) return null;
+        chunks.remove(key);
+        return Package.join(parts);
+    }
+
+    /**
+     * Whether chunks are being collected under the key, i.e. the package's first chunk
+     * was taken by collectChunk().
+     */
+    public boolean isCollecting(String key) {
+        return chunks.containsKey(key);
+    }
+
+    /**
+     * Identifies the package a chunk belongs to.
+     */
+    public static String chunkKey(Package<?> pack) {
+        PackageInfo info = ((Header) pack.getHeader()).getPackageInfo();
+        return info.getTypeValue() + ":" + info.getRoute() + ":" + info.getId();
+    }
+
+    /**
+     * Forget a connection that is gone: partial frames and chunks, and the frame mode.
+     */
+    public void reset() {
+        buffer = null;
+        chunks.clear();
+        mode = FrameMode.Uint16;
+    }
+
+    // Drop the bytes already read, so the buffer only ever holds a partial frame
+    private void compact() {
+        ByteArray current = buffer;
+        if (current == null || current.roffset == 0) return;
+        if (current.roffset >= current.woffset) {
+            buffer = null;
+            return;
+        }
+        ByteArray rest = new ByteArray(current.woffset - current.roffset);
+        rest.writeBytes(current.slice(current.roffset, current.woffset));
+        buffer = rest;
+    }
+}
@@ -0,0 +1,68 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.FrameMode;
+
+import java.io.IOException;
+
+/**
+ * Framing writes and reads the length prefix of frames in the mode agreed in the
+ * handshake. Uint16, the default, limits a package to 64 KB, so larger content is
+ * split into chunks of Package.MAX_CHUNK_SIZE. Varint prefixes (unsigned LEB128, as in
+ * protobuf) take one to three bytes and carry packages of up to MAX_VARINT_CONTENT_SIZE
+ * whole.
+ */
+public class Framing {
+    // Largest content sent as one package in Varint mode
+    public static final int MAX_VARINT_CONTENT_SIZE = 1 << 20;
+    // Frames announced larger than this are refused rather than buffered
+    public static final int MAX_VARINT_FRAME_SIZE = MAX_VARINT_CONTENT_SIZE + 64 * 1024;
+
+    /**
+     * Largest content of one package in a mode; anything larger is chunked.
+     */
+    public static int maxContentSize(FrameMode mode) {
+        return mode == FrameMode.Varint ? MAX_VARINT_CONTENT_SIZE : Package.MAX_CHUNK_SIZE;
+    }
+
+    public static void writeLength(ByteArray out, FrameMode mode, int length) {
+        if (mode != FrameMode.Varint) {
+            out.writeUint16(length);
+            return;
+        }
+        while ((length & ~0x7f) != 0) {
+            out.writeUint8((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.writeUint8(length);
+    }
+
+    /**
+     * Read a length prefix from the bytes between roffset and woffset. Returns -1 and
+     * leaves roffset as it was if the prefix is not complete yet.
+     */
+    public static int readLength(ByteArray in, FrameMode mode) throws IOException {
+        byte[] data = in.getData();
+        int available = in.woffset - in.roffset;
+        if (mode != FrameMode.Varint) {
+            if (available < 2) return -1;
+            return in.readUint16();
+        }
+        int length = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= available) return -1;
+            int b = data[in.roffset + i] & 0xff;
+            length |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > MAX_VARINT_FRAME_SIZE) {
+                    throw new IOException("Frame of " + (length & 0xffffffffL) + " bytes exceeds the limit");
+                }
+                in.roffset += i + 1;
+                return length;
+            }
+        }
+        throw new IOException("Malformed varint frame length");
+    }
+
+    private Framing() {
+    }
+}
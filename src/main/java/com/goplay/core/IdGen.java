@@ -12,14 +12,28 @@ public class IdGen {
         this.max = max;
     }
 
-    public int next() {
+    public synchronized int next() {
         if (++id > max) {
             id = 0;
         }
         return id;
     }
 
-    public void reset() {
+    /**
+     * Allocate count consecutive IDs in one step.
+     */
+    public synchronized int[] next(int count) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (++id > max) {
+                id = 0;
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    public synchronized void reset() {
         id = 0;
     }
 
@@ -0,0 +1,183 @@
+package com.goplay.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * IncomingStream hands the content of a chunked transfer to a reader while it arrives.
+ * Chunks are offered by the receiving thread, which never blocks; reads block until
+ * data is there. The stream ends after the last chunk, or fails if the transfer is cut
+ * short.
+ *
+ * While the reader keeps up, chunks wait in memory. Once more than spillThreshold bytes
+ * are waiting, the rest of the transfer is appended to a temp file instead and read back
+ * through memory-mapped windows, so heap use stays bounded whatever the size. The file
+ * is deleted when the stream is closed.
+ */
+public class IncomingStream implements ReadableByteChannel {
+    // Bytes of the temp file mapped at a time for reading
+    private static final int MAP_WINDOW = 4 << 20;
+
+    private final int chunkCount;
+    private final long spillThreshold;
+
+    // Guarded by this
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    private long queuedBytes;
+    private int received;
+    private long receivedBytes;
+    private IOException failure;
+    private boolean closed;
+    private FileChannel spill;
+    private long spillWritten;
+    private long spillRead;
+    private MappedByteBuffer window;
+
+    public IncomingStream(int chunkCount, long spillThreshold) {
+        this.chunkCount = Math.max(1, chunkCount);
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Add the next chunk. Returns true once it was the last one.
+     */
+    public synchronized boolean offer(byte[] chunk) {
+        if (closed || failure != null) return ++received >= chunkCount;
+        received++;
+        receivedBytes += chunk.length;
+        try {
+            if (spill != null || queuedBytes + chunk.length > spillThreshold) {
+                if (spill == null) {
+                    Path file = Files.createTempFile("goplay-stream", ".tmp");
+                    spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(chunk);
+                while (buf.hasRemaining()) {
+                    spillWritten += spill.write(buf, spillWritten);
+                }
+            } else if (chunk.length > 0) {
+                chunks.offer(ByteBuffer.wrap(chunk));
+                queuedBytes += chunk.length;
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        notifyAll();
+        return received >= chunkCount;
+    }
+
+    /**
+     * End the stream with an error; pending and later reads throw it.
+     */
+    public synchronized void fail(IOException e) {
+        if (failure == null && received < chunkCount) failure = e;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (closed) throw new ClosedChannelException();
+            if (!dst.hasRemaining()) return 0;
+
+            ByteBuffer head = chunks.peek();
+            if (head != null) {
+                int n = transfer(head, dst);
+                queuedBytes -= n;
+                if (!head.hasRemaining()) chunks.poll();
+                return n;
+            }
+            if (spill != null && spillRead < spillWritten) {
+                if (window == null || !window.hasRemaining()) {
+                    window = spill.map(FileChannel.MapMode.READ_ONLY, spillRead,
+                            Math.min(MAP_WINDOW, spillWritten - spillRead));
+                }
+                int n = transfer(window, dst);
+                spillRead += n;
+                return n;
+            }
+            if (failure != null) throw failure;
+            if (received >= chunkCount) return -1;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EOFException("interrupted while waiting for stream data");
+            }
+        }
+    }
+
+    /**
+     * The stream as an InputStream; closing either closes both.
+     */
+    public InputStream asInputStream() {
+        return Channels.newInputStream(this);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Stop reading: later chunks are discarded and the temp file, if any, is deleted.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        chunks.clear();
+        queuedBytes = 0;
+        window = null;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException ignored) {
+            }
+        }
+        notifyAll();
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Whether all chunks have arrived; they may not all have been read yet.
+     */
+    public synchronized boolean isComplete() {
+        return received >= chunkCount;
+    }
+
+    /**
+     * Whether the reader fell behind and the stream moved to a temp file.
+     */
+    public synchronized boolean isSpilled() {
+        return spill != null;
+    }
+
+    private static int transfer(ByteBuffer src, ByteBuffer dst) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        ByteBuffer slice = src.duplicate();
+        slice.limit(slice.position() + n);
+        dst.put(slice);
+        src.position(src.position() + n);
+        return n;
+    }
+}
@@ -0,0 +1,124 @@
+package com.goplay.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyTracker keeps an online latency histogram for quantile estimates.
+ * Buckets grow geometrically by 10% from 50 us to over two minutes, so any quantile
+ * is off by at most one bucket width. Recording is one atomic add and never allocates.
+ * Counts are halved every decayEvery samples, so old latency fades out gradually.
+ * Calls that timed out are weighted alongside, above every answer, and fade out the same way.
+ */
+public class LatencyTracker {
+    private static final long MIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final double GROWTH = 1.1;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = 160;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong censoredCount = new AtomicLong();
+    // Censored samples weighted like the histogram, halved with it
+    private final AtomicLong censoredWeight = new AtomicLong();
+    private final AtomicBoolean decaying = new AtomicBoolean();
+    private final long decayEvery;
+
+    public LatencyTracker() {
+        this(10_000);
+    }
+
+    public LatencyTracker(long decayEvery) {
+        this.decayEvery = Math.max(2, decayEvery);
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(nanos));
+        if (total.incrementAndGet() >= decayEvery && decaying.compareAndSet(false, true)) {
+            try {
+                long remaining = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    long c = counts.get(i);
+                    counts.addAndGet(i, -(c - c / 2));
+                    remaining += c / 2;
+                }
+                total.set(remaining);
+                long censored = censoredWeight.get();
+                censoredWeight.addAndGet(-(censored - censored / 2));
+            } finally {
+                decaying.set(false);
+            }
+        }
+    }
+
+    public void recordMillis(long ms) {
+        record(TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    /**
+     * Note a call that gave up waiting, whose latency is unknown. It is kept out of the
+     * histogram: recorded at the timeout it would become the new p99.9 once more than
+     * 0.1% time out, and a timeout derived from that would ratchet upwards. Only its
+     * share of the samples is kept, see getCensoredShare().
+     */
+    public void recordCensored() {
+        censoredCount.incrementAndGet();
+        censoredWeight.incrementAndGet();
+    }
+
+    /**
+     * Calls recorded with recordCensored() since the tracker was created.
+     */
+    public long getCensoredCount() {
+        return censoredCount.get();
+    }
+
+    /**
+     * Share of the currently weighted samples that were censored, in [0, 1].
+     */
+    public double getCensoredShare() {
+        long censored = censoredWeight.get();
+        if (censored == 0) return 0;
+        return censored / (double) (censored + total.get());
+    }
+
+    /**
+     * Samples currently weighted in the histogram.
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding quantile q, in milliseconds, or -1 without samples.
+     */
+    public double getQuantileMs(double q) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return -1;
+
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBoundOf(i) / 1_000_000.0;
+        }
+        return upperBoundOf(BUCKETS - 1) / 1_000_000.0;
+    }
+
+    private static int indexOf(long nanos) {
+        if (nanos <= MIN_NANOS) return 0;
+        int i = (int) Math.ceil(Math.log(nanos / (double) MIN_NANOS) / LOG_GROWTH);
+        return Math.min(i, BUCKETS - 1);
+    }
+
+    private static double upperBoundOf(int index) {
+        return MIN_NANOS * Math.pow(GROWTH, index);
+    }
+}
@@ -0,0 +1,207 @@
+package com.goplay.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OfflineBuffer holds outbound calls while there is no connection, bounded by count and
+ * bytes, so they can be replayed in their original order once connected again.
+ * When full, the oldest entries of the lowest priority make room. An entry is refused
+ * when only entries of a higher priority could make room for it.
+ * Eviction actions run outside the buffer's lock.
+ */
+public class OfflineBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(OfflineBuffer.class);
+
+    public static final class Entry {
+        final int priority;
+        final int size;
+        final long seq;
+        final Runnable replay;
+        final Runnable evict;
+
+        Entry(int priority, int size, long seq, Runnable replay, Runnable evict) {
+            this.priority = priority;
+            this.size = size;
+            this.seq = seq;
+            this.replay = replay;
+            this.evict = evict;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final TreeMap<Integer, ArrayDeque<Entry>> byPriority = new TreeMap<>();
+    private final int maxCount;
+    private final long maxBytes;
+    private int count = 0;
+    private long bytes = 0;
+    private long nextSeq = 0;
+
+    // Statistics
+    private final AtomicLong bufferedCount = new AtomicLong();
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong refusedCount = new AtomicLong();
+
+    public OfflineBuffer(int maxCount, long maxBytes) {
+        if (maxCount <= 0 || maxBytes <= 0) throw new IllegalArgumentException("bounds must be positive");
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Buffer a call. replay runs on replay(); evict (may be null) runs if the entry is
+     * pushed out or cleared. Returns null if the entry was refused; evict does not run then.
+     */
+    public Entry add(int priority, int size, Runnable replay, Runnable evict) {
+        if (size > maxBytes) {
+            refusedCount.incrementAndGet();
+            return null;
+        }
+        List<Entry> evicted = new ArrayList<>();
+        Entry entry;
+        synchronized (lock) {
+            if (!canMakeRoom(priority, size)) {
+                refusedCount.incrementAndGet();
+                return null;
+            }
+            while (count >= maxCount || bytes + size > maxBytes) {
+                Map.Entry<Integer, ArrayDeque<Entry>> lowest = byPriority.firstEntry();
+                Entry victim = lowest.getValue().poll();
+                if (lowest.getValue().isEmpty()) byPriority.remove(lowest.getKey());
+                count--;
+                bytes -= victim.size;
+                evicted.add(victim);
+            }
+            entry = new Entry(priority, size, nextSeq++, replay, evict);
+            byPriority.computeIfAbsent(priority, k -> new ArrayDeque<>()).offer(entry);
+            count++;
+            bytes += size;
+        }
+        bufferedCount.incrementAndGet();
+        evict(evicted);
+        return entry;
+    }
+
+    // Whether dropping entries of at most this priority, oldest first, would fit size
+    private boolean canMakeRoom(int priority, int size) {
+        int freeCount = maxCount - count;
+        long freeBytes = maxBytes - bytes;
+        for (Map.Entry<Integer, ArrayDeque<Entry>> e : byPriority.headMap(priority, true).entrySet()) {
+            for (Entry victim : e.getValue()) {
+                if (freeCount >= 1 && freeBytes >= size) return true;
+                freeCount++;
+                freeBytes += victim.size;
+            }
+        }
+        return freeCount >= 1 && freeBytes >= size;
+    }
+
+    /**
+     * Take an entry out without running either action, e.g. when it expires.
+     * Returns false if it was already replayed or evicted.
+     */
+    public boolean remove(Entry entry) {
+        synchronized (lock) {
+            ArrayDeque<Entry> queue = byPriority.get(entry.priority);
+            if (queue == null || !queue.remove(entry)) return false;
+            if (queue.isEmpty()) byPriority.remove(entry.priority);
+            count--;
+            bytes -= entry.size;
+            return true;
+        }
+    }
+
+    /**
+     * Run the replay action of every buffered entry, oldest first, and empty the buffer.
+     */
+    public int replay() {
+        List<Entry> entries = takeAll();
+        entries.sort(Comparator.comparingLong(e -> e.seq));
+        for (Entry e : entries) {
+            run(e.replay, "replaying");
+        }
+        replayedCount.addAndGet(entries.size());
+        return entries.size();
+    }
+
+    /**
+     * Evict every buffered entry.
+     */
+    public void clear() {
+        evict(takeAll());
+    }
+
+    private List<Entry> takeAll() {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (lock) {
+            for (ArrayDeque<Entry> queue : byPriority.values()) {
+                entries.addAll(queue);
+            }
+            byPriority.clear();
+            count = 0;
+            bytes = 0;
+        }
+        return entries;
+    }
+
+    private void evict(List<Entry> entries) {
+        for (Entry e : entries) {
+            if (e.evict != null) run(e.evict, "evicting");
+        }
+        evictedCount.addAndGet(entries.size());
+    }
+
+    private static void run(Runnable action, String what) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.error("Error {} offline entry", what, e);
+        }
+    }
+
+    public boolean isEmpty() {
+        synchronized (lock) {
+            return count == 0;
+        }
+    }
+
+    public int getCount() {
+        synchronized (lock) {
+            return count;
+        }
+    }
+
+    public long getBytes() {
+        synchronized (lock) {
+            return bytes;
+        }
+    }
+
+    public long getBufferedCount() {
+        return bufferedCount.get();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Entries refused because only higher priorities could have made room.
+     */
+    public long getRefusedCount() {
+        return refusedCount.get();
+    }
+}
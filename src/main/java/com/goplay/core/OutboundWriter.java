@@ -0,0 +1,526 @@
+package com.goplay.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * OutboundWriter decouples producers from the socket. Producers enqueue encoded frames
+ * on lock-free lane queues and a single drain task, run on the writer executor, packs
+ * them into batches and hands each batch to the sink.
+ *
+ * Lanes: CONTROL is always taken first, then INTERACTIVE, then one chunk of a BULK
+ * transfer. Bulk transfers are served round-robin one chunk at a time, so concurrent
+ * uploads interleave and control traffic pre-empts them at every chunk boundary.
+ *
+ * Ordering: frames offered on one lane by one thread are written in the order offered,
+ * and the chunks of a transfer stay in order. Frames on different lanes may overtake
+ * each other. One offer() is never split.
+ * Deadlines: a frame offered with a deadline that has passed by the time it is dequeued
+ * is skipped and its expiry callback runs instead. A transfer can only expire before
+ * its first chunk is written.
+ * Conflation: a conflated offer replaces the not-yet-written frame with the same key;
+ * the replacement keeps the queue position of the first unsent one.
+ * Corking: between cork() and uncork() nothing is written, so what is offered in between
+ * leaves in as few batches as possible.
+ * Backpressure: lanes only order this writer's own queue, so with setBackpressure() the
+ * writer also watches what the transport still has to send. Bulk chunks are held back
+ * while it buffers bulkWatermark bytes or more, interactive frames from
+ * interactiveWatermark; control frames always go. A frame written behind a full socket
+ * buffer waits for all of it, so this keeps a Pong from queueing behind an upload on
+ * the wire. Held frames go once resume() is called, which the owner does when the
+ * transport reports it has drained. Transports that cannot report it are covered by
+ * the writer checking back every RECHECK_MS while frames are held.
+ * Shutdown: frames accepted before shutdown() are written before its future completes.
+ */
+public class OutboundWriter {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundWriter.class);
+    // Delay between checks of the transport while frames are held back
+    public static final long RECHECK_MS = 1;
+
+    public enum Lane {
+        CONTROL,
+        INTERACTIVE,
+        BULK
+    }
+
+    public interface Sink {
+        void write(byte[] data) throws Exception;
+    }
+
+    /**
+     * Queue statistics of one lane. Latency is the time a frame waited in the queue.
+     */
+    public static class LaneStats {
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicLong offeredCount = new AtomicLong();
+        private final AtomicLong writtenCount = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private volatile long maxLatencyNanos;
+
+        public int getQueueDepth() {
+            return depth.get();
+        }
+
+        public long getOfferedCount() {
+            return offeredCount.get();
+        }
+
+        public long getWrittenCount() {
+            return writtenCount.get();
+        }
+
+        public double getAverageLatencyMs() {
+            long n = writtenCount.get();
+            return n == 0 ? 0 : totalLatencyNanos.get() / (double) n / 1_000_000.0;
+        }
+
+        public double getMaxLatencyMs() {
+            return maxLatencyNanos / 1_000_000.0;
+        }
+
+        void offered(int frames) {
+            depth.addAndGet(frames);
+            offeredCount.addAndGet(frames);
+        }
+
+        // Writer thread only, so the max needs no compare-and-set
+        void taken(long enqueuedAt) {
+            long latency = System.nanoTime() - enqueuedAt;
+            depth.decrementAndGet();
+            writtenCount.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+        }
+
+        void dropped(int frames) {
+            depth.addAndGet(-frames);
+        }
+    }
+
+    private static class Frame {
+        final byte[] data;
+        final long enqueuedAt = System.nanoTime();
+        final long deadline;
+        final Runnable onExpired;
+        // Set for conflated frames, whose latest bytes live in the slot
+        final Slot slot;
+
+        Frame(byte[] data, long deadline, Runnable onExpired) {
+            this.data = data;
+            this.deadline = deadline;
+            this.onExpired = onExpired;
+            this.slot = null;
+        }
+
+        Frame(Slot slot) {
+            this.data = null;
+            this.deadline = 0;
+            this.onExpired = null;
+            this.slot = slot;
+        }
+    }
+
+    private static class Slot {
+        final Object key;
+        final AtomicReference<byte[]> latest = new AtomicReference<>();
+
+        Slot(Object key) {
+            this.key = key;
+        }
+    }
+
+    private static class Transfer {
+        final byte[][] chunks;
+        final long enqueuedAt = System.nanoTime();
+        final long deadline;
+        final Runnable onExpired;
+        int next;
+
+        Transfer(byte[][] chunks, long deadline, Runnable onExpired) {
+            this.chunks = chunks;
+            this.deadline = deadline;
+            this.onExpired = onExpired;
+        }
+    }
+
+    private final Queue<Frame> control = new ConcurrentLinkedQueue<>();
+    private final Queue<Frame> interactive = new ConcurrentLinkedQueue<>();
+    private final Queue<Transfer> bulk = new ConcurrentLinkedQueue<>();
+    // Transfers with chunks left; only touched by the drain task
+    private final ArrayDeque<Transfer> activeTransfers = new ArrayDeque<>();
+    private final Map<Object, Slot> slots = new ConcurrentHashMap<>();
+    private final LaneStats[] laneStats = {new LaneStats(), new LaneStats(), new LaneStats()};
+
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicInteger corks = new AtomicInteger();
+    private final Executor executor;
+    private final Sink sink;
+    private final int maxBatchBytes;
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    private volatile boolean closed;
+    private volatile boolean aborted;
+
+    // Backpressure from the transport; null = write whenever there is something to write
+    private volatile LongSupplier bufferedBytes;
+    private volatile long bulkWatermark;
+    private volatile long interactiveWatermark;
+    private volatile ScheduledExecutorService timer;
+    private final AtomicBoolean recheckScheduled = new AtomicBoolean();
+
+    // Statistics
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong conflatedOfferCount = new AtomicLong();
+    private final AtomicLong conflatedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    public OutboundWriter(Executor executor, Sink sink, int maxBatchBytes) {
+        this.executor = executor;
+        this.sink = sink;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Enqueue encoded frames on the interactive lane.
+     */
+    public boolean offer(byte[] frames) {
+        return offer(Lane.INTERACTIVE, frames);
+    }
+
+    /**
+     * Enqueue encoded frames on a lane. Returns false once the writer is shut down.
+     */
+    public boolean offer(Lane lane, byte[] frames) {
+        return offer(lane, frames, 0, null);
+    }
+
+    /**
+     * Enqueue encoded frames that are skipped if still queued at deadline (System.nanoTime
+     * based, 0 = none); onExpired then runs on the writer thread.
+     */
+    public boolean offer(Lane lane, byte[] frames, long deadline, Runnable onExpired) {
+        if (lane == Lane.BULK) {
+            return offerTransfer(new byte[][]{frames}, deadline, onExpired);
+        }
+        if (closed) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        laneStats[lane.ordinal()].offered(1);
+        (lane == Lane.CONTROL ? control : interactive).offer(new Frame(frames, deadline, onExpired));
+        schedule();
+        return true;
+    }
+
+    /**
+     * Enqueue frames on the interactive lane, replacing any frame with the same key
+     * that has not been written yet.
+     */
+    public boolean offerConflated(Object key, byte[] frames) {
+        if (closed) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        conflatedOfferCount.incrementAndGet();
+        Slot slot = slots.computeIfAbsent(key, Slot::new);
+        if (slot.latest.getAndSet(frames) != null) {
+            // The queued frame will pick up these bytes instead
+            conflatedCount.incrementAndGet();
+            return true;
+        }
+        laneStats[Lane.INTERACTIVE.ordinal()].offered(1);
+        interactive.offer(new Frame(slot));
+        schedule();
+        return true;
+    }
+
+    /**
+     * Enqueue the frames of a multi-chunk transfer on the bulk lane. The chunks are
+     * written in order, interleaved with other transfers.
+     */
+    public boolean offerTransfer(byte[][] chunks) {
+        return offerTransfer(chunks, 0, null);
+    }
+
+    public boolean offerTransfer(byte[][] chunks, long deadline, Runnable onExpired) {
+        if (closed) {
+            droppedCount.addAndGet(chunks.length);
+            return false;
+        }
+        laneStats[Lane.BULK.ordinal()].offered(chunks.length);
+        bulk.offer(new Transfer(chunks, deadline, onExpired));
+        schedule();
+        return true;
+    }
+
+    /**
+     * Hold bulk chunks back while the transport buffers bulkWatermark bytes or more, and
+     * interactive frames from interactiveWatermark, counting the batch being packed. While
+     * frames are held back the writer checks again every RECHECK_MS on the timer.
+     */
+    public void setBackpressure(LongSupplier bufferedBytes, long bulkWatermark, long interactiveWatermark,
+                                ScheduledExecutorService timer) {
+        this.bulkWatermark = bulkWatermark;
+        this.interactiveWatermark = interactiveWatermark;
+        this.timer = timer;
+        this.bufferedBytes = bufferedBytes;
+    }
+
+    /**
+     * Check for held-back frames now, e.g. when the transport reports it has drained.
+     */
+    public void resume() {
+        schedule();
+    }
+
+    /**
+     * Hold frames back until the matching uncork(). Corks nest; shutdown overrides them.
+     */
+    public void cork() {
+        corks.incrementAndGet();
+    }
+
+    public void uncork() {
+        if (corks.decrementAndGet() == 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Stop accepting frames and write out what is already queued.
+     */
+    public CompletableFuture<Void> shutdown() {
+        closed = true;
+        schedule();
+        return terminated;
+    }
+
+    /**
+     * Stop accepting frames and drop what is queued; used once the socket is gone.
+     */
+    public void abort() {
+        closed = true;
+        aborted = true;
+        schedule();
+    }
+
+    public LaneStats getLaneStats(Lane lane) {
+        return laneStats[lane.ordinal()];
+    }
+
+    /**
+     * Frames waiting on all lanes.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (LaneStats stats : laneStats) {
+            depth += stats.getQueueDepth();
+        }
+        return depth;
+    }
+
+    public long getOfferedCount() {
+        long count = 0;
+        for (LaneStats stats : laneStats) {
+            count += stats.getOfferedCount();
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Frames skipped at dequeue because their deadline had passed.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Conflated offers that replaced a pending frame instead of being queued.
+     */
+    public long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    /**
+     * Share of conflated offers that never reached the socket.
+     */
+    public double getConflationRatio() {
+        long offers = conflatedOfferCount.get();
+        return offers == 0 ? 0 : conflatedCount.get() / (double) offers;
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        ByteArray batch = new ByteArray(0);
+        while (true) {
+            if (aborted) {
+                discardAll();
+            }
+            byte[] frames;
+            while ((corks.get() == 0 || closed) && (frames = takeNext(batch.woffset)) != null) {
+                // A single oversized frame still goes out whole, in its own batch
+                if (batch.woffset > 0 && batch.woffset + frames.length > maxBatchBytes) {
+                    flush(batch);
+                    batch = new ByteArray(0);
+                }
+                batch.writeBytes(frames);
+                // Write a full batch before taking the next unit, so it is picked by priority
+                if (batch.woffset >= maxBatchBytes) {
+                    flush(batch);
+                    batch = new ByteArray(0);
+                }
+            }
+            if (batch.woffset > 0) {
+                flush(batch);
+                batch = new ByteArray(0);
+            }
+            boolean empty = activeTransfers.isEmpty() && bulk.isEmpty() && control.isEmpty() && interactive.isEmpty();
+            if (closed && empty) {
+                terminated.complete(null);
+            } else if (!empty && !aborted && (corks.get() == 0 || closed)) {
+                // Held back by the transport; nothing else would wake us once it drains
+                recheckLater();
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) break;
+        }
+    }
+
+    private void recheckLater() {
+        ScheduledExecutorService t = timer;
+        if (t == null || !recheckScheduled.compareAndSet(false, true)) return;
+        t.schedule(() -> {
+            recheckScheduled.set(false);
+            schedule();
+        }, RECHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The next unit to write: any control frame, else an interactive frame, else the
+     * next chunk of the transfer whose turn it is. Interactive and bulk frames wait while
+     * the transport, plus the pending bytes of the batch being packed, is above their mark.
+     */
+    private byte[] takeNext(int pending) {
+        Frame f;
+        while ((f = control.poll()) != null) {
+            if (!expire(f.deadline, f.onExpired, Lane.CONTROL, 1)) {
+                laneStats[Lane.CONTROL.ordinal()].taken(f.enqueuedAt);
+                return f.data;
+            }
+        }
+        LongSupplier buffered = bufferedBytes;
+        long ahead = buffered != null ? buffered.getAsLong() + pending : 0;
+        if (buffered != null && ahead >= interactiveWatermark) return null;
+        while ((f = interactive.poll()) != null) {
+            if (f.slot != null) {
+                laneStats[Lane.INTERACTIVE.ordinal()].taken(f.enqueuedAt);
+                byte[] latest = f.slot.latest.getAndSet(null);
+                // A racing offer on a removed slot just queues its own frame
+                slots.remove(f.slot.key, f.slot);
+                if (latest != null) return latest;
+                continue;
+            }
+            if (!expire(f.deadline, f.onExpired, Lane.INTERACTIVE, 1)) {
+                laneStats[Lane.INTERACTIVE.ordinal()].taken(f.enqueuedAt);
+                return f.data;
+            }
+        }
+
+        Transfer t;
+        while ((t = bulk.poll()) != null) {
+            activeTransfers.offer(t);
+        }
+        if (buffered != null && ahead >= bulkWatermark) return null;
+        while ((t = activeTransfers.poll()) != null) {
+            if (t.next == 0 && expire(t.deadline, t.onExpired, Lane.BULK, t.chunks.length)) continue;
+            byte[] chunk = t.chunks[t.next++];
+            if (t.next < t.chunks.length) activeTransfers.offer(t);
+            laneStats[Lane.BULK.ordinal()].taken(t.enqueuedAt);
+            return chunk;
+        }
+        return null;
+    }
+
+    private boolean expire(long deadline, Runnable onExpired, Lane lane, int frames) {
+        if (deadline == 0 || System.nanoTime() - deadline < 0) return false;
+        laneStats[lane.ordinal()].dropped(frames);
+        expiredCount.addAndGet(frames);
+        if (onExpired != null) {
+            try {
+                onExpired.run();
+            } catch (RuntimeException e) {
+                logger.error("Error expiring outbound frame", e);
+            }
+        }
+        return true;
+    }
+
+    private void discardAll() {
+        int dropped = drop(control, Lane.CONTROL) + drop(interactive, Lane.INTERACTIVE);
+        slots.clear();
+        Transfer t;
+        while ((t = bulk.poll()) != null) {
+            activeTransfers.offer(t);
+        }
+        int chunks = 0;
+        while ((t = activeTransfers.poll()) != null) {
+            chunks += t.chunks.length - t.next;
+        }
+        laneStats[Lane.BULK.ordinal()].dropped(chunks);
+        droppedCount.addAndGet(dropped + chunks);
+    }
+
+    private int drop(Queue<Frame> queue, Lane lane) {
+        int n = 0;
+        while (queue.poll() != null) {
+            n++;
+        }
+        laneStats[lane.ordinal()].dropped(n);
+        return n;
+    }
+
+    private void flush(ByteArray batch) {
+        byte[] data = batch.woffset == batch.getLength() ? batch.getData() : batch.slice(0, batch.woffset);
+        try {
+            sink.write(data);
+            batchCount.incrementAndGet();
+            bytesWritten.addAndGet(data.length);
+        } catch (Exception e) {
+            logger.error("Error writing outbound batch", e);
+        }
+    }
+}
@@ -7,13 +7,18 @@ import com.google.protobuf.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.DataFormatException;
+
 /**
  * Package represents a communication packet.
  * Handles encoding, decoding, and chunking of messages.
  */
 public class Package<T> {
     private static final Logger logger = LoggerFactory.getLogger(Package.class);
-    private static final int MAX_CHUNK_SIZE = 65535 - 2048;
+    // Largest content of one package; leaves room for the header within a uint16 frame
+    public static final int MAX_CHUNK_SIZE = 65535 - 2048;
 
     private Object header;
     private T data;
@@ -73,30 +78,66 @@ public class Package<T> {
      * Encode the entire package.
      */
     public ByteArray encode(int encodingType) throws Exception {
+        return encode(encodingType, null);
+    }
+
+    /**
+     * Encode the entire package, deflating the content with the codec where its route has
+     * a dictionary (null encodes it as it is). The package itself is left uncompressed,
+     * so it can be encoded again.
+     */
+    public ByteArray encode(int encodingType, PayloadCodec codec) throws Exception {
         updateContentSize(encodingType);
 
+        Object wireHeader = header;
+        byte[] content = rawData != null ? rawData.getData() : null;
+        int contentSize = rawData != null ? rawData.getLength() : 0;
+        if (codec != null && content != null && header instanceof Header && carriesContent((Header) header)) {
+            PackageInfo info = ((Header) header).getPackageInfo();
+            byte[] packed = codec.compress(info.getRoute(), content, contentSize);
+            if (packed != null) {
+                content = packed;
+                contentSize = packed.length;
+                wireHeader = Header.newBuilder((Header) header).setPackageInfo(PackageInfo.newBuilder(info)
+                        .setContentSize(contentSize)
+                        .setDictionary(codec.getDictionaryId(info.getRoute()))).build();
+            }
+        }
+
         ByteArray headerBytes;
         
         // Encode header as Protobuf message
-        if (header instanceof Message) {
+        if (wireHeader instanceof Message) {
             IEncoder encoder = EncoderFactory.getEncoder(encodingType);
-            headerBytes = encoder.encode(header);
+            headerBytes = encoder.encode(wireHeader);
         } else {
             throw new IllegalArgumentException("Header must be a Protobuf Message");
         }
 
-        int contentSize = rawData != null ? rawData.getLength() : 0;
         ByteArray bytes = new ByteArray(2 + headerBytes.getLength() + contentSize);
 
         bytes.writeUint16(headerBytes.getLength());
         bytes.writeBytes(headerBytes);
-        if (rawData != null) {
-            bytes.writeBytes(rawData);
+        if (content != null) {
+            bytes.writeBytes(content);
         }
 
         return bytes;
     }
 
+    // Only application messages are compressed; the handshake and control packages never are
+    private static boolean carriesContent(Header header) {
+        switch (header.getPackageInfo().getType()) {
+            case Request:
+            case Response:
+            case Notify:
+            case Push:
+                return header.getPackageInfo().getDictionary() == 0;
+            default:
+                return false;
+        }
+    }
+
     /**
      * Decode raw data to specific type.
      */
@@ -114,25 +155,32 @@ public class Package<T> {
     /**
      * Split package into chunks if it exceeds max chunk size.
      */
-    @SuppressWarnings("unchecked")
     public Package<T>[] split(int encodingType) throws Exception {
+        return split(encodingType, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Split package into chunks of at most maxChunkSize bytes of content, for framing
+     * modes that carry more than MAX_CHUNK_SIZE per package.
+     */
+    @SuppressWarnings("unchecked")
+    public Package<T>[] split(int encodingType, int maxChunkSize) throws Exception {
         updateContentSize(encodingType);
 
         int contentSize = rawData != null ? rawData.getLength() : 0;
-        if (contentSize <= MAX_CHUNK_SIZE) {
-            return new Package[]{this};
+        if (contentSize <= maxChunkSize) {
+            return (Package<T>[]) new Package<?>[]{this};
         }
 
-        int chunkCount = (int) Math.ceil((double) contentSize / MAX_CHUNK_SIZE);
-        Package<T>[] result = new Package[chunkCount];
+        int chunkCount = (int) Math.ceil((double) contentSize / maxChunkSize);
+        Package<T>[] result = (Package<T>[]) new Package<?>[chunkCount];
 
-        for (int i = 0, start = 0; start < contentSize; i++, start += MAX_CHUNK_SIZE) {
-            int size = Math.min(MAX_CHUNK_SIZE, contentSize - start);
+        for (int i = 0, start = 0; start < contentSize; i++, start += maxChunkSize) {
+            int size = Math.min(maxChunkSize, contentSize - start);
             byte[] chunkData = new byte[size];
             System.arraycopy(rawData.getData(), start, chunkData, 0, size);
 
             // Create chunk package with updated header info
-            // Note: You need to clone and update the header with chunk info
             Package<T> chunk = new Package<>(cloneHeader(header, i, chunkCount, size), null, new ByteArray(chunkData));
             result[i] = chunk;
         }
@@ -143,15 +191,27 @@ public class Package<T> {
     /**
      * Join multiple chunk packages into one.
      */
-    @SuppressWarnings("unchecked")
     public static <T> Package<T> join(Package<T>[] packages) throws Exception {
         if (packages == null || packages.length == 0) {
             return null;
         }
+        return joinParts(Arrays.asList(packages));
+    }
+
+    /**
+     * Join chunk packages collected in order, whatever their content type.
+     */
+    public static Package<?> join(Collection<? extends Package<?>> packages) throws Exception {
+        if (packages == null || packages.isEmpty()) {
+            return null;
+        }
+        return joinParts(packages);
+    }
 
+    private static <T> Package<T> joinParts(Collection<? extends Package<?>> packages) {
         // Calculate total size
         int totalSize = 0;
-        for (Package<T> pkg : packages) {
+        for (Package<?> pkg : packages) {
             if (pkg.rawData != null) {
                 totalSize += pkg.rawData.getLength();
             }
@@ -159,22 +219,30 @@ public class Package<T> {
 
         // Merge raw data
         ByteArray mergedData = new ByteArray(totalSize);
-        for (int i = 0; i < packages.length; i++) {
-            if (packages[i].rawData != null) {
-                mergedData.writeBytes(packages[i].rawData);
+        Object header = null;
+        for (Package<?> pkg : packages) {
+            if (header == null) header = pkg.header;
+            if (pkg.rawData != null) {
+                mergedData.writeBytes(pkg.rawData);
             }
         }
 
-        // Create result package with header from first package
-        Package<T> result = new Package<>(packages[0].header, null, mergedData);
-        // Update chunk info in header if needed
-        return result;
+        // Header from the first package, describing the whole content
+        return new Package<>(cloneHeader(header, 0, 0, totalSize), null, mergedData);
     }
 
     /**
      * Try to decode raw bytes into a Package.
      */
     public static Package<?> tryDecodeRaw(ByteArray bytes, int encodingType) throws Exception {
+        return tryDecodeRaw(bytes, encodingType, null);
+    }
+
+    /**
+     * Try to decode raw bytes into a Package, inflating compressed content with the codec.
+     * The package returned always holds plain content.
+     */
+    public static Package<?> tryDecodeRaw(ByteArray bytes, int encodingType, PayloadCodec codec) throws Exception {
         if (!bytes.hasReadSize(2)) {
             return null;
         }
@@ -194,7 +262,17 @@ public class Package<T> {
             bytes.roffset -= (headerLength + 2);
             return null;
         }
-        byte[] dataBytes = bytes.readBytes(contentSize);
+        // Control packages (Pong, Kick, ...) carry no content
+        byte[] dataBytes = contentSize > 0 ? bytes.readBytes(contentSize) : new byte[0];
+
+        PackageInfo info = header.getPackageInfo();
+        if (info.getDictionary() != 0) {
+            if (codec == null) throw new DataFormatException("Compressed content but no payload codec");
+            dataBytes = codec.decompress(info.getRoute(), info.getDictionary(), dataBytes);
+            header = Header.newBuilder(header).setPackageInfo(PackageInfo.newBuilder(info)
+                    .setContentSize(dataBytes.length)
+                    .setDictionary(0)).build();
+        }
 
         return new Package<>(header, null, new ByteArray(dataBytes));
     }
@@ -238,14 +316,15 @@ public class Package<T> {
     }
 
     /**
-     * Helper method to clone header with chunk information.
-     * This is implementation-specific based on your Header protobuf definition.
+     * Copy a header with chunk information and the content size of the chunk.
      */
-    private static Object cloneHeader(Object header, int chunkIndex, int chunkCount, int contentSize) {
-        // This needs to be implemented based on your actual Header structure
-        // For now, just return the same header
-        // You should use reflection or provide a proper clone mechanism
-        return header;
+    public static Object cloneHeader(Object header, int chunkIndex, int chunkCount, int contentSize) {
+        if (!(header instanceof Header)) return header;
+        Header h = (Header) header;
+        return Header.newBuilder(h).setPackageInfo(PackageInfo.newBuilder(h.getPackageInfo())
+                .setChunkIndex(chunkIndex)
+                .setChunkCount(chunkCount)
+                .setContentSize(contentSize)).build();
     }
 
     @Override
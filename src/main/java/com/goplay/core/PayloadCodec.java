@@ -0,0 +1,255 @@
+package com.goplay.core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PayloadCodec deflates package content with per-route preset dictionaries. Small
+ * protobuf messages barely shrink under plain deflate, but with a dictionary trained on
+ * earlier traffic of the same route (see DictionaryTrainer) most of each message becomes
+ * back-references into it.
+ *
+ * A compressed package carries the dictionary's id in PackageInfo.Dictionary, so the
+ * receiver must have the same dictionary. Ids are derived from the dictionary's bytes,
+ * so both ends agree without coordination and a retrained dictionary gets a new id.
+ * Every dictionary added for a route stays decodable; the last one is used for sending.
+ * Content is only sent compressed when that makes it smaller.
+ *
+ * Dictionaries are keyed by route name; bindRoutes() maps them to the encoded routes of
+ * a handshake. Connections with route tables of their own use forRoutes().
+ */
+public class PayloadCodec {
+    // Inflated content larger than this is refused rather than allocated
+    private static final int MAX_INFLATED_SIZE = 1 << 20;
+
+    private final int level;
+    private final Map<String, Dictionary> sendDictionaries;
+    private final Map<String, Map<Integer, Dictionary>> routeDictionaries;
+    private volatile Map<Integer, String> routeNames = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+    // Statistics
+    private final AtomicLong compressedCount;
+    private final AtomicLong skippedCount;
+    private final AtomicLong rawBytes;
+    private final AtomicLong compressedBytes;
+
+    /**
+     * Compress at the highest level; payloads are small, so the extra effort is cheap.
+     */
+    public PayloadCodec() {
+        this(Deflater.BEST_COMPRESSION);
+    }
+
+    public PayloadCodec(int level) {
+        this.level = level;
+        this.sendDictionaries = new ConcurrentHashMap<>();
+        this.routeDictionaries = new ConcurrentHashMap<>();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        this.inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+        this.compressedCount = new AtomicLong();
+        this.skippedCount = new AtomicLong();
+        this.rawBytes = new AtomicLong();
+        this.compressedBytes = new AtomicLong();
+    }
+
+    // Shares everything but the route table
+    private PayloadCodec(PayloadCodec shared) {
+        this.level = shared.level;
+        this.sendDictionaries = shared.sendDictionaries;
+        this.routeDictionaries = shared.routeDictionaries;
+        this.deflaters = shared.deflaters;
+        this.inflaters = shared.inflaters;
+        this.compressedCount = shared.compressedCount;
+        this.skippedCount = shared.skippedCount;
+        this.rawBytes = shared.rawBytes;
+        this.compressedBytes = shared.compressedBytes;
+    }
+
+    /**
+     * Load every &lt;route&gt;.dict file in a directory, as written by DictionaryTrainer.
+     */
+    public static PayloadCodec load(Path dir) throws IOException {
+        PayloadCodec codec = new PayloadCodec();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + DictionaryTrainer.SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                codec.addDictionary(name.substring(0, name.length() - DictionaryTrainer.SUFFIX.length()),
+                        Files.readAllBytes(file));
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Add a dictionary for a route and use it for sending from now on.
+     */
+    public void addDictionary(String route, byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0) {
+            throw new IllegalArgumentException("dictionary must not be empty");
+        }
+        Dictionary dict = new Dictionary(dictionaryId(dictionary), dictionary.clone());
+        Map<Integer, Dictionary> byId = routeDictionaries.computeIfAbsent(route, r -> new ConcurrentHashMap<>());
+        Dictionary existing = byId.putIfAbsent(dict.id, dict);
+        if (existing != null && !Arrays.equals(existing.bytes, dict.bytes)) {
+            throw new IllegalArgumentException("dictionary id " + dict.id + " already used on route " + route);
+        }
+        sendDictionaries.put(route, dict);
+    }
+
+    /**
+     * Map encoded routes to names, from the handshake's route table.
+     */
+    public void bindRoutes(Map<String, Integer> routes) {
+        Map<Integer, String> names = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Integer> e : routes.entrySet()) {
+            names.put(e.getValue(), e.getKey());
+        }
+        routeNames = names;
+    }
+
+    /**
+     * A codec bound to another handshake's route table. It shares the dictionaries and
+     * statistics of this one, including dictionaries added later.
+     */
+    public PayloadCodec forRoutes(Map<String, Integer> routes) {
+        PayloadCodec bound = new PayloadCodec(this);
+        bound.bindRoutes(routes);
+        return bound;
+    }
+
+    /**
+     * The id content of the route is compressed with, or 0 if it has no dictionary.
+     */
+    public int getDictionaryId(int route) {
+        Dictionary dict = sendDictionary(route);
+        return dict != null ? dict.id : 0;
+    }
+
+    /**
+     * Deflate content of a route with its dictionary. Returns null if the route has no
+     * dictionary or the result would not be smaller.
+     */
+    public byte[] compress(int route, byte[] content, int length) {
+        Dictionary dict = sendDictionary(route);
+        if (dict == null || length == 0) return null;
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(dict.bytes);
+        deflater.setInput(content, 0, length);
+        deflater.finish();
+        // Anything that does not fit in one byte less than the input is not worth sending
+        byte[] out = new byte[length - 1];
+        int size = 0;
+        while (!deflater.finished() && size < out.length) {
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        rawBytes.addAndGet(length);
+        if (!deflater.finished()) {
+            skippedCount.incrementAndGet();
+            compressedBytes.addAndGet(length);
+            return null;
+        }
+        compressedCount.incrementAndGet();
+        compressedBytes.addAndGet(size);
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Inflate content a peer compressed with the given dictionary.
+     */
+    public byte[] decompress(int route, int dictionaryId, byte[] content) throws DataFormatException {
+        String name = routeNames.get(route);
+        Map<Integer, Dictionary> byId = name != null ? routeDictionaries.get(name) : null;
+        Dictionary dict = byId != null ? byId.get(dictionaryId) : null;
+        if (dict == null) {
+            throw new DataFormatException("No dictionary " + dictionaryId + " for route " + (name != null ? name : route));
+        }
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(dict.bytes);
+        inflater.setInput(content);
+        byte[] out = new byte[Math.max(64, content.length * 4)];
+        int size = 0;
+        while (!inflater.finished()) {
+            if (size == out.length) {
+                if (out.length >= MAX_INFLATED_SIZE) throw new DataFormatException("Inflated content too large");
+                out = Arrays.copyOf(out, Math.min(out.length * 2, MAX_INFLATED_SIZE));
+            }
+            int n = inflater.inflate(out, size, out.length - size);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed content");
+            }
+            size += n;
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Packages sent compressed.
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * Packages of routes with a dictionary sent as they were, since deflate did not help.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Content bytes of routes with a dictionary, before compression.
+     */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /**
+     * The same content as sent: compressed where that helped, as it was otherwise.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    private Dictionary sendDictionary(int route) {
+        String name = routeNames.get(route);
+        return name != null ? sendDictionaries.get(name) : null;
+    }
+
+    // A small positive id, so it takes at most two bytes in the header
+    static int dictionaryId(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        return (int) (adler.getValue() % 0x3fff) + 1;
+    }
+
+    private static class Dictionary {
+        final int id;
+        final byte[] bytes;
+
+        Dictionary(int id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+}
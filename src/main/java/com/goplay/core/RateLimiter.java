@@ -0,0 +1,147 @@
+package com.goplay.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RateLimiter bounds messages per second and bytes per second with two token buckets.
+ * When over the limit the policy decides: REJECT drops the message, DELAY holds it
+ * until its tokens are due (up to the max delay), CONFLATE keeps only the latest
+ * held message and sends it once tokens are due.
+ * Admitting a message takes one CAS per bucket and allocates nothing.
+ */
+public class RateLimiter {
+    public enum Policy {
+        REJECT,
+        DELAY,
+        CONFLATE
+    }
+
+    public static final long REJECTED = -1;
+
+    private static class Held {
+        final Runnable send;
+        final int size;
+
+        Held(Runnable send, int size) {
+            this.send = send;
+            this.size = size;
+        }
+    }
+
+    private final TokenBucket messages;
+    private final TokenBucket bytes;
+    private final Policy policy;
+    private final AtomicReference<Held> held = new AtomicReference<>();
+    private volatile long maxDelayNanos = TimeUnit.SECONDS.toNanos(3);
+
+    // Statistics
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong conflatedCount = new AtomicLong();
+
+    /**
+     * Limit with a burst of one second's worth of each rate. A rate of 0 leaves that
+     * dimension unbounded.
+     */
+    public RateLimiter(double messagesPerSecond, double bytesPerSecond, Policy policy) {
+        this(messagesPerSecond, (long) Math.ceil(messagesPerSecond),
+                bytesPerSecond, (long) Math.ceil(bytesPerSecond), policy);
+    }
+
+    public RateLimiter(double messagesPerSecond, long messageBurst,
+                       double bytesPerSecond, long byteBurst, Policy policy) {
+        this.messages = messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, messageBurst) : null;
+        this.bytes = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, byteBurst) : null;
+        this.policy = policy;
+    }
+
+    /**
+     * Longest a DELAY limiter may hold a message; beyond that it is rejected.
+     */
+    public void setMaxDelay(long maxDelayMs) {
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Take tokens for one message of size bytes. Returns 0 to go ahead now, REJECTED,
+     * or the nanoseconds to wait. Under CONFLATE a wait means no tokens were taken and
+     * the message should go through conflate(); messages that cannot be conflated are
+     * delayed instead.
+     */
+    public long acquire(int size, boolean conflatable) {
+        if (policy == Policy.DELAY || (policy == Policy.CONFLATE && !conflatable)) {
+            long wait = Math.max(messages != null ? messages.reserve(1) : 0, bytes != null ? bytes.reserve(size) : 0);
+            if (wait > maxDelayNanos) {
+                refund(size);
+                rejectedCount.incrementAndGet();
+                return REJECTED;
+            }
+            if (wait > 0) delayedCount.incrementAndGet();
+            else admittedCount.incrementAndGet();
+            return wait;
+        }
+
+        long wait = messages != null ? messages.tryAcquire(1) : 0;
+        if (wait == 0 && bytes != null) {
+            wait = bytes.tryAcquire(size);
+            if (wait > 0 && messages != null) messages.refund(1);
+        }
+        if (wait == 0) {
+            admittedCount.incrementAndGet();
+            return 0;
+        }
+        if (policy == Policy.REJECT) {
+            rejectedCount.incrementAndGet();
+            return REJECTED;
+        }
+        return wait;
+    }
+
+    /**
+     * Hold a message that is over the limit, replacing any held one. The latest held
+     * message is sent after waitNanos, taking its tokens then.
+     */
+    public void conflate(Runnable send, int size, long waitNanos, ScheduledExecutorService scheduler) {
+        if (held.getAndSet(new Held(send, size)) != null) {
+            conflatedCount.incrementAndGet();
+            return;
+        }
+        scheduler.schedule(() -> {
+            Held h = held.getAndSet(null);
+            if (h == null) return;
+            if (messages != null) messages.reserve(1);
+            if (bytes != null) bytes.reserve(h.size);
+            delayedCount.incrementAndGet();
+            h.send.run();
+        }, waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    private void refund(int size) {
+        if (messages != null) messages.refund(1);
+        if (bytes != null) bytes.refund(size);
+    }
+}
@@ -0,0 +1,60 @@
+package com.goplay.core;
+
+import java.util.Arrays;
+
+/**
+ * RequestKey identifies a request by route, result type and encoded payload.
+ * The hash is a cheap FNV-1a over the payload; equal hashes are confirmed by
+ * comparing the bytes, so a collision never matches a different request.
+ */
+public final class RequestKey {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final String route;
+    private final Class<?> type;
+    private final byte[] payload;
+    private final int hash;
+
+    public RequestKey(String route, Class<?> type, byte[] payload) {
+        this.route = route;
+        this.type = type;
+        this.payload = payload != null ? payload : EMPTY;
+        this.hash = 31 * (31 * route.hashCode() + type.hashCode()) + fnv1a(this.payload);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RequestKey)) return false;
+        RequestKey k = (RequestKey) o;
+        return hash == k.hash && type == k.type && route.equals(k.route) && Arrays.equals(payload, k.payload);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestKey[route=" + route + ", type=" + type.getSimpleName() + ", size=" + payload.length + "]";
+    }
+
+    // FNV-1a: cheap and well spread for short protobuf payloads
+    private static int fnv1a(byte[] data) {
+        int h = 0x811c9dc5;
+        for (byte b : data) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+}
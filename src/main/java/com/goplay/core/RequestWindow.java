@@ -0,0 +1,370 @@
+package com.goplay.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RequestWindow bounds the number of requests in flight, in total and per route.
+ * When the window is full the policy decides what happens to a new request:
+ * BLOCK parks the calling thread, QUEUE defers it until a slot frees up,
+ * FAIL_FAST rejects it immediately.
+ * Only callers that may be parked should block: a submit from an internal thread
+ * (a scheduler, a read loop, a completion callback) passes mayBlock=false and is
+ * queued instead, so it cannot hold up the thread that would free the slot.
+ * Waiting is bounded as well: a request is rejected when the queue already holds
+ * maxQueueLength requests, and when it waited maxWaitMs without getting a slot.
+ * Queued requests past their wait are rejected by the timer, if one is set, and
+ * otherwise on the next submit or release.
+ * A limit of 0 means unlimited, which is the default.
+ */
+public class RequestWindow {
+    private static final Logger logger = LoggerFactory.getLogger(RequestWindow.class);
+
+    public enum Policy {
+        BLOCK,
+        QUEUE,
+        FAIL_FAST
+    }
+
+    private static class Waiter {
+        final String route;
+        final Runnable onAdmit;
+        final Runnable onReject;
+        final long enqueuedAt = System.nanoTime();
+        final long deadline;
+
+        Waiter(String route, Runnable onAdmit, Runnable onReject, long maxWaitMs) {
+            this.route = route;
+            this.onAdmit = onAdmit;
+            this.onReject = onReject;
+            this.deadline = maxWaitMs > 0 ? enqueuedAt + TimeUnit.MILLISECONDS.toNanos(maxWaitMs) : Long.MAX_VALUE;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final Map<String, Integer> routeLimits = new HashMap<>();
+    private final Map<String, Integer> routeInFlight = new HashMap<>();
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private final AtomicInteger drainWip = new AtomicInteger();
+
+    private int maxInFlight = 0;
+    private Policy policy = Policy.QUEUE;
+    private long maxWaitMs = 0;
+    private int maxQueueLength = 0;
+    private ScheduledExecutorService timer;
+    private boolean expiryScheduled;
+    private int inFlight = 0;
+    private int blocked = 0;
+
+    // Statistics
+    private long admittedCount = 0;
+    private long rejectedCount = 0;
+    private long waitedCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+
+    public RequestWindow() {
+    }
+
+    public RequestWindow(int maxInFlight, Policy policy) {
+        configure(maxInFlight, policy, 0);
+    }
+
+    /**
+     * Set the total limit, the full-window policy and how long a request may wait for a
+     * slot, blocked or queued (0 = forever). The queue length is left unbounded.
+     */
+    public void configure(int maxInFlight, Policy policy, long maxWaitMs) {
+        configure(maxInFlight, policy, maxWaitMs, 0);
+    }
+
+    /**
+     * Same, and bound the number of queued requests (0 = unbounded).
+     */
+    public void configure(int maxInFlight, Policy policy, long maxWaitMs, int maxQueueLength) {
+        synchronized (lock) {
+            this.maxInFlight = Math.max(0, maxInFlight);
+            this.policy = policy;
+            this.maxWaitMs = Math.max(0, maxWaitMs);
+            this.maxQueueLength = Math.max(0, maxQueueLength);
+            lock.notifyAll();
+        }
+        drain();
+    }
+
+    /**
+     * Reject queued requests past their wait on the timer, without waiting for the next
+     * submit or release.
+     */
+    public void setTimer(ScheduledExecutorService timer) {
+        synchronized (lock) {
+            this.timer = timer;
+            scheduleExpiry();
+        }
+    }
+
+    public void setRouteLimit(String route, int limit) {
+        synchronized (lock) {
+            if (limit <= 0) {
+                routeLimits.remove(route);
+            } else {
+                routeLimits.put(route, limit);
+            }
+            lock.notifyAll();
+        }
+        drain();
+    }
+
+    /**
+     * Admit a request for the route. onAdmit runs once a slot is held, either on the
+     * calling thread or later on the thread that releases a slot; onReject runs when
+     * the request cannot be admitted under the current policy.
+     * Every admitted request must be paired with exactly one release().
+     */
+    public void submit(String route, Runnable onAdmit, Runnable onReject) {
+        submit(route, onAdmit, onReject, true);
+    }
+
+    /**
+     * Admit a request for the route. With mayBlock false the BLOCK policy queues the
+     * request instead of parking the calling thread.
+     */
+    public void submit(String route, Runnable onAdmit, Runnable onReject, boolean mayBlock) {
+        expire();
+        boolean admitted;
+        synchronized (lock) {
+            admitted = tryAcquire(route);
+            if (!admitted) {
+                switch (policy) {
+                    case QUEUE:
+                        if (enqueue(route, onAdmit, onReject)) return;
+                        break;
+                    case BLOCK:
+                        if (!mayBlock) {
+                            if (enqueue(route, onAdmit, onReject)) return;
+                            break;
+                        }
+                        admitted = await(route);
+                        break;
+                    case FAIL_FAST:
+                    default:
+                        break;
+                }
+            }
+            if (!admitted) rejectedCount++;
+        }
+
+        if (admitted) {
+            onAdmit.run();
+        } else {
+            onReject.run();
+        }
+    }
+
+    /**
+     * Give back the slot held by a completed request and admit queued ones.
+     */
+    public void release(String route) {
+        synchronized (lock) {
+            if (inFlight > 0) inFlight--;
+            Integer n = routeInFlight.get(route);
+            if (n != null) {
+                if (n <= 1) routeInFlight.remove(route);
+                else routeInFlight.put(route, n - 1);
+            }
+            lock.notifyAll();
+        }
+        drain();
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int getInFlight(String route) {
+        synchronized (lock) {
+            return routeInFlight.getOrDefault(route, 0);
+        }
+    }
+
+    /**
+     * Requests waiting for a slot, queued or blocked.
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queue.size() + blocked;
+        }
+    }
+
+    public long getAdmittedCount() {
+        synchronized (lock) {
+            return admittedCount;
+        }
+    }
+
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /**
+     * Average time spent waiting for a slot, over requests that had to wait.
+     */
+    public double getAverageWaitMs() {
+        synchronized (lock) {
+            return waitedCount == 0 ? 0 : totalWaitNanos / (double) waitedCount / 1_000_000.0;
+        }
+    }
+
+    public double getMaxWaitMs() {
+        synchronized (lock) {
+            return maxWaitNanos / 1_000_000.0;
+        }
+    }
+
+    // Must hold lock
+    private boolean hasCapacity(String route) {
+        if (maxInFlight > 0 && inFlight >= maxInFlight) return false;
+        Integer limit = routeLimits.get(route);
+        return limit == null || routeInFlight.getOrDefault(route, 0) < limit;
+    }
+
+    // Must hold lock
+    private boolean tryAcquire(String route) {
+        if (!hasCapacity(route)) return false;
+        inFlight++;
+        routeInFlight.merge(route, 1, Integer::sum);
+        admittedCount++;
+        return true;
+    }
+
+    // Must hold lock
+    private boolean await(String route) {
+        long start = System.nanoTime();
+        long deadline = maxWaitMs > 0 ? start + TimeUnit.MILLISECONDS.toNanos(maxWaitMs) : Long.MAX_VALUE;
+        blocked++;
+        try {
+            // Queued requests were first in line
+            while (!queue.isEmpty() || !tryAcquire(route)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                lock.wait(maxWaitMs > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)) : 0);
+            }
+            recordWait(start);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blocked--;
+        }
+    }
+
+    // Must hold lock; false when the queue is full
+    private boolean enqueue(String route, Runnable onAdmit, Runnable onReject) {
+        if (maxQueueLength > 0 && queue.size() >= maxQueueLength) return false;
+        queue.offer(new Waiter(route, onAdmit, onReject, maxWaitMs));
+        scheduleExpiry();
+        return true;
+    }
+
+    // Must hold lock. Queued in order, so the head has the earliest deadline
+    private void scheduleExpiry() {
+        Waiter head = queue.peek();
+        if (timer == null || expiryScheduled || head == null || head.deadline == Long.MAX_VALUE) return;
+        expiryScheduled = true;
+        long delay = Math.max(0, head.deadline - System.nanoTime());
+        timer.schedule(() -> {
+            synchronized (lock) {
+                expiryScheduled = false;
+            }
+            expire();
+            synchronized (lock) {
+                scheduleExpiry();
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reject queued requests that waited past their deadline, outside the lock.
+     */
+    private void expire() {
+        List<Waiter> expired = null;
+        synchronized (lock) {
+            if (queue.isEmpty()) return;
+            long now = System.nanoTime();
+            Iterator<Waiter> it = queue.iterator();
+            while (it.hasNext()) {
+                Waiter w = it.next();
+                // Queued in order with the same wait, so deadlines grow along the queue
+                if (w.deadline == Long.MAX_VALUE || w.deadline - now > 0) break;
+                it.remove();
+                rejectedCount++;
+                if (expired == null) expired = new ArrayList<>();
+                expired.add(w);
+            }
+        }
+        if (expired == null) return;
+        for (Waiter w : expired) {
+            try {
+                w.onReject.run();
+            } catch (RuntimeException e) {
+                logger.error("Error rejecting queued request for route: {}", w.route, e);
+            }
+        }
+    }
+
+    // Must hold lock
+    private void recordWait(long start) {
+        long waited = System.nanoTime() - start;
+        waitedCount++;
+        totalWaitNanos += waited;
+        if (waited > maxWaitNanos) maxWaitNanos = waited;
+    }
+
+    private Waiter pollAdmissible() {
+        synchronized (lock) {
+            Iterator<Waiter> it = queue.iterator();
+            while (it.hasNext()) {
+                if (maxInFlight > 0 && inFlight >= maxInFlight) return null;
+                Waiter w = it.next();
+                if (tryAcquire(w.route)) {
+                    it.remove();
+                    recordWait(w.enqueuedAt);
+                    return w;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Admit queued requests outside the lock. Re-entrant calls (a release from inside
+     * onAdmit) and concurrent callers hand their work to the thread already draining.
+     */
+    private void drain() {
+        expire();
+        if (drainWip.getAndIncrement() != 0) return;
+        int missed = 1;
+        while (true) {
+            Waiter w;
+            while ((w = pollAdmissible()) != null) {
+                try {
+                    w.onAdmit.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error admitting queued request for route: {}", w.route, e);
+                }
+            }
+            missed = drainWip.addAndGet(-missed);
+            if (missed == 0) break;
+        }
+    }
+}
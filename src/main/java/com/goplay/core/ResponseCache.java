@@ -0,0 +1,260 @@
+package com.goplay.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResponseCache keeps responses of routes that have a TTL configured.
+ * Eviction is segmented LRU: new entries enter a probation segment and move to the
+ * protected segment on their second hit, so one-off lookups cannot flush hot entries.
+ * An expired entry is still served for its stale window while one caller refreshes it.
+ */
+public class ResponseCache<V> {
+    // Share of the capacity reserved for entries hit at least twice
+    private static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * A cache hit. When stale is set the value is past its TTL but inside its stale window.
+     */
+    public static final class Lookup<V> {
+        public final V value;
+        public final boolean stale;
+
+        Lookup(V value, boolean stale) {
+            this.value = value;
+            this.stale = stale;
+        }
+    }
+
+    private static class RouteConfig {
+        final long ttlNanos;
+        final long staleNanos;
+
+        RouteConfig(long ttlMs, long staleMs) {
+            this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+            this.staleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, staleMs));
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+        final long staleUntil;
+        boolean refreshing;
+
+        Entry(V value, long expiresAt, long staleUntil) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<RequestKey, Entry<V>> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<RequestKey, Entry<V>> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, RouteConfig> routes = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> invalidators = new ConcurrentHashMap<>();
+
+    private int maxEntries;
+
+    // Statistics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Cache responses of the route for ttlMs, then serve them stale for up to staleMs
+     * while a refresh is in flight. A ttlMs of 0 stops caching the route.
+     */
+    public void setTtl(String route, long ttlMs, long staleMs) {
+        if (ttlMs <= 0) {
+            routes.remove(route);
+            invalidate(route);
+        } else {
+            routes.put(route, new RouteConfig(ttlMs, staleMs));
+        }
+    }
+
+    public boolean isCached(String route) {
+        return routes.containsKey(route);
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        synchronized (lock) {
+            this.maxEntries = Math.max(1, maxEntries);
+            evictOverflow();
+        }
+    }
+
+    /**
+     * Drop the cached responses of the given routes whenever a push arrives on pushRoute.
+     */
+    public void invalidateOn(String pushRoute, String... cachedRoutes) {
+        invalidators.computeIfAbsent(pushRoute, k -> ConcurrentHashMap.newKeySet())
+                .addAll(Arrays.asList(cachedRoutes));
+    }
+
+    /**
+     * Apply the invalidation hooks registered for a push route.
+     */
+    public void onPush(String pushRoute) {
+        Set<String> targets = invalidators.get(pushRoute);
+        if (targets == null) return;
+        for (String route : targets) {
+            invalidate(route);
+        }
+    }
+
+    /**
+     * Look up a response. Returns null on a miss; expired entries past their stale
+     * window are dropped.
+     */
+    public Lookup<V> get(RequestKey key) {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            Entry<V> e = probation.remove(key);
+            if (e != null) {
+                // Second hit: promote, demoting the coldest protected entry if needed
+                protectedSegment.put(key, e);
+                int protectedMax = Math.max(1, (int) (maxEntries * PROTECTED_RATIO));
+                while (protectedSegment.size() > protectedMax) {
+                    Map.Entry<RequestKey, Entry<V>> eldest = protectedSegment.entrySet().iterator().next();
+                    protectedSegment.remove(eldest.getKey());
+                    probation.put(eldest.getKey(), eldest.getValue());
+                }
+            } else {
+                e = protectedSegment.get(key);
+            }
+
+            if (e == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            if (now - e.expiresAt < 0) {
+                hitCount.incrementAndGet();
+                return new Lookup<>(e.value, false);
+            }
+            if (now - e.staleUntil < 0) {
+                staleHitCount.incrementAndGet();
+                return new Lookup<>(e.value, true);
+            }
+            remove(key);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Claim the refresh of a stale entry. Only the first caller gets true.
+     */
+    public boolean beginRefresh(RequestKey key) {
+        synchronized (lock) {
+            Entry<V> e = find(key);
+            if (e == null || e.refreshing) return false;
+            e.refreshing = true;
+            return true;
+        }
+    }
+
+    /**
+     * Give up a refresh that did not produce a new value, so a later hit can retry.
+     */
+    public void endRefresh(RequestKey key) {
+        synchronized (lock) {
+            Entry<V> e = find(key);
+            if (e != null) e.refreshing = false;
+        }
+    }
+
+    public void put(RequestKey key, V value) {
+        RouteConfig config = routes.get(key.getRoute());
+        if (config == null) return;
+
+        long now = System.nanoTime();
+        Entry<V> e = new Entry<>(value, now + config.ttlNanos, now + config.ttlNanos + config.staleNanos);
+        synchronized (lock) {
+            if (protectedSegment.containsKey(key)) {
+                protectedSegment.put(key, e);
+                return;
+            }
+            probation.put(key, e);
+            evictOverflow();
+        }
+    }
+
+    public void invalidate(String route) {
+        synchronized (lock) {
+            probation.keySet().removeIf(k -> k.getRoute().equals(route));
+            protectedSegment.keySet().removeIf(k -> k.getRoute().equals(route));
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            probation.clear();
+            protectedSegment.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return probation.size() + protectedSegment.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Fresh and stale hits over all lookups.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get() + staleHitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    // Must hold lock
+    private Entry<V> find(RequestKey key) {
+        Entry<V> e = probation.get(key);
+        return e != null ? e : protectedSegment.get(key);
+    }
+
+    // Must hold lock
+    private void remove(RequestKey key) {
+        if (probation.remove(key) == null) {
+            protectedSegment.remove(key);
+        }
+    }
+
+    // Must hold lock
+    private void evictOverflow() {
+        while (probation.size() + protectedSegment.size() > maxEntries) {
+            LinkedHashMap<RequestKey, Entry<V>> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<RequestKey> it = victims.keySet().iterator();
+            it.next();
+            it.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.goplay.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryBudget caps extra attempts (retries and hedges) to a fraction of original calls.
+ * Every call deposits ratio of a token and every extra attempt withdraws a whole one,
+ * so during an outage extra load stays at ratio of the call rate instead of doubling it.
+ * The balance starts at maxBalance, which is also the largest burst of extra attempts.
+ */
+public class RetryBudget {
+    // Balance is kept in thousandths of a token, so deposits stay integral
+    private static final long UNIT = 1000;
+
+    private final AtomicLong balance;
+    private final long deposit;
+    private final long maxBalance;
+
+    // Statistics
+    private final AtomicLong withdrawnCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    /**
+     * Allow extra attempts for 10% of calls, with a burst of 10.
+     */
+    public RetryBudget() {
+        this(0.1, 10);
+    }
+
+    public RetryBudget(double ratio, int maxBalance) {
+        if (ratio < 0) throw new IllegalArgumentException("ratio must not be negative");
+        this.deposit = (long) (ratio * UNIT);
+        this.maxBalance = Math.max(1, maxBalance) * UNIT;
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    /**
+     * Credit one original call.
+     */
+    public void deposit() {
+        while (true) {
+            long cur = balance.get();
+            if (cur >= maxBalance) return;
+            if (balance.compareAndSet(cur, Math.min(maxBalance, cur + deposit))) return;
+        }
+    }
+
+    /**
+     * Take one token for an extra attempt; false if the budget is spent.
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long cur = balance.get();
+            if (cur < UNIT) {
+                exhaustedCount.incrementAndGet();
+                return false;
+            }
+            if (balance.compareAndSet(cur, cur - UNIT)) {
+                withdrawnCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Whole tokens currently available.
+     */
+    public long getBalance() {
+        return balance.get() / UNIT;
+    }
+
+    public long getWithdrawnCount() {
+        return withdrawnCount.get();
+    }
+
+    /**
+     * Extra attempts that were skipped because the budget was spent.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
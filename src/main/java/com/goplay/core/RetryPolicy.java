@@ -0,0 +1,90 @@
+package com.goplay.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryPolicy describes how an idempotent route may be re-sent.
+ * Hedging sends a duplicate when no answer has arrived by the route's hedgeQuantile
+ * latency, once the route has minSamples samples, and keeps the first answer.
+ * Retrying re-sends up to maxRetries times after a Timeout status.
+ * Both kinds of extra attempt draw on the same RetryBudget.
+ */
+public class RetryPolicy {
+    private final int maxRetries;
+    private final double hedgeQuantile;
+    private final long minSamples;
+    private final RetryBudget budget;
+
+    // Statistics
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+
+    /**
+     * Hedge at p95 after 100 samples, retry a timeout once, within a default budget.
+     */
+    public RetryPolicy() {
+        this(1, 0.95, 100, new RetryBudget());
+    }
+
+    /**
+     * A hedgeQuantile of 0 disables hedging, a maxRetries of 0 disables retries.
+     */
+    public RetryPolicy(int maxRetries, double hedgeQuantile, long minSamples, RetryBudget budget) {
+        if (hedgeQuantile < 0 || hedgeQuantile >= 1) {
+            throw new IllegalArgumentException("hedgeQuantile must be in [0, 1)");
+        }
+        if (budget == null) throw new IllegalArgumentException("budget must not be null");
+        this.maxRetries = Math.max(0, maxRetries);
+        this.hedgeQuantile = hedgeQuantile;
+        this.minSamples = minSamples;
+        this.budget = budget;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * How long to wait for an answer before hedging, or -1 to not hedge.
+     */
+    public long hedgeDelayMs(LatencyTracker tracker) {
+        if (hedgeQuantile == 0 || tracker == null || tracker.getCount() < minSamples) return -1;
+        double q = tracker.getQuantileMs(hedgeQuantile);
+        return q < 0 ? -1 : (long) Math.ceil(q);
+    }
+
+    public void onHedged() {
+        hedgedCount.incrementAndGet();
+    }
+
+    public void onHedgeWon() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    public void onRetried() {
+        retriedCount.incrementAndGet();
+    }
+
+    /**
+     * Duplicates sent because the first attempt was slow.
+     */
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * Calls answered by the hedge rather than the attempt it duplicated.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+}
@@ -0,0 +1,130 @@
+package com.goplay.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight coalesces identical calls that are in flight at the same time.
+ * A call whose key matches one already in flight joins that call instead of
+ * starting a new one. Every caller gets a future of its own: completing or
+ * cancelling it affects no other caller, and the call itself is cancelled only
+ * once every caller has given up on it.
+ */
+public class SingleFlight<V> {
+    private final Map<RequestKey, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Run the call, or join an identical one already in flight.
+     */
+    public CompletableFuture<V> execute(RequestKey key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing != null) {
+                CompletableFuture<V> joined = existing.join();
+                if (joined == null) {
+                    // Settled or abandoned just now; start afresh
+                    inFlight.remove(key, existing);
+                    continue;
+                }
+                coalescedCount.incrementAndGet();
+                return joined;
+            }
+
+            startedCount.incrementAndGet();
+            CompletableFuture<V> mine = flight.join();
+            CompletableFuture<V> result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                inFlight.remove(key, flight);
+                flight.settle(null, e);
+                return mine;
+            }
+            flight.start(result);
+            result.whenComplete((v, e) -> {
+                // Leave the map before waking joiners, so later calls start fresh
+                inFlight.remove(key, flight);
+                flight.settle(v, e);
+            });
+            return mine;
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    // One call in flight and the futures of the callers still waiting on it
+    private final class Flight {
+        private final RequestKey key;
+        private final List<CompletableFuture<V>> callers = new ArrayList<>();
+        private CompletableFuture<V> result;
+        private boolean done;
+
+        Flight(RequestKey key) {
+            this.key = key;
+        }
+
+        /**
+         * A future for one more caller, or null once the call is settled or abandoned.
+         */
+        CompletableFuture<V> join() {
+            CompletableFuture<V> caller = new CompletableFuture<>();
+            synchronized (this) {
+                if (done) return null;
+                callers.add(caller);
+            }
+            // Completed by anyone but settle(): that caller is no longer waiting
+            caller.whenComplete((v, e) -> leave(caller));
+            return caller;
+        }
+
+        synchronized void start(CompletableFuture<V> result) {
+            this.result = result;
+        }
+
+        void settle(V value, Throwable error) {
+            List<CompletableFuture<V>> waiting;
+            synchronized (this) {
+                done = true;
+                waiting = new ArrayList<>(callers);
+                callers.clear();
+            }
+            for (CompletableFuture<V> caller : waiting) {
+                if (error != null) {
+                    caller.completeExceptionally(error);
+                } else {
+                    caller.complete(value);
+                }
+            }
+        }
+
+        private void leave(CompletableFuture<V> caller) {
+            CompletableFuture<V> abandoned;
+            synchronized (this) {
+                if (done || !callers.remove(caller) || !callers.isEmpty()) return;
+                done = true;
+                abandoned = result;
+            }
+            inFlight.remove(key, this);
+            // Nobody waits for the answer; let the call give up what it holds
+            if (abandoned != null) abandoned.cancel(false);
+        }
+    }
+}
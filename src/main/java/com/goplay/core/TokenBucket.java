@@ -0,0 +1,58 @@
+package com.goplay.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket is a lock-free token bucket in its GCRA form: instead of a token count it
+ * keeps the theoretical arrival time (TAT) of the next token, so taking tokens is a
+ * single compare-and-set on one long and never allocates.
+ * The bucket starts full; a cost larger than the burst can only go through reserve().
+ */
+public class TokenBucket {
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+    public TokenBucket(double tokensPerSecond, long burst) {
+        if (tokensPerSecond <= 0) throw new IllegalArgumentException("tokensPerSecond must be positive");
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000L / tokensPerSecond));
+        this.burstNanos = Math.max(1, burst) * nanosPerToken;
+    }
+
+    /**
+     * Take cost tokens if available. Returns 0 on success, otherwise the nanoseconds
+     * until they would be available; nothing is taken in that case.
+     */
+    public long tryAcquire(long cost) {
+        long increment = cost * nanosPerToken;
+        while (true) {
+            long now = System.nanoTime();
+            long cur = tat.get();
+            long next = Math.max(cur, now) + increment;
+            long excess = next - now - burstNanos;
+            if (excess > 0) return excess;
+            if (tat.compareAndSet(cur, next)) return 0;
+        }
+    }
+
+    /**
+     * Take cost tokens unconditionally, going into debt if needed. Returns the
+     * nanoseconds the caller should wait before acting on them (0 = now).
+     */
+    public long reserve(long cost) {
+        long increment = cost * nanosPerToken;
+        while (true) {
+            long now = System.nanoTime();
+            long cur = tat.get();
+            long next = Math.max(cur, now) + increment;
+            if (tat.compareAndSet(cur, next)) return Math.max(0, next - now - burstNanos);
+        }
+    }
+
+    /**
+     * Give back tokens taken for an operation that did not go ahead.
+     */
+    public void refund(long cost) {
+        tat.addAndGet(-cost * nanosPerToken);
+    }
+}
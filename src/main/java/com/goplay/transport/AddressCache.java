@@ -0,0 +1,101 @@
+package com.goplay.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AddressCache keeps resolved server addresses, so reconnects skip DNS. An entry lives
+ * for ttlMs, or until a connection to it fails; the next connect then resolves again,
+ * in case the server moved.
+ */
+public class AddressCache {
+    private static final AddressCache SHARED = new AddressCache(5 * 60_000);
+
+    private final long ttlMs;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Statistics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * The cache shared by transports that are not given one, with a ttl of five minutes.
+     */
+    public static AddressCache shared() {
+        return SHARED;
+    }
+
+    public AddressCache(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * The cached address of host, or null if it has to be resolved.
+     */
+    public InetAddress lookup(String host) {
+        Entry entry = entries.get(host);
+        if (entry != null && System.currentTimeMillis() - entry.resolvedAt < ttlMs) {
+            hitCount.incrementAndGet();
+            return entry.address;
+        }
+        return null;
+    }
+
+    /**
+     * The address of host, from the cache or resolved on the calling thread.
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        InetAddress address = lookup(host);
+        if (address != null) return address;
+        missCount.incrementAndGet();
+        address = InetAddress.getByName(host);
+        entries.put(host, new Entry(address, System.currentTimeMillis()));
+        return address;
+    }
+
+    /**
+     * The address of host; completed right away on a hit, resolved on the common pool
+     * otherwise, so a caller on an event loop never waits for DNS.
+     */
+    public CompletableFuture<InetAddress> resolveAsync(String host) {
+        InetAddress address = lookup(host);
+        if (address != null) return CompletableFuture.completedFuture(address);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return resolve(host);
+            } catch (UnknownHostException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Forget host, e.g. after a failed connect to its cached address.
+     */
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static class Entry {
+        final InetAddress address;
+        final long resolvedAt;
+
+        Entry(InetAddress address, long resolvedAt) {
+            this.address = address;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.goplay.transport;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BusyPoll makes a TcpEventLoopGroup poll its sockets without ever blocking in the
+ * selector, trading a core per loop for lower latency. When a poll finds nothing to do
+ * the loop backs off along a ladder: spin with Thread.onSpinWait(), then yield, then
+ * park for a period that doubles from minParkNanos up to maxParkNanos. Any work resets
+ * the ladder to spinning.
+ */
+public final class BusyPoll {
+    private final long spins;
+    private final long yields;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    /**
+     * Spin 10000 times, yield 100 times, then park from 1 us up to 100 us.
+     */
+    public BusyPoll() {
+        this(10_000, 100, 1_000, 100_000);
+    }
+
+    public BusyPoll(long spins, long yields, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos <= 0 || maxParkNanos < minParkNanos) {
+            throw new IllegalArgumentException("need 0 < minParkNanos <= maxParkNanos");
+        }
+        this.spins = Math.max(0, spins);
+        this.yields = Math.max(0, yields);
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    Backoff newBackoff() {
+        return new Backoff();
+    }
+
+    /**
+     * Position on the ladder; owned by one loop thread.
+     */
+    final class Backoff {
+        private long spun;
+        private long yielded;
+        private long parkNanos = minParkNanos;
+
+        /**
+         * Whether the next idle() parks, so wakers must unpark the thread.
+         */
+        boolean willPark() {
+            return spun >= spins && yielded >= yields;
+        }
+
+        void idle() {
+            if (spun < spins) {
+                spun++;
+                Thread.onSpinWait();
+            } else if (yielded < yields) {
+                yielded++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+
+        void reset() {
+            spun = 0;
+            yielded = 0;
+            parkNanos = minParkNanos;
+        }
+    }
+}
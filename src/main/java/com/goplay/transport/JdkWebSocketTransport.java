@@ -0,0 +1,220 @@
+package com.goplay.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JdkWebSocketTransport carries frames in binary WebSocket messages using the JDK's
+ * java.net.http client. Connections made by one Factory share its HttpClient, whose
+ * selector thread and executor serve all of them; no connection has a thread of its own.
+ *
+ * Receive flow control: at most window messages are requested from the socket ahead of
+ * processing, topped up as they are handled, so a slow consumer pushes back on TCP.
+ */
+public class JdkWebSocketTransport implements Transport {
+    private static final Logger logger = LoggerFactory.getLogger(JdkWebSocketTransport.class);
+
+    // How long to wait for the server to answer our close before dropping the connection
+    private static final long CLOSE_TIMEOUT_MS = 3000;
+
+    /**
+     * Creates transports that share one HttpClient and executor.
+     */
+    public static class Factory implements TransportFactory {
+        private final HttpClient client;
+        private final int window;
+
+        /**
+         * One daemon thread per processor, a window of 16 messages.
+         */
+        public Factory() {
+            this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "GoPlay-http");
+                t.setDaemon(true);
+                return t;
+            }), 16);
+        }
+
+        public Factory(Executor executor, int window) {
+            this(executor, window, null);
+        }
+
+        /**
+         * wss:// connections of the factory resume sessions from the context's cache
+         * (null for the JVM's default SSLContext, which caches them as well). Addresses
+         * are resolved by the HttpClient, so only the JVM's own DNS cache applies.
+         */
+        public Factory(Executor executor, int window, TlsContext tls) {
+            HttpClient.Builder builder = HttpClient.newBuilder().executor(executor);
+            if (tls != null) builder.sslContext(tls.getSslContext());
+            this.client = builder.build();
+            this.window = Math.max(1, window);
+        }
+
+        @Override
+        public Transport create(URI uri, Transport.Listener listener) {
+            return new JdkWebSocketTransport(client, uri, listener, window);
+        }
+    }
+
+    private final HttpClient client;
+    private final URI uri;
+    private final Transport.Listener listener;
+    private final int window;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+    // Bytes passed to sendBinary whose send has not completed yet
+    private final AtomicLong buffered = new AtomicLong();
+    private volatile WebSocket socket;
+    private volatile boolean closeRequested;
+    // Sends must not overlap, so each one starts when the previous has completed
+    private CompletableFuture<WebSocket> lastSend;
+    // Messages handled since the window was last topped up; only touched by callbacks
+    private int handled;
+
+    JdkWebSocketTransport(HttpClient client, URI uri, Transport.Listener listener, int window) {
+        this.client = client;
+        this.uri = uri;
+        this.listener = listener;
+        this.window = window;
+    }
+
+    @Override
+    public void connect() {
+        client.newWebSocketBuilder()
+                .buildAsync(uri, new Receiver())
+                .whenComplete((ws, e) -> {
+                    if (e != null) fail(e);
+                });
+    }
+
+    @Override
+    public void send(byte[] data) throws Exception {
+        WebSocket ws = socket;
+        if (ws == null || !isOpen()) throw new IllegalStateException("Transport is not open");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buffered.addAndGet(data.length);
+        synchronized (this) {
+            lastSend = lastSend == null
+                    ? ws.sendBinary(buf, true)
+                    : lastSend.thenCompose(w -> w.sendBinary(buf, true));
+            lastSend.whenComplete((w, e) -> {
+                long left = buffered.addAndGet(-data.length);
+                if (e == null) {
+                    if (left == 0) listener.onDrained();
+                } else if (!closeRequested) {
+                    // Every later send is chained to this one and would fail the same way
+                    fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        WebSocket ws = socket;
+        if (ws == null) {
+            fail(new IllegalStateException("closed before connected"));
+            return;
+        }
+        closeRequested = true;
+        CompletableFuture<WebSocket> closing;
+        synchronized (this) {
+            closing = lastSend == null
+                    ? ws.sendClose(WebSocket.NORMAL_CLOSURE, "")
+                    : lastSend.handle((w, e) -> ws).thenCompose(w -> w.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+            lastSend = closing;
+        }
+        // Drop the connection if the server never answers the close
+        closing.whenCompleteAsync((w, e) -> {
+            if (!closed.get()) ws.abort();
+            closed(1006, "close timed out", false);
+        }, CompletableFuture.delayedExecutor(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public boolean isOpen() {
+        WebSocket ws = socket;
+        return ws != null && !closed.get() && !ws.isOutputClosed();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return buffered.get();
+    }
+
+    private void fail(Throwable e) {
+        if (closed.get()) return;
+        WebSocket ws = socket;
+        if (ws != null) ws.abort();
+        listener.onError(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+        closed(1006, String.valueOf(e.getMessage()), false);
+    }
+
+    private void closed(int code, String reason, boolean remote) {
+        if (closed.compareAndSet(false, true)) {
+            listener.onClose(code, reason, remote);
+        }
+    }
+
+    // Mark one message handled and top the window up once half of it is used
+    private void handled(WebSocket ws) {
+        if (++handled >= (window + 1) / 2) {
+            ws.request(handled);
+            handled = 0;
+        }
+    }
+
+    private class Receiver implements WebSocket.Listener {
+        @Override
+        public void onOpen(WebSocket ws) {
+            if (closed.get()) {
+                // Closed while connecting
+                ws.abort();
+                return;
+            }
+            socket = ws;
+            ws.request(window);
+            listener.onOpen();
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket ws, ByteBuffer data, boolean last) {
+            // Message fragments are delivered as they come; frames carry their own lengths
+            listener.onMessage(data);
+            handled(ws);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket ws, CharSequence data, boolean last) {
+            logger.warn("Received text message (binary expected): {}", data);
+            handled(ws);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket ws, int statusCode, String reason) {
+            closed(statusCode, reason, !closeRequested);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket ws, Throwable error) {
+            fail(error);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.goplay.transport;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LinkEmulator wraps the transports of another factory in an emulated network link, to
+ * reproduce mobile-like conditions on loopback without tc or netem, e.g.
+ *
+ *   LinkEmulator link = new LinkEmulator(TcpEventLoopGroup.shared(), 42);
+ *   link.setLatency(40, 15);
+ *   link.setBandwidth(256 * 1024);
+ *   GoPlay.setTransportFactory(link);
+ *
+ * Each direction of a connection is its own link. A unit of data - one send(), or one
+ * received message - is delayed by the latency plus an exponentially distributed jitter
+ * with the given mean, which gives the long tail of real networks, and by its transfer
+ * time at the bandwidth. Units leave a link in order, except those picked for
+ * reordering, which are held back for an extra delay while later units overtake them.
+ * Sends are whole frames, so that is reordering at frame boundaries. Received data is
+ * only reordered for message-oriented transports; a TcpTransport delivers arbitrary
+ * stretches of the byte stream, so its received data stays in order.
+ * With disconnects configured, each connection drops after an exponentially distributed
+ * uptime, losing whatever is still in flight, and reports an abnormal remote close.
+ *
+ * Every random choice comes from a generator seeded per connection from the seed and the
+ * order connections were created in, so a run replays the same sequence of delays,
+ * reorderings and uptimes. Settings apply to connections created afterwards. All
+ * emulated links share one timer thread, which also runs their listener callbacks.
+ */
+public class LinkEmulator implements TransportFactory {
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "GoPlay-link-emulator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final TransportFactory inner;
+    private final Random seeds;
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile long bytesPerSecond;
+    private volatile double reorderProbability;
+    private volatile long reorderDelayMs;
+    private volatile long meanUptimeMs;
+
+    // Statistics
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong reorderedCount = new AtomicLong();
+    private final AtomicLong disconnectCount = new AtomicLong();
+
+    public LinkEmulator(TransportFactory inner, long seed) {
+        this.inner = inner;
+        this.seeds = new Random(seed);
+    }
+
+    /**
+     * One-way delay of each unit: latencyMs plus a random extra averaging jitterMs.
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    /**
+     * Capacity of each direction (0 = unlimited).
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Hold back the given share of units for an extra delayMs, letting later ones pass.
+     */
+    public void setReorder(double probability, long delayMs) {
+        this.reorderProbability = probability;
+        this.reorderDelayMs = delayMs;
+    }
+
+    /**
+     * Drop connections after an uptime averaging meanUptimeMs (0 = never).
+     */
+    public void setDisconnect(long meanUptimeMs) {
+        this.meanUptimeMs = meanUptimeMs;
+    }
+
+    @Override
+    public Transport create(URI uri, Transport.Listener listener) {
+        long seed;
+        synchronized (seeds) {
+            seed = seeds.nextLong();
+        }
+        return new EmulatedTransport(uri, listener, new Random(seed));
+    }
+
+    /**
+     * Units that went through an emulated link.
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    public long getReorderedCount() {
+        return reorderedCount.get();
+    }
+
+    /**
+     * Connections dropped by the emulator.
+     */
+    public long getDisconnectCount() {
+        return disconnectCount.get();
+    }
+
+    // One direction of a connection, used under the lock of its transport
+    private class Link {
+        // When the last in-order unit leaves, and when the link is free to transfer the next one
+        private long lastDue;
+        private long freeAt;
+
+        /**
+         * Delay in nanoseconds from now until a unit of size bytes leaves the link. The
+         * reorder draw is made even for units that may not be reordered, so the sequence
+         * of random choices does not depend on the transport.
+         */
+        long schedule(Random random, int size, boolean reorderable) {
+            long now = System.nanoTime();
+            long transfer = bytesPerSecond > 0 ? size * 1_000_000_000L / bytesPerSecond : 0;
+            freeAt = Math.max(freeAt, now) + transfer;
+            long jitter = jitterMs > 0 ? (long) (-Math.log(1 - random.nextDouble()) * jitterMs * 1_000_000) : 0;
+            long due = Math.max(freeAt + TimeUnit.MILLISECONDS.toNanos(latencyMs) + jitter, lastDue);
+            boolean reorder = reorderProbability > 0 && random.nextDouble() < reorderProbability;
+            if (reorder && reorderable) {
+                reorderedCount.incrementAndGet();
+                due += TimeUnit.MILLISECONDS.toNanos(reorderDelayMs);
+            } else {
+                lastDue = due;
+            }
+            delayedCount.incrementAndGet();
+            return due - now;
+        }
+
+        /**
+         * Delay until every in-order unit has left.
+         */
+        long drainDelay() {
+            return Math.max(0, lastDue - System.nanoTime());
+        }
+    }
+
+    private class EmulatedTransport implements Transport, Transport.Listener {
+        private final Transport.Listener listener;
+        private final Random random;
+        private final Transport transport;
+        private final Link up = new Link();
+        private final Link down = new Link();
+        private final AtomicLong inFlight = new AtomicLong();
+        // Bumped by an emulated disconnect; units scheduled before it are dropped
+        private volatile int generation;
+        private volatile boolean open;
+        private volatile boolean closed;
+        private ScheduledFuture<?> disconnect;
+
+        EmulatedTransport(URI uri, Transport.Listener listener, Random random) {
+            this.listener = listener;
+            this.random = random;
+            this.transport = inner.create(uri, this);
+        }
+
+        @Override
+        public void connect() {
+            transport.connect();
+        }
+
+        @Override
+        public void send(byte[] data) throws Exception {
+            if (!open) throw new IOException("Transport is not open");
+            long delay;
+            synchronized (this) {
+                delay = up.schedule(random, data.length, true);
+            }
+            int gen = generation;
+            inFlight.addAndGet(data.length);
+            timer.schedule(() -> {
+                inFlight.addAndGet(-data.length);
+                if (gen != generation || closed) return;
+                try {
+                    transport.send(data);
+                } catch (Exception e) {
+                    onError(e);
+                    return;
+                }
+                if (getBufferedBytes() == 0) listener.onDrained();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close() {
+            long delay;
+            synchronized (this) {
+                delay = up.drainDelay();
+            }
+            // Like a FIN, the close follows the data sent before it
+            timer.schedule(transport::close, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public long getBufferedBytes() {
+            return inFlight.get() + transport.getBufferedBytes();
+        }
+
+        // Callbacks of the wrapped transport, passed on from the timer thread
+
+        @Override
+        public void onOpen() {
+            long delay;
+            long uptime = 0;
+            synchronized (this) {
+                // The connect completes after its handshake crossed the link
+                delay = down.schedule(random, 0, false);
+                if (meanUptimeMs > 0) {
+                    uptime = (long) (-Math.log(1 - random.nextDouble()) * meanUptimeMs);
+                }
+            }
+            long drop = uptime;
+            int gen = generation;
+            timer.schedule(() -> {
+                if (gen != generation || closed) return;
+                open = true;
+                if (drop > 0) disconnect = timer.schedule(this::disconnect, drop, TimeUnit.MILLISECONDS);
+                listener.onOpen();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            long delay;
+            synchronized (this) {
+                // A byte stream can be delayed but not reordered
+                delay = down.schedule(random, bytes.length, !(transport instanceof TcpTransport));
+            }
+            int gen = generation;
+            timer.schedule(() -> {
+                if (gen != generation || closed) return;
+                listener.onMessage(ByteBuffer.wrap(bytes));
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            int gen = generation;
+            timer.execute(() -> {
+                if (gen != generation || closed) return;
+                listener.onError(ex);
+            });
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            long delay;
+            synchronized (this) {
+                delay = down.drainDelay();
+            }
+            int gen = generation;
+            timer.schedule(() -> {
+                if (gen != generation || closed) return;
+                finish(code, reason, remote);
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onDrained() {
+            // Still draining while units cross the emulated link
+            if (inFlight.get() == 0 && !closed) listener.onDrained();
+        }
+
+        private void disconnect() {
+            if (closed) return;
+            disconnectCount.incrementAndGet();
+            generation++;
+            transport.close();
+            finish(1006, "emulated disconnect", true);
+        }
+
+        private void finish(int code, String reason, boolean remote) {
+            closed = true;
+            open = false;
+            if (disconnect != null) disconnect.cancel(false);
+            listener.onClose(code, reason, remote);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.goplay.transport;
+
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.DataFrame;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.exceptions.InvalidDataException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PerMessageDeflate configures permessage-deflate (RFC 7692) for WebSocketTransport and
+ * counts what it saves. Messages shorter than threshold bytes are sent as they are, since
+ * deflate costs CPU and adds a few bytes of its own on small payloads. With context
+ * takeover the compressor keeps its window between messages, which compresses repetitive
+ * traffic better at the cost of about 32 KB of state per direction per connection;
+ * without it each message is compressed alone.
+ *
+ * Compression only happens if the server accepts the extension in the handshake;
+ * otherwise the connection works as before and the counters stay equal.
+ */
+public class PerMessageDeflate {
+    private final int threshold;
+    private final boolean contextTakeover;
+
+    // Statistics, over all connections using this configuration
+    private final AtomicLong rawBytesSent = new AtomicLong();
+    private final AtomicLong wireBytesSent = new AtomicLong();
+    private final AtomicLong rawBytesReceived = new AtomicLong();
+    // Bytes added by inflating; uncompressed frames never reach the extension
+    private final AtomicLong inflatedBytes = new AtomicLong();
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong bypassedCount = new AtomicLong();
+
+    /**
+     * Compress messages of 1024 bytes or more, with context takeover.
+     */
+    public PerMessageDeflate() {
+        this(1024, true);
+    }
+
+    public PerMessageDeflate(int threshold, boolean contextTakeover) {
+        this.threshold = Math.max(0, threshold);
+        this.contextTakeover = contextTakeover;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public boolean isContextTakeover() {
+        return contextTakeover;
+    }
+
+    /**
+     * Payload bytes handed to the socket before compression.
+     */
+    public long getRawBytesSent() {
+        return rawBytesSent.get();
+    }
+
+    /**
+     * Payload bytes actually sent, after compression.
+     */
+    public long getWireBytesSent() {
+        return wireBytesSent.get();
+    }
+
+    /**
+     * Payload bytes delivered to the listener after decompression.
+     */
+    public long getRawBytesReceived() {
+        return rawBytesReceived.get();
+    }
+
+    /**
+     * Payload bytes read from the socket, before decompression.
+     */
+    public long getWireBytesReceived() {
+        return rawBytesReceived.get() - inflatedBytes.get();
+    }
+
+    /**
+     * Sent messages that were compressed.
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * Sent messages left uncompressed for being under the threshold.
+     */
+    public long getBypassedCount() {
+        return bypassedCount.get();
+    }
+
+    void received(int bytes) {
+        rawBytesReceived.addAndGet(bytes);
+    }
+
+    IExtension newExtension() {
+        return new CountingExtension(this);
+    }
+
+    /**
+     * The library's extension with our settings and counters. It is written from the
+     * server's side: the deflater is reset per message when server_no_context_takeover is
+     * set, and a client always offers no context takeover. So as a client both flags are
+     * set together from our setting, and the offer is rebuilt to match it.
+     */
+    private static class CountingExtension extends PerMessageDeflateExtension {
+        private final PerMessageDeflate config;
+
+        CountingExtension(PerMessageDeflate config) {
+            this.config = config;
+            setThreshold(config.threshold);
+            setServerNoContextTakeover(!config.contextTakeover);
+            setClientNoContextTakeover(!config.contextTakeover);
+        }
+
+        @Override
+        public String getProvidedExtensionAsClient() {
+            return config.contextTakeover
+                    ? "permessage-deflate"
+                    : "permessage-deflate; server_no_context_takeover; client_no_context_takeover";
+        }
+
+        @Override
+        public boolean acceptProvidedExtensionAsClient(String inputExtension) {
+            if (!super.acceptProvidedExtensionAsClient(inputExtension)) return false;
+            // The server may still require that our compressor start afresh every message
+            if (inputExtension.contains("client_no_context_takeover")) {
+                setServerNoContextTakeover(true);
+            }
+            return true;
+        }
+
+        @Override
+        public void encodeFrame(Framedata frame) {
+            if (!(frame instanceof DataFrame)) {
+                super.encodeFrame(frame);
+                return;
+            }
+            long raw = frame.getPayloadData().remaining();
+            super.encodeFrame(frame);
+            config.rawBytesSent.addAndGet(raw);
+            config.wireBytesSent.addAndGet(frame.getPayloadData().remaining());
+            if (frame.isRSV1()) config.compressedCount.incrementAndGet();
+            else config.bypassedCount.incrementAndGet();
+        }
+
+        @Override
+        public void decodeFrame(Framedata frame) throws InvalidDataException {
+            if (!(frame instanceof DataFrame)) {
+                super.decodeFrame(frame);
+                return;
+            }
+            long wire = frame.getPayloadData().remaining();
+            super.decodeFrame(frame);
+            config.inflatedBytes.addAndGet(frame.getPayloadData().remaining() - wire);
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            // Each connection needs its own deflater and inflater, with the same settings
+            return new CountingExtension(config);
+        }
+    }
+}
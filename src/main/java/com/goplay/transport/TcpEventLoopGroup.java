@@ -0,0 +1,217 @@
+package com.goplay.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TcpEventLoopGroup runs raw TCP transports on a few event loop threads, each of which
+ * multiplexes any number of SocketChannels on one Selector. New transports are spread
+ * over the loops round-robin. Each loop owns a single read buffer sized to the largest
+ * GoPlay frame, so an idle connection costs no buffer memory at all.
+ * By default loops block in select(); a group built with a BusyPoll polls instead, so
+ * latency-sensitive connections can get their own group without affecting the rest.
+ */
+public class TcpEventLoopGroup implements TransportFactory {
+    private static final Logger logger = LoggerFactory.getLogger(TcpEventLoopGroup.class);
+
+    // uint16 length prefix plus the largest package it can describe
+    static final int READ_BUFFER_SIZE = 2 + 0xffff;
+
+    private static volatile TcpEventLoopGroup shared;
+
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public TcpEventLoopGroup(int threads) throws IOException {
+        this(threads, null);
+    }
+
+    /**
+     * A group whose loops busy-poll as configured (null blocks in select()).
+     */
+    public TcpEventLoopGroup(int threads, BusyPoll busyPoll) throws IOException {
+        loops = new Loop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop((busyPoll != null ? "GoPlay-tcp-poll-" : "GoPlay-tcp-") + i,
+                    busyPoll != null ? busyPoll.newBackoff() : null);
+        }
+    }
+
+    /**
+     * The group used for tcp:// URIs unless another factory is configured; one loop
+     * per available processor, started on first use.
+     */
+    public static TcpEventLoopGroup shared() {
+        TcpEventLoopGroup group = shared;
+        if (group == null) {
+            synchronized (TcpEventLoopGroup.class) {
+                group = shared;
+                if (group == null) {
+                    try {
+                        group = new TcpEventLoopGroup(Runtime.getRuntime().availableProcessors());
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot open selector", e);
+                    }
+                    shared = group;
+                }
+            }
+        }
+        return group;
+    }
+
+    @Override
+    public Transport create(URI uri, Transport.Listener listener) {
+        Loop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        return new TcpTransport(loop, uri, listener);
+    }
+
+    /**
+     * Number of channels registered across all loops.
+     */
+    public int getChannelCount() {
+        int count = 0;
+        for (Loop loop : loops) {
+            count += loop.selector.keys().size();
+        }
+        return count;
+    }
+
+    /**
+     * Stop the loops. Transports still open are closed abnormally.
+     */
+    public void shutdown() {
+        for (Loop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    static final class Loop implements Runnable {
+        final Selector selector;
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private final Thread thread;
+        private volatile boolean running = true;
+        // Busy-poll back-off, or null to block in select()
+        private final BusyPoll.Backoff backoff;
+        private volatile boolean parking;
+
+        Loop(String name, BusyPoll.Backoff backoff) throws IOException {
+            this.backoff = backoff;
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Run a task on the loop thread, waking the selector if needed.
+         */
+        void execute(Runnable task) {
+            tasks.offer(task);
+            if (inLoop()) return;
+            if (backoff != null) {
+                if (parking) LockSupport.unpark(thread);
+            } else if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Wait for ready keys or tasks: block in select(), or poll and back off when idle.
+         * Returns false when a busy poll found nothing to do.
+         */
+        private boolean poll() throws IOException {
+            if (backoff == null) {
+                // A task queued from this thread, e.g. a close from a read callback, sent no wakeup
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                return true;
+            }
+            if (selector.selectNow() > 0 || !tasks.isEmpty()) {
+                backoff.reset();
+                return true;
+            }
+            if (backoff.willPark()) {
+                // Publish the intent to park before the last look at the task queue
+                parking = true;
+                if (tasks.isEmpty() && running) backoff.idle();
+                parking = false;
+            } else {
+                backoff.idle();
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (!poll()) continue;
+                    runTasks();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        TcpTransport transport = (TcpTransport) key.attachment();
+                        try {
+                            transport.onReady(key);
+                        } catch (CancelledKeyException e) {
+                            // Closed while its events were being handled
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Error in event loop {}", thread.getName(), e);
+                }
+            }
+
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                ((TcpTransport) key.attachment()).closeAbnormally(new IOException("event loop stopped"));
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Error in event loop task", e);
+                }
+            }
+        }
+    }
+}
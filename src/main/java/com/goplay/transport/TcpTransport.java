@@ -0,0 +1,225 @@
+package com.goplay.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TcpTransport sends GoPlay frames over a plain TCP connection (tcp://host:port),
+ * without WebSocket framing. It runs on an event loop of a TcpEventLoopGroup and
+ * uses no thread of its own.
+ * Writes go straight to the socket from the calling thread; whatever the socket does
+ * not take is queued and flushed by the loop when the socket becomes writable.
+ * close() writes out what is still queued before closing the socket, for at most
+ * LINGER_MS.
+ * The server address comes from the shared AddressCache; a miss is resolved off the
+ * loop, so DNS never holds up other connections.
+ */
+public class TcpTransport implements Transport {
+    private static final long LINGER_MS = 3000;
+
+    private final TcpEventLoopGroup.Loop loop;
+    private final InetSocketAddress address;
+    private final Listener listener;
+
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile SocketChannel channel;
+    private volatile boolean open;
+    // A local close is waiting for pending to be written; loop thread only
+    private boolean closing;
+    private SelectionKey key;
+    // Guarded by pending
+    private boolean writeInterest;
+    // Bytes left in pending; written under its lock
+    private volatile long pendingBytes;
+
+    TcpTransport(TcpEventLoopGroup.Loop loop, URI uri, Listener listener) {
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IllegalArgumentException("Expected tcp://host:port, got " + uri);
+        }
+        this.loop = loop;
+        this.address = InetSocketAddress.createUnresolved(uri.getHost(), uri.getPort());
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+        AddressCache.shared().resolveAsync(address.getHostString()).whenComplete((host, error) -> {
+            if (error != null) {
+                loop.execute(() -> closeAbnormally(error.getCause() instanceof Exception
+                        ? (Exception) error.getCause() : new IOException(error)));
+            } else {
+                loop.execute(() -> connect(new InetSocketAddress(host, address.getPort())));
+            }
+        });
+    }
+
+    private void connect(InetSocketAddress resolved) {
+        // Closed while the address was being resolved
+        if (closed.get()) return;
+        try {
+            SocketChannel ch = SocketChannel.open();
+            channel = ch;
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            key = ch.register(loop.selector, 0, this);
+            if (ch.connect(resolved)) {
+                onConnected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAbnormally(e);
+        }
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        synchronized (pending) {
+            // Checked under the lock, so a close never misses a frame it accepted
+            if (!open) throw new IOException("Transport is not open");
+            if (pending.isEmpty()) {
+                channel.write(buf);
+                if (!buf.hasRemaining()) return;
+            }
+            pending.offer(buf);
+            pendingBytes += buf.remaining();
+            if (!writeInterest) {
+                writeInterest = true;
+                loop.execute(() -> setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        loop.execute(this::closeGracefully);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Handle the ready operations of the channel; called on the loop thread.
+     */
+    void onReady(SelectionKey k) {
+        try {
+            if (k.isConnectable()) {
+                if (!channel.finishConnect()) return;
+                onConnected();
+            }
+            if (k.isValid() && k.isWritable()) {
+                flushPending();
+            }
+            if (k.isValid() && k.isReadable()) {
+                read();
+            }
+        } catch (IOException e) {
+            closeAbnormally(e);
+        }
+    }
+
+    private void onConnected() {
+        open = true;
+        setInterest(SelectionKey.OP_READ);
+        listener.onOpen();
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buf = loop.readBuffer;
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf);
+            if (n < 0) {
+                closeInternal(1006, "connection closed by peer", true);
+                return;
+            }
+            if (n == 0) return;
+            buf.flip();
+            listener.onMessage(buf);
+            // A partly filled buffer means the socket is drained
+            if (n < buf.capacity() || closed.get()) return;
+        }
+    }
+
+    private void flushPending() throws IOException {
+        synchronized (pending) {
+            ByteBuffer buf;
+            while ((buf = pending.peek()) != null) {
+                pendingBytes -= channel.write(buf);
+                if (buf.hasRemaining()) return;
+                pending.poll();
+            }
+            writeInterest = false;
+            setInterest(SelectionKey.OP_READ);
+        }
+        if (closing) {
+            closeInternal(1000, "", false);
+        } else {
+            listener.onDrained();
+        }
+    }
+
+    private void setInterest(int ops) {
+        if (key != null && key.isValid()) key.interestOps(ops);
+    }
+
+    // Stop taking sends, and close once the bytes already accepted are written
+    private void closeGracefully() {
+        if (closed.get() || closing) return;
+        boolean drained;
+        synchronized (pending) {
+            drained = !open || pending.isEmpty();
+            open = false;
+        }
+        if (drained) {
+            closeInternal(1000, "", false);
+            return;
+        }
+        closing = true;
+        // A peer that stopped reading must not hold the socket open
+        CompletableFuture.delayedExecutor(LINGER_MS, TimeUnit.MILLISECONDS)
+                .execute(() -> loop.execute(() -> closeInternal(1000, "", false)));
+    }
+
+    void closeAbnormally(Exception e) {
+        if (closed.get()) return;
+        // A connect that failed may have used a stale address
+        if (!open) AddressCache.shared().invalidate(address.getHostString());
+        listener.onError(e);
+        closeInternal(1006, String.valueOf(e.getMessage()), false);
+    }
+
+    private void closeInternal(int code, String reason, boolean remote) {
+        if (!closed.compareAndSet(false, true)) return;
+        open = false;
+        if (key != null) key.cancel();
+        try {
+            SocketChannel ch = channel;
+            if (ch != null) ch.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (pending) {
+            pending.clear();
+            pendingBytes = 0;
+        }
+        listener.onClose(code, reason, remote);
+    }
+}
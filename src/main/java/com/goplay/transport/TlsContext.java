@@ -0,0 +1,161 @@
+package com.goplay.transport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TlsContext is the TLS setup shared by the wss:// connections made with it. Sessions
+ * are cached per host and port in its SSLContext, so a reconnect resumes the previous
+ * session (a TLS 1.3 ticket or a TLS 1.2 session id) instead of doing a full handshake,
+ * provided the server allows it.
+ *
+ * Java-WebSocket otherwise builds a fresh SSLContext for every connection, so nothing
+ * is ever resumed; WebSocketTransport uses shared() unless given another TlsContext.
+ */
+public class TlsContext {
+    private static volatile TlsContext shared;
+
+    private final SSLContext context;
+    private final SSLSocketFactory socketFactory;
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong resumedCount = new AtomicLong();
+
+    /**
+     * Sessions cached in the JVM's default SSLContext, with the default trust store.
+     */
+    public static TlsContext shared() {
+        TlsContext tls = shared;
+        if (tls == null) {
+            synchronized (TlsContext.class) {
+                tls = shared;
+                if (tls == null) {
+                    try {
+                        tls = new TlsContext(SSLContext.getDefault());
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException("No default SSLContext", e);
+                    }
+                    shared = tls;
+                }
+            }
+        }
+        return tls;
+    }
+
+    public TlsContext(SSLContext context) {
+        this.context = context;
+        this.socketFactory = new TrackingSocketFactory(context.getSocketFactory());
+    }
+
+    /**
+     * A context that keeps up to cacheSize client sessions for timeoutSeconds each
+     * (0 = the JSSE defaults), e.g. to outlive a long frontend restart.
+     */
+    public TlsContext(SSLContext context, int cacheSize, int timeoutSeconds) {
+        this(context);
+        SSLSessionContext sessions = context.getClientSessionContext();
+        if (cacheSize > 0) sessions.setSessionCacheSize(cacheSize);
+        if (timeoutSeconds > 0) sessions.setSessionTimeout(timeoutSeconds);
+    }
+
+    public SSLContext getSslContext() {
+        return context;
+    }
+
+    /**
+     * Socket factory for connections that should share the session cache.
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * TLS handshakes completed on sockets of this context, full or resumed. JSSE reports
+     * them on a thread of its own, so a count may trail the connection by a moment.
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * Handshakes that resumed an earlier session.
+     */
+    public long getResumedCount() {
+        return resumedCount.get();
+    }
+
+    // Counts handshakes of the sockets it creates; a resumed session was created before the socket
+    private class TrackingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+
+        TrackingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        private Socket track(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                long created = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(event -> {
+                    SSLSession session = event.getSession();
+                    handshakeCount.incrementAndGet();
+                    if (session.getCreationTime() < created) resumedCount.incrementAndGet();
+                });
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return track(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(s, consumed, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return track(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return track(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.goplay.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transport moves GoPlay frames between client and server. Frames are self-delimiting
+ * (length prefix plus package, see Framing), so a transport only carries bytes: received
+ * data may split or join frames at any point.
+ * Listener callbacks of one transport are never invoked concurrently, except onDrained().
+ */
+public interface Transport {
+
+    interface Listener {
+        void onOpen();
+
+        /**
+         * Received bytes. The buffer is only valid during the call.
+         */
+        void onMessage(ByteBuffer data);
+
+        void onError(Exception ex);
+
+        /**
+         * Called once, after a connect failure or when an open transport closes.
+         * Codes follow WebSocket close codes (1000 normal, 1006 abnormal).
+         */
+        void onClose(int code, String reason, boolean remote);
+
+        /**
+         * Everything accepted by send() has been written, after getBufferedBytes() was
+         * above zero. May run on any thread. Transports that cannot tell never call it.
+         */
+        default void onDrained() {
+        }
+    }
+
+    /**
+     * Start connecting; the outcome is reported through the listener.
+     */
+    void connect();
+
+    /**
+     * Write bytes in order. Throws once the transport is not open.
+     */
+    void send(byte[] data) throws Exception;
+
+    /**
+     * Close the transport; onClose follows.
+     */
+    void close();
+
+    boolean isOpen();
+
+    /**
+     * Bytes accepted by send() but not yet written to the socket, for backpressure on
+     * streamed sends; 0 if the transport cannot tell.
+     */
+    default long getBufferedBytes() {
+        return 0;
+    }
+}
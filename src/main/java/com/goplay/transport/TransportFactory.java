@@ -0,0 +1,10 @@
+package com.goplay.transport;
+
+import java.net.URI;
+
+/**
+ * TransportFactory creates the transport for a server URI.
+ */
+public interface TransportFactory {
+    Transport create(URI uri, Transport.Listener listener);
+}
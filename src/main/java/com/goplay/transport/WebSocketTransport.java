@@ -0,0 +1,143 @@
+package com.goplay.transport;
+
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+/**
+ * WebSocketTransport carries frames in binary WebSocket messages using Java-WebSocket.
+ * Each connection runs its own read and write threads. Compression is off unless a
+ * PerMessageDeflate is given, e.g. GoPlay.setTransportFactory(new
+ * WebSocketTransport.Factory(new PerMessageDeflate())).
+ *
+ * wss:// connections share the session cache of a TlsContext, TlsContext.shared()
+ * by default, so reconnects resume TLS sessions. Server addresses come from an
+ * AddressCache, so reconnects skip DNS.
+ */
+public class WebSocketTransport implements Transport {
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketTransport.class);
+
+    /**
+     * Creates transports that offer permessage-deflate with one shared configuration.
+     */
+    public static class Factory implements TransportFactory {
+        private final PerMessageDeflate deflate;
+        private final TlsContext tls;
+
+        public Factory(PerMessageDeflate deflate) {
+            this(deflate, null);
+        }
+
+        /**
+         * Transports with the given compression (null for none) and TLS setup (null for
+         * TlsContext.shared()).
+         */
+        public Factory(PerMessageDeflate deflate, TlsContext tls) {
+            this.deflate = deflate;
+            this.tls = tls;
+        }
+
+        @Override
+        public Transport create(URI uri, Listener listener) {
+            return new WebSocketTransport(uri, listener, deflate, tls, AddressCache.shared());
+        }
+    }
+
+    private final WebSocketClient client;
+    private volatile boolean opened;
+
+    public WebSocketTransport(URI uri, Listener listener) {
+        this(uri, listener, null);
+    }
+
+    /**
+     * A transport offering permessage-deflate as configured (null disables it).
+     */
+    public WebSocketTransport(URI uri, Listener listener, PerMessageDeflate deflate) {
+        this(uri, listener, deflate, null, AddressCache.shared());
+    }
+
+    /**
+     * A transport offering permessage-deflate as configured (null disables it), with
+     * the TLS setup for wss:// (null for TlsContext.shared()) and the address cache
+     * (null for AddressCache.shared()).
+     */
+    public WebSocketTransport(URI uri, Listener listener, PerMessageDeflate deflate, TlsContext tls,
+                              AddressCache addressCache) {
+        AddressCache addresses = addressCache != null ? addressCache : AddressCache.shared();
+        Draft draft = deflate != null ? new Draft_6455(deflate.newExtension()) : new Draft_6455();
+        this.client = new WebSocketClient(uri, draft) {
+            @Override
+            public void onOpen(ServerHandshake handshakedata) {
+                opened = true;
+                listener.onOpen();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                logger.warn("Received text message (binary expected): {}", message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                if (deflate != null) deflate.received(message.remaining());
+                listener.onMessage(message);
+            }
+
+            @Override
+            public void onError(Exception ex) {
+                // A connect that failed may have used a stale address
+                if (!opened) addresses.invalidate(uri.getHost());
+                listener.onError(ex);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                listener.onClose(code, reason, remote);
+            }
+        };
+        // The outbound writer batches frames itself; Nagle would only hold back the last
+        // write of a handshake, e.g. the upgrade request after a resumed TLS handshake
+        client.setTcpNoDelay(true);
+        client.setDnsResolver(u -> addresses.resolve(u.getHost()));
+        if ("wss".equalsIgnoreCase(uri.getScheme())) {
+            client.setSocketFactory((tls != null ? tls : TlsContext.shared()).getSocketFactory());
+        }
+    }
+
+    @Override
+    public void connect() {
+        client.connect();
+    }
+
+    @Override
+    public void send(byte[] data) {
+        client.send(data);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return client.isOpen();
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        long bytes = 0;
+        for (ByteBuffer buf : ((WebSocketImpl) client.getConnection()).outQueue) {
+            bytes += buf.remaining();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,70 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests batch requests made with requestAll().
+ */
+public class BatchRequestTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testRequestAll() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        List<Status> payloads = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            payloads.add(Status.newBuilder().setCode(i).build());
+        }
+        GoPlay.BatchResult<Status> batch = GoPlay.requestAll(GoPlayTestServer.ROUTE_ECHO, payloads, Status.class);
+        List<GoPlay.ResponseResult<Status>> results = batch.all.get(5, TimeUnit.SECONDS);
+
+        assertEquals(payloads.size(), results.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(0, results.get(i).getCode());
+            assertEquals(payloads.get(i), results.get(i).data);
+        }
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+
+    @Test
+    public void testBatchLargerThanOneByteOfIds() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        List<Status> payloads = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            payloads.add(Status.newBuilder().setCode(i).build());
+        }
+        GoPlay.BatchResult<Status> batch = GoPlay.requestAll(GoPlayTestServer.ROUTE_ECHO, payloads, Status.class);
+        List<GoPlay.ResponseResult<Status>> results = batch.all.get(5, TimeUnit.SECONDS);
+
+        // Items sharing an id would share a callback key and get each other's response
+        for (int i = 0; i < payloads.size(); i++) {
+            assertEquals(0, results.get(i).getCode());
+            assertEquals(payloads.get(i), results.get(i).data);
+        }
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+}
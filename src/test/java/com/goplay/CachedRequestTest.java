@@ -0,0 +1,52 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests requests answered from the response cache.
+ */
+public class CachedRequestTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testCachedResponseCompletesSynchronously() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        GoPlay.setCacheTtl(GoPlayTestServer.ROUTE_ECHO, 60_000, 0);
+        try {
+            Status payload = Status.newBuilder().setCode(3).setMessage("cached").build();
+            GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+            long hits = GoPlay.getResponseCache().getHitCount();
+
+            CompletableFuture<GoPlay.ResponseResult<Status>> cached =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class);
+
+            assertTrue(cached.isDone());
+            assertEquals(payload, cached.get().data);
+            assertEquals(hits + 1, GoPlay.getResponseCache().getHitCount());
+            assertEquals(0, GoPlay.getPendingCount());
+        } finally {
+            GoPlay.setCacheTtl(GoPlayTestServer.ROUTE_ECHO, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.PayloadCodec;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the connection pool against two TCP test servers.
+ */
+public class GoPlayPoolTest {
+    private GoPlayTestServer first;
+    private GoPlayTestServer second;
+    private GoPlayPool pool;
+
+    @Before
+    public void startServers() throws Exception {
+        GoPlayLogger.disableAll();
+        first = GoPlayTestServer.launchTcp();
+        second = GoPlayTestServer.launchTcp();
+        pool = new GoPlayPool(Arrays.asList(first.getUrl(), second.getUrl()), 2);
+    }
+
+    @After
+    public void stopServers() throws Exception {
+        pool.close().get(5, TimeUnit.SECONDS);
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void testRequestsGoToLeastBusyConnections() throws Exception {
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+        assertEquals(2, first.getConnectionCount());
+        assertEquals(2, second.getConnectionCount());
+
+        // Unanswered requests pile up evenly, one per connection before any gets a second
+        for (int i = 0; i < 4; i++) {
+            pool.request(GoPlayTestServer.ROUTE_SILENT, Status.getDefaultInstance(), Status.class, 10_000);
+        }
+        assertEquals(2, pool.getOutstanding(first.getUrl()));
+        assertEquals(2, pool.getOutstanding(second.getUrl()));
+
+        List<CompletableFuture<GoPlay.ResponseResult<Status>>> echoes = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Status payload = Status.newBuilder().setCode(i).setMessage("pooled").build();
+            echoes.add(pool.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class));
+        }
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, echoes.get(i).get(5, TimeUnit.SECONDS).data.getCode());
+        }
+    }
+
+    @Test
+    public void testPushesFromEveryEndpointReachOneListener() throws Exception {
+        Set<String> sources = ConcurrentHashMap.newKeySet();
+        CountDownLatch pushes = new CountDownLatch(4);
+        pool.onPush(GoPlayTestServer.ROUTE_STREAM, Status.class, args -> {
+            assertEquals("pushed", ((Status) args[0]).getMessage());
+            sources.add((String) args[1]);
+            pushes.countDown();
+        });
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+
+        // Idle connections are taken in turn, so four notifies cover both endpoints
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pool.notify(GoPlayTestServer.ROUTE_STREAM, Status.newBuilder().setMessage("pushed").build()));
+        }
+
+        assertTrue(pushes.await(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList(first.getUrl(), second.getUrl())), sources);
+    }
+
+    @Test
+    public void testEjectsAndReadmitsEndpoint() throws Exception {
+        pool.setEjection(1, 300);
+        CountDownLatch ejected = new CountDownLatch(1);
+        CountDownLatch readmitted = new CountDownLatch(1);
+        pool.getEmitter().on(GoPlayPool.ENDPOINT_EJECTED, args -> ejected.countDown());
+        pool.getEmitter().on(GoPlayPool.ENDPOINT_READMITTED, args -> readmitted.countDown());
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+
+        int port = URI.create(first.getUrl()).getPort();
+        first.stop();
+        assertTrue(ejected.await(5, TimeUnit.SECONDS));
+        assertTrue(pool.isEjected(first.getUrl()));
+
+        // Only the healthy endpoint is used meanwhile
+        Status payload = Status.newBuilder().setCode(9).setMessage("healthy").build();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(payload, pool.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class)
+                    .get(5, TimeUnit.SECONDS).data);
+        }
+
+        first = GoPlayTestServer.launchTcp(port);
+        assertTrue(readmitted.await(5, TimeUnit.SECONDS));
+        awaitReady(4);
+        assertFalse(pool.isEjected(first.getUrl()));
+        assertEquals(2, first.getConnectionCount());
+        assertTrue(pool.getEjectionCount() >= 1);
+    }
+
+    @Test
+    public void testOneOutageIsOneFailure() throws Exception {
+        pool.setEjection(2, 60_000);
+        AtomicLong firstDrop = new AtomicLong();
+        AtomicLong ejectedAt = new AtomicLong();
+        CountDownLatch ejected = new CountDownLatch(1);
+        pool.getEmitter().on(GoPlay.Consts.Events.DISCONNECTED, args -> firstDrop.compareAndSet(0, System.nanoTime()));
+        pool.getEmitter().on(GoPlayPool.ENDPOINT_EJECTED, args -> {
+            ejectedAt.set(System.nanoTime());
+            ejected.countDown();
+        });
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+
+        first.stop();
+        assertTrue(ejected.await(5, TimeUnit.SECONDS));
+
+        // Both connections dropping is one failure; the failed reconnect is the second
+        long afterDropMs = TimeUnit.NANOSECONDS.toMillis(ejectedAt.get() - firstDrop.get());
+        assertTrue("ejected " + afterDropMs + " ms after the drop", afterDropMs >= GoPlayPool.RECONNECT_DELAY_MS);
+        assertFalse(pool.isEjected(second.getUrl()));
+    }
+
+    @Test
+    public void testKickIsNotAFailure() throws Exception {
+        pool.setEjection(1, 60_000);
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+
+        for (int i = 0; i < 4; i++) {
+            GoPlay.ResponseResult<Status> result = pool.request(GoPlayTestServer.ROUTE_KICK,
+                    Status.getDefaultInstance(), Status.class).get(5, TimeUnit.SECONDS);
+            assertEquals(GoPlay.Consts.ClientStatus.CONNECTION_LOST, result.getCode());
+        }
+
+        awaitReady(4);
+        assertFalse(pool.isEjected(first.getUrl()));
+        assertFalse(pool.isEjected(second.getUrl()));
+        assertEquals(0, pool.getEjectionCount());
+    }
+
+    @Test
+    public void testCompressedContentBothWays() throws Exception {
+        byte[] dictionary = "{\"channel\":\"guild\",\"from\":\"player\",\"text\":\"anyone for the raid tonight\"}".getBytes();
+        PayloadCodec codec = new PayloadCodec();
+        codec.addDictionary(GoPlayTestServer.ROUTE_ECHO, dictionary);
+        for (GoPlayTestServer server : Arrays.asList(first, second)) {
+            PayloadCodec serverCodec = new PayloadCodec();
+            serverCodec.addDictionary(GoPlayTestServer.ROUTE_ECHO, dictionary);
+            server.setPayloadCodec(serverCodec);
+        }
+        pool.setPayloadCodec(codec);
+        assertTrue(pool.start().get(5, TimeUnit.SECONDS));
+        awaitReady(4);
+
+        Status payload = Status.newBuilder().setCode(9)
+                .setMessage("{\"channel\":\"guild\",\"from\":\"player42\",\"text\":\"anyone for the raid tonight\"}")
+                .build();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(payload, pool.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class)
+                    .get(5, TimeUnit.SECONDS).data);
+        }
+        // Every connection's codec shares the pool codec's statistics
+        assertEquals(4, codec.getCompressedCount());
+    }
+
+    private void awaitReady(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getReadyCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, pool.getReadyCount());
+    }
+}
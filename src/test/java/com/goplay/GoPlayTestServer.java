@@ -0,0 +1,368 @@
+package com.goplay;
+
+import com.goplay.core.ByteArray;
+import com.goplay.core.Framing;
+import com.goplay.core.Package;
+import com.goplay.core.PayloadCodec;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process GoPlay server for tests, on plain blocking sockets. It speaks
+ * WebSocket, WebSocket over TLS with a self-signed certificate for localhost when
+ * launched with launchTls(), or bare length-prefixed frames when launched with launchTcp().
+ * Answers the handshake and pings, echoes "test.echo", ignores "test.silent",
+ * kicks the client on "test.kick" and echoes only every second "test.flaky" request.
+ * Notifies on "test.stream" come straight back as pushes, chunk by chunk.
+ * With a PayloadCodec it also inflates compressed content and compresses its replies.
+ * With setVarintFraming() it accepts a client's offer of varint length prefixes.
+ */
+public class GoPlayTestServer {
+    public static final String ROUTE_ECHO = "test.echo";
+    public static final String ROUTE_SILENT = "test.silent";
+    public static final String ROUTE_KICK = "test.kick";
+    public static final String ROUTE_FLAKY = "test.flaky";
+    public static final String ROUTE_STREAM = "test.stream";
+    public static final Map<String, Integer> ROUTES = new LinkedHashMap<>();
+
+    static {
+        ROUTES.put(ROUTE_ECHO, 1);
+        ROUTES.put(ROUTE_SILENT, 2);
+        ROUTES.put(ROUTE_KICK, 3);
+        ROUTES.put(ROUTE_FLAKY, 4);
+        ROUTES.put(ROUTE_STREAM, 5);
+    }
+
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String KEYSTORE = "/goplay-test.p12";
+    private static final char[] KEYSTORE_PASSWORD = "goplay-test".toCharArray();
+
+    private final ServerSocket serverSocket;
+    private final boolean raw;
+    private final boolean tls;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger flakyCount = new AtomicInteger();
+    private volatile PayloadCodec codec;
+    private volatile boolean varintFraming;
+    // Connections that switched to varint framing, by their output stream
+    private final Set<OutputStream> varintConnections = ConcurrentHashMap.newKeySet();
+
+    private GoPlayTestServer(ServerSocket serverSocket, boolean raw, boolean tls) {
+        this.serverSocket = serverSocket;
+        this.raw = raw;
+        this.tls = tls;
+    }
+
+    public static GoPlayTestServer launch() throws IOException {
+        return launch(new ServerSocket(0, 1024, InetAddress.getLoopbackAddress()), false, false);
+    }
+
+    /**
+     * Serve GoPlay frames straight over TCP, for tcp:// URLs.
+     */
+    public static GoPlayTestServer launchTcp() throws IOException {
+        return launchTcp(0);
+    }
+
+    /**
+     * Serve TCP on a given port, e.g. to bring back a server that was stopped.
+     */
+    public static GoPlayTestServer launchTcp(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        return launch(socket, true, false);
+    }
+
+    /**
+     * Serve WebSocket over TLS, for wss://localhost URLs; clients need a context from
+     * clientSslContext() to trust the certificate.
+     */
+    public static GoPlayTestServer launchTls() throws Exception {
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore(), KEYSTORE_PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        ServerSocket socket = context.getServerSocketFactory()
+                .createServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        return launch(socket, false, true);
+    }
+
+    /**
+     * A fresh client context that trusts the certificate of launchTls() servers.
+     */
+    public static SSLContext clientSslContext() throws Exception {
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    private static KeyStore keyStore() throws Exception {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = GoPlayTestServer.class.getResourceAsStream(KEYSTORE)) {
+            store.load(in, KEYSTORE_PASSWORD);
+        }
+        return store;
+    }
+
+    /**
+     * Decode and encode content with the codec, bound to this server's routes.
+     */
+    public void setPayloadCodec(PayloadCodec codec) {
+        if (codec != null) codec.bindRoutes(ROUTES);
+        this.codec = codec;
+    }
+
+    public void setVarintFraming(boolean enabled) {
+        this.varintFraming = enabled;
+    }
+
+    private static GoPlayTestServer launch(ServerSocket socket, boolean raw, boolean tls) {
+        GoPlayTestServer server = new GoPlayTestServer(socket, raw, tls);
+        Thread acceptThread = new Thread(server::acceptLoop, "GoPlayTestServer-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return server;
+    }
+
+    public String getUrl() {
+        if (tls) return "wss://localhost:" + serverSocket.getLocalPort();
+        return (raw ? "tcp" : "ws") + "://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Connections currently open.
+     */
+    public int getConnectionCount() {
+        return sockets.size();
+    }
+
+    public void stop() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                Thread t = new Thread(() -> serve(socket), "GoPlayTestServer-conn");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        OutputStream out = null;
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out = new BufferedOutputStream(s.getOutputStream());
+            if (raw) {
+                serveRaw(in, out);
+                return;
+            }
+            upgrade(in, out);
+
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            while (true) {
+                int b0 = in.readUnsignedByte();
+                int b1 = in.readUnsignedByte();
+                int opcode = b0 & 0x0f;
+                long len = b1 & 0x7f;
+                if (len == 126) len = in.readUnsignedShort();
+                else if (len == 127) len = in.readLong();
+                byte[] mask = new byte[4];
+                if ((b1 & 0x80) != 0) in.readFully(mask);
+                byte[] payload = new byte[(int) len];
+                in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+
+                if (opcode == 0x8) {
+                    writeFrame(out, 0x8, payload);
+                    return;
+                } else if (opcode == 0x9) {
+                    writeFrame(out, 0xA, payload);
+                } else if (opcode == 0x2 || opcode == 0x0) {
+                    message.write(payload);
+                    if ((b0 & 0x80) != 0) {
+                        onMessage(out, message.toByteArray());
+                        message.reset();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            // Connection closed
+        } finally {
+            sockets.remove(socket);
+            if (out != null) varintConnections.remove(out);
+        }
+    }
+
+    private void serveRaw(DataInputStream in, OutputStream out) throws Exception {
+        while (true) {
+            int size = frameMode(out) == FrameMode.Varint ? readVarint(in)
+                    : in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+            byte[] data = new byte[size];
+            in.readFully(data);
+            Package<?> pack = Package.tryDecodeRaw(new ByteArray(data), EncoderFactory.PROTOBUF, codec);
+            if (pack != null) handle(out, pack);
+        }
+    }
+
+    private static void upgrade(DataInputStream in, OutputStream out) throws Exception {
+        String key = null;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WS_GUID).getBytes(StandardCharsets.US_ASCII));
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(digest) + "\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new EOFException();
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.write(0x80 | opcode);
+            if (payload.length < 126) {
+                out.write(payload.length);
+            } else if (payload.length < 65536) {
+                out.write(126);
+                out.write(payload.length >> 8);
+                out.write(payload.length);
+            } else {
+                out.write(127);
+                for (int i = 7; i >= 0; i--) {
+                    out.write((int) ((long) payload.length >> (i * 8)));
+                }
+            }
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    private void onMessage(OutputStream out, byte[] message) throws Exception {
+        ByteArray buffer = new ByteArray(message);
+        int size;
+        while ((size = Framing.readLength(buffer, frameMode(out))) >= 0) {
+            Package<?> pack = Package.tryDecodeRaw(new ByteArray(buffer.readBytes(size)), EncoderFactory.PROTOBUF, codec);
+            if (pack != null) handle(out, pack);
+        }
+    }
+
+    private void handle(OutputStream out, Package<?> pack) throws Exception {
+        PackageInfo info = ((Header) pack.getHeader()).getPackageInfo();
+        switch (info.getType()) {
+            case HankShakeReq:
+                ReqHankShake req = pack.decodeFromRaw(ReqHankShake.class, EncoderFactory.PROTOBUF).getData();
+                boolean varint = varintFraming && req.getFrameModesList().contains(FrameMode.Varint);
+                RespHandShake resp = RespHandShake.newBuilder()
+                        .setServerVersion("test")
+                        .setHeartBeatInterval(3000)
+                        .putAllRoutes(ROUTES)
+                        .setFrameMode(varint ? FrameMode.Varint : FrameMode.Uint16)
+                        .build();
+                reply(out, Package.createFromData(0, resp, PackageType.HankShakeResp_VALUE, EncoderFactory.PROTOBUF));
+                if (varint) varintConnections.add(out);
+                break;
+            case Ping:
+                reply(out, Package.createFromData(0, null, PackageType.Pong_VALUE, EncoderFactory.PROTOBUF));
+                break;
+            case Request:
+                boolean flakyAnswers = info.getRoute() == 4 && flakyCount.incrementAndGet() % 2 == 0;
+                if (info.getRoute() == 1 || flakyAnswers) {
+                    Header header = Header.newBuilder()
+                            .setPackageInfo(PackageInfo.newBuilder(info).setType(PackageType.Response))
+                            .build();
+                    reply(out, Package.createRaw(header, pack.getRawData()));
+                } else if (info.getRoute() == 3) {
+                    reply(out, Package.createFromData(0, null, PackageType.Kick_VALUE, EncoderFactory.PROTOBUF));
+                }
+                break;
+            case Notify:
+                if (info.getRoute() == 5) {
+                    Header header = Header.newBuilder()
+                            .setPackageInfo(PackageInfo.newBuilder(info).setType(PackageType.Push))
+                            .build();
+                    reply(out, Package.createRaw(header, pack.getRawData()));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reply(OutputStream out, Package<?> pack) throws Exception {
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF, codec);
+        ByteArray frame = new ByteArray(5 + data.getLength());
+        Framing.writeLength(frame, frameMode(out), data.getLength());
+        frame.writeBytes(data);
+        byte[] bytes = frame.slice(0, frame.woffset);
+        if (raw) {
+            synchronized (out) {
+                out.write(bytes);
+                out.flush();
+            }
+        } else {
+            writeFrame(out, 0x2, bytes);
+        }
+    }
+
+    private FrameMode frameMode(OutputStream out) {
+        return varintConnections.contains(out) ? FrameMode.Varint : FrameMode.Uint16;
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
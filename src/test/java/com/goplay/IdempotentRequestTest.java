@@ -0,0 +1,76 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.RetryBudget;
+import com.goplay.core.RetryPolicy;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests retries and hedged attempts on idempotent routes.
+ */
+public class IdempotentRequestTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testTimeoutIsRetriedOnIdempotentRoute() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        RetryPolicy policy = new RetryPolicy(1, 0, 0, new RetryBudget());
+        GoPlay.setIdempotent(GoPlayTestServer.ROUTE_FLAKY, policy);
+        try {
+            Status payload = Status.newBuilder().setCode(11).build();
+            // The server drops the first request and answers the retry
+            GoPlay.ResponseResult<Status> result = GoPlay.request(GoPlayTestServer.ROUTE_FLAKY, payload,
+                    Status.class, 200).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, result.getCode());
+            assertEquals(payload, result.data);
+            assertEquals(1, policy.getRetriedCount());
+            assertEquals(0, GoPlay.getPendingCount());
+        } finally {
+            GoPlay.setIdempotent(GoPlayTestServer.ROUTE_FLAKY, null);
+        }
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        RetryPolicy policy = new RetryPolicy(0, 0.95, 100, new RetryBudget());
+        GoPlay.setIdempotent(GoPlayTestServer.ROUTE_FLAKY, policy);
+        for (int i = 0; i < 100; i++) {
+            GoPlay.getRouteLatency(GoPlayTestServer.ROUTE_FLAKY).recordMillis(20);
+        }
+        try {
+            Status payload = Status.newBuilder().setCode(12).build();
+            // The first request is dropped; the duplicate sent at p95 answers
+            GoPlay.ResponseResult<Status> result = GoPlay.request(GoPlayTestServer.ROUTE_FLAKY, payload,
+                    Status.class, 2000).get(1, TimeUnit.SECONDS);
+
+            assertEquals(0, result.getCode());
+            assertEquals(1, policy.getHedgedCount());
+            assertEquals(1, policy.getHedgeWinCount());
+            // The losing attempt gave up its pending entry
+            assertEquals(0, GoPlay.getPendingCount());
+        } finally {
+            GoPlay.setIdempotent(GoPlayTestServer.ROUTE_FLAKY, null);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.OfflineBuffer;
+import com.goplay.core.RetryBudget;
+import com.goplay.core.RetryPolicy;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests calls made while disconnected, held in the offline buffer and replayed on reconnect.
+ */
+public class OfflineReplayTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testOfflineCallsReplayOnReconnect() throws Exception {
+        OfflineBuffer buffer = new OfflineBuffer(16, 64 * 1024);
+        GoPlay.setOfflineBuffer(buffer);
+        GoPlay.setIdempotent(GoPlayTestServer.ROUTE_ECHO, new RetryPolicy(0, 0, 0, new RetryBudget()));
+        try {
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+
+            Status payload = Status.newBuilder().setCode(31).setMessage("offline").build();
+            GoPlay.notify(GoPlayTestServer.ROUTE_SILENT, payload);
+            CompletableFuture<GoPlay.ResponseResult<Status>> held =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class);
+            assertFalse(held.isDone());
+            assertEquals(2, buffer.getCount());
+
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+            GoPlay.ResponseResult<Status> result = held.get(5, TimeUnit.SECONDS);
+            assertEquals(0, result.getCode());
+            assertEquals(payload, result.data);
+            assertEquals(2, buffer.getReplayedCount());
+        } finally {
+            GoPlay.setIdempotent(GoPlayTestServer.ROUTE_ECHO, null);
+            GoPlay.setOfflineBuffer(null);
+        }
+    }
+}
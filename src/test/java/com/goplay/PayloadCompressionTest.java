@@ -0,0 +1,61 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.PayloadCodec;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests requests whose content is deflated with a route dictionary.
+ */
+public class PayloadCompressionTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testCompressedEchoRequest() throws Exception {
+        byte[] dictionary = "{\"channel\":\"guild\",\"from\":\"player\",\"text\":\"anyone for the raid tonight\"}".getBytes();
+        PayloadCodec client = new PayloadCodec();
+        PayloadCodec serverCodec = new PayloadCodec();
+        client.addDictionary(GoPlayTestServer.ROUTE_ECHO, dictionary);
+        serverCodec.addDictionary(GoPlayTestServer.ROUTE_ECHO, dictionary);
+        server.setPayloadCodec(serverCodec);
+        GoPlay.setPayloadCodec(client);
+        try {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+            Status payload = Status.newBuilder().setCode(9)
+                    .setMessage("{\"channel\":\"guild\",\"from\":\"player42\",\"text\":\"anyone for the raid tonight\"}")
+                    .build();
+            GoPlay.ResponseResult<Status> result =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, result.getCode());
+            assertEquals(payload, result.data);
+            // Compressed both ways: the request by the client, the echo by the server
+            assertEquals(1, client.getCompressedCount());
+            assertEquals(1, serverCodec.getCompressedCount());
+            assertTrue(client.getCompressedBytes() * 2 < client.getRawBytes());
+        } finally {
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+            GoPlay.setPayloadCodec(null);
+            server.setPayloadCodec(null);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that pending requests are settled and released when the connection goes away.
+ */
+public class PendingRequestTest {
+    private static final int CYCLES = 10_000;
+
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testEchoRequest() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        Status payload = Status.newBuilder().setCode(7).setMessage("echo").build();
+        GoPlay.ResponseResult<Status> result =
+                GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getCode());
+        assertEquals(payload, result.data);
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+
+    @Test
+    public void testKickFailsPendingRequests() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Object[]> disconnected = GoPlay.waitForEvent(GoPlay.Consts.Events.DISCONNECTED);
+        CompletableFuture<GoPlay.ResponseResult<Status>> silent =
+                GoPlay.request(GoPlayTestServer.ROUTE_SILENT, Status.getDefaultInstance(), Status.class);
+        GoPlay.request(GoPlayTestServer.ROUTE_KICK, Status.getDefaultInstance(), Status.class);
+
+        GoPlay.ResponseResult<Status> result = silent.get(5, TimeUnit.SECONDS);
+        assertEquals(GoPlay.Consts.ClientStatus.CONNECTION_LOST, result.getCode());
+        disconnected.get(5, TimeUnit.SECONDS);
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+
+    @Test
+    public void testNoLeaksAfterConnectDisconnectCycles() throws Exception {
+        for (int i = 0; i < CYCLES; i++) {
+            assertTrue("connect failed in cycle " + i, GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<GoPlay.ResponseResult<Status>> future =
+                    GoPlay.request(GoPlayTestServer.ROUTE_SILENT, Status.getDefaultInstance(), Status.class);
+
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+
+            // Settled by the disconnect itself, not by the request timeout
+            assertTrue("pending request not failed in cycle " + i, future.isDone());
+            assertEquals(GoPlay.Consts.ClientStatus.CONNECTION_LOST, future.get().getCode());
+        }
+
+        assertEquals("live pending entries", 0, GoPlay.getPendingCount());
+        assertEquals("live listeners", 0, GoPlay.getEmitter().getCallbacks().size());
+    }
+}
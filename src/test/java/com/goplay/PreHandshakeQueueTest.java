@@ -0,0 +1,101 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests calls made while the handshake is under way: held until it completes, or
+ * failed when the connect does.
+ */
+public class PreHandshakeQueueTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testCallsRacingConnectTimeoutAllComplete() throws Exception {
+        // Accepts connections but never answers the handshake, so every connect times out
+        ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        List<Socket> accepted = new CopyOnWriteArrayList<>();
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) accepted.add(silent.accept());
+            } catch (Exception ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        long connectTimeout = GoPlay.Consts.TimeOut.CONNECT;
+        GoPlay.setTimeout("CONNECT", 20);
+        List<CompletableFuture<GoPlay.ResponseResult<Status>>> calls = new CopyOnWriteArrayList<>();
+        try {
+            for (int attempt = 0; attempt < 50; attempt++) {
+                CompletableFuture<Boolean> connected = GoPlay.connect("tcp://127.0.0.1:" + silent.getLocalPort());
+                AtomicBoolean done = new AtomicBoolean();
+                Thread caller = new Thread(() -> {
+                    while (!done.get()) {
+                        calls.add(GoPlay.request(GoPlayTestServer.ROUTE_ECHO, Status.getDefaultInstance(), Status.class));
+                    }
+                });
+                caller.start();
+                assertFalse(connected.get(5, TimeUnit.SECONDS));
+                Thread.sleep(2);
+                done.set(true);
+                caller.join();
+            }
+
+            // Held calls are failed with the connect, never left behind in the queue
+            for (CompletableFuture<GoPlay.ResponseResult<Status>> call : calls) {
+                assertEquals(GoPlay.Consts.ClientStatus.CONNECTION_LOST, call.get(5, TimeUnit.SECONDS).getCode());
+            }
+            assertEquals(0, GoPlay.getPendingCount());
+        } finally {
+            GoPlay.setTimeout("CONNECT", connectTimeout);
+            silent.close();
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCallsBeforeHandshakeAreHeld() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Boolean> connected = GoPlay.connect(server.getUrl());
+        Status payload = Status.newBuilder().setCode(21).setMessage("early").build();
+        GoPlay.notify(GoPlayTestServer.ROUTE_SILENT, payload);
+        CompletableFuture<GoPlay.ResponseResult<Status>> early =
+                GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class);
+
+        assertTrue(connected.get(5, TimeUnit.SECONDS));
+        GoPlay.ResponseResult<Status> result = early.get(5, TimeUnit.SECONDS);
+        assertEquals(0, result.getCode());
+        assertEquals(payload, result.data);
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+}
@@ -0,0 +1,92 @@
+package com.goplay;
+
+import com.goplay.core.CircuitBreaker;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.RateLimiter;
+import com.goplay.core.RequestWindow;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests how requests are admitted: the request window, rate limits and circuit breakers.
+ */
+public class RequestAdmissionTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testBlockPolicyNeverParksTheScheduler() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        GoPlay.setRequestWindow(1, RequestWindow.Policy.BLOCK);
+        RateLimiter limiter = new RateLimiter(20, 1, 0, 0, RateLimiter.Policy.DELAY);
+        // Spend the burst, so both echoes below are sent later from the scheduler
+        limiter.acquire(0, false);
+        GoPlay.setRateLimit(GoPlayTestServer.ROUTE_ECHO, limiter);
+        try {
+            CompletableFuture<GoPlay.ResponseResult<Status>> held =
+                    GoPlay.request(GoPlayTestServer.ROUTE_SILENT, Status.getDefaultInstance(), Status.class, 300);
+            Status payload = Status.newBuilder().setCode(3).setMessage("delayed").build();
+            CompletableFuture<GoPlay.ResponseResult<Status>> first =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class);
+            CompletableFuture<GoPlay.ResponseResult<Status>> second =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class);
+
+            // Parked delayed sends would hold both scheduler threads, so the silent
+            // request could not time out and free the slot before the window gave up
+            assertEquals(StatusCode.Timeout_VALUE, held.get(5, TimeUnit.SECONDS).getCode());
+            assertEquals(payload, first.get(2, TimeUnit.SECONDS).data);
+            assertEquals(payload, second.get(2, TimeUnit.SECONDS).data);
+        } finally {
+            GoPlay.setRateLimit(GoPlayTestServer.ROUTE_ECHO, null);
+            GoPlay.setRequestWindow(0, RequestWindow.Policy.QUEUE);
+        }
+    }
+
+    @Test
+    public void testOpenCircuitRejectsBatchItems() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, 60_000, 1);
+        GoPlay.setCircuitBreaker(GoPlayTestServer.ROUTE_ECHO, breaker);
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(breaker.tryAcquire());
+                breaker.onFailure();
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            List<Status> payloads = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                payloads.add(Status.newBuilder().setCode(i).build());
+            }
+            GoPlay.BatchResult<Status> batch = GoPlay.requestAll(GoPlayTestServer.ROUTE_ECHO, payloads, Status.class);
+
+            for (GoPlay.ResponseResult<Status> result : batch.all.get(5, TimeUnit.SECONDS)) {
+                assertEquals(GoPlay.Consts.ClientStatus.CIRCUIT_OPEN, result.getCode());
+            }
+            assertEquals(5, breaker.getRejectedCount());
+            assertEquals(0, GoPlay.getPendingCount());
+        } finally {
+            GoPlay.setCircuitBreaker(GoPlayTestServer.ROUTE_ECHO, null);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.goplay;
+
+import com.goplay.core.AdaptiveTimeout;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests request timeouts: per call, and derived from the route's latency.
+ */
+public class RequestTimeoutTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testTimeoutsDoNotRaiseAdaptiveTimeout() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        // The flaky route drops every second request; the others answer at once. The
+        // losses stay within the tail p25 leaves, so they must not move it
+        GoPlay.setAdaptiveTimeout(GoPlayTestServer.ROUTE_FLAKY, new AdaptiveTimeout(0.25, 2.0, 50, 300, 20));
+        try {
+            for (int batch = 0; batch < 6; batch++) {
+                List<CompletableFuture<GoPlay.ResponseResult<Status>>> calls = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    calls.add(GoPlay.request(GoPlayTestServer.ROUTE_FLAKY, Status.getDefaultInstance(), Status.class));
+                }
+                for (CompletableFuture<GoPlay.ResponseResult<Status>> call : calls) {
+                    call.get(5, TimeUnit.SECONDS);
+                }
+            }
+
+            assertTrue(GoPlay.getRouteLatency(GoPlayTestServer.ROUTE_FLAKY).getCensoredCount() >= 20);
+            // Derived from the answers alone, not pushed up to the maximum by the losses
+            assertEquals(50, GoPlay.getRequestTimeout(GoPlayTestServer.ROUTE_FLAKY));
+        } finally {
+            GoPlay.setAdaptiveTimeout(GoPlayTestServer.ROUTE_FLAKY, null);
+        }
+    }
+
+    @Test
+    public void testPerCallTimeoutOverride() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        GoPlay.ResponseResult<Status> result = GoPlay.request(GoPlayTestServer.ROUTE_SILENT,
+                Status.getDefaultInstance(), Status.class, 100).get(5, TimeUnit.SECONDS);
+
+        assertEquals(StatusCode.Timeout_VALUE, result.getCode());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < GoPlay.Consts.TimeOut.REQUEST);
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+}
@@ -0,0 +1,123 @@
+package com.goplay;
+
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.IncomingStream;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests streaming large payloads through chunked transfer, both ways.
+ */
+public class StreamTransferTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.onStream(GoPlayTestServer.ROUTE_STREAM, null);
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testFileComesBackAsStream() throws Exception {
+        byte[] content = randomBytes(20 * Package.MAX_CHUNK_SIZE + 123);
+        Path file = Files.createTempFile("goplay-stream-test", ".bin");
+        Files.write(file, content);
+        CompletableFuture<byte[]> echoed = new CompletableFuture<>();
+        GoPlay.onStream(GoPlayTestServer.ROUTE_STREAM, stream -> {
+            try (InputStream in = stream.asInputStream()) {
+                echoed.complete(readAll(in));
+            } catch (IOException e) {
+                echoed.completeExceptionally(e);
+            }
+        });
+        try {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+            long sent = GoPlay.sendFile(GoPlayTestServer.ROUTE_STREAM, file).get(10, TimeUnit.SECONDS);
+
+            assertEquals(content.length, sent);
+            assertArrayEquals(content, echoed.get(10, TimeUnit.SECONDS));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testChannelThatEndsEarlyFails() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        byte[] content = randomBytes(3 * Package.MAX_CHUNK_SIZE);
+
+        CompletableFuture<Long> sent = GoPlay.sendStream(GoPlayTestServer.ROUTE_STREAM,
+                Channels.newChannel(new ByteArrayInputStream(content)), content.length + 1);
+
+        try {
+            sent.get(10, TimeUnit.SECONDS);
+            fail("expected the transfer to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+
+    @Test
+    public void testLargeResponseAsStreamOrWhole() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        char[] text = new char[5 * Package.MAX_CHUNK_SIZE];
+        Arrays.fill(text, 'x');
+        Status payload = Status.newBuilder().setCode(3).setMessage(new String(text)).build();
+
+        GoPlay.ResponseResult<IncomingStream> streamed =
+                GoPlay.requestStream(GoPlayTestServer.ROUTE_ECHO, payload).get(5, TimeUnit.SECONDS);
+        assertEquals(0, streamed.getCode());
+        try (InputStream in = streamed.data.asInputStream()) {
+            assertEquals(payload, Status.parseFrom(in));
+        }
+
+        // Without a stream the chunks are joined into the message
+        GoPlay.ResponseResult<Status> whole =
+                GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+        assertEquals(payload, whole.data);
+        assertEquals(0, GoPlay.getPendingCount());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
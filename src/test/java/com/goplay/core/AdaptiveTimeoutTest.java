@@ -0,0 +1,103 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for latency quantiles and the timeouts derived from them.
+ */
+public class AdaptiveTimeoutTest {
+
+    @Test
+    public void testQuantilesWithinOneBucket() {
+        LatencyTracker tracker = new LatencyTracker(1_000_000);
+        for (int ms = 1; ms <= 1000; ms++) {
+            tracker.recordMillis(ms);
+        }
+
+        assertEquals(500, tracker.getQuantileMs(0.5), 50);
+        assertEquals(990, tracker.getQuantileMs(0.99), 99);
+        assertEquals(-1, new LatencyTracker().getQuantileMs(0.5), 0);
+    }
+
+    @Test
+    public void testDecayKeepsShape() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        for (int i = 0; i < 1000; i++) {
+            tracker.recordMillis(10);
+        }
+
+        assertTrue(tracker.getCount() < 100);
+        assertEquals(10, tracker.getQuantileMs(0.5), 1);
+    }
+
+    @Test
+    public void testTimeoutIsClampedAndFallsBack() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout(0.99, 2.0, 100, 2000, 10);
+        LatencyTracker tracker = new LatencyTracker();
+
+        assertEquals(2000, timeout.timeoutMs(tracker, 3000));
+
+        for (int i = 0; i < 100; i++) {
+            tracker.recordMillis(5);
+        }
+        assertEquals(100, timeout.timeoutMs(tracker, 3000));
+
+        for (int i = 0; i < 100; i++) {
+            tracker.recordMillis(300);
+        }
+        assertEquals(600, timeout.timeoutMs(tracker, 3000), 60);
+    }
+
+    @Test
+    public void testTimeoutsDoNotRatchetTheDerivedTimeout() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout(1, 10_000);
+        LatencyTracker tracker = new LatencyTracker();
+        Random random = new Random(37);
+
+        // Answers take 1-20 ms; about 0.02% never come and time out, within the p99.9 tail
+        long current = 0;
+        for (int i = 0; i < 50_000; i++) {
+            current = timeout.timeoutMs(tracker, 3000);
+            if (random.nextInt(5000) == 0) {
+                tracker.recordCensored();
+            } else {
+                tracker.recordMillis(1 + random.nextInt(20));
+            }
+        }
+
+        // p99.9 of the answers is 20 ms, so 2x that within one bucket
+        assertEquals(40, current, 5);
+        assertTrue(tracker.getCensoredCount() > 0);
+    }
+
+    @Test
+    public void testTimeoutRecoversWhenLatencyStepsPastIt() {
+        AdaptiveTimeout timeout = new AdaptiveTimeout(1, 10_000);
+        LatencyTracker tracker = new LatencyTracker();
+        for (int i = 0; i < 5000; i++) {
+            tracker.recordMillis(10);
+        }
+        assertEquals(22, timeout.timeoutMs(tracker, 3000), 3);
+
+        // Every answer now takes 100 ms, past the derived timeout
+        long current = 0;
+        int timedOut = 0;
+        for (int i = 0; i < 20_000; i++) {
+            current = timeout.timeoutMs(tracker, 3000);
+            if (current < 100) {
+                tracker.recordCensored();
+                timedOut++;
+            } else {
+                tracker.recordMillis(100);
+            }
+        }
+
+        // A few calls time out before the timeout grows, then it settles on the new latency
+        assertTrue(timedOut < 20);
+        assertEquals(220, current, 25);
+    }
+}
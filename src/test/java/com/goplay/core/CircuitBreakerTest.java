@@ -0,0 +1,79 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the circuit breaker state machine.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testTripsAtFailureThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60_000, 1);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        // Below the minimum number of calls, so still closed
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testHalfOpenProbeCloses() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 10, 2);
+        List<String> changes = new ArrayList<>();
+        breaker.setListener((from, to) -> changes.add(from + "->" + to));
+
+        breaker.tryAcquire();
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse("only two probes allowed", breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), changes);
+    }
+
+    @Test
+    public void testHalfOpenFailureReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 10, 1);
+        breaker.tryAcquire();
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+    }
+
+    @Test
+    public void testIgnoredProbeFreesSlot() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 1, 0.5, 10, 1);
+        breaker.tryAcquire();
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onIgnored();
+        assertTrue(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,75 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+
+    @Test
+    public void testChunkedPackageSurvivesSmallReads() throws Exception {
+        FrameCodec sender = new FrameCodec();
+        FrameCodec receiver = new FrameCodec();
+        char[] text = new char[150 * 1024];
+        Arrays.fill(text, 'x');
+        Status status = Status.newBuilder().setCode(5).setMessage(new String(text)).build();
+        byte[][] frames = sender.encode(
+                Package.createFromData(1, status, PackageType.Push_VALUE, EncoderFactory.PROTOBUF),
+                EncoderFactory.PROTOBUF, null);
+        assertEquals(3, frames.length);
+
+        ByteArray wire = new ByteArray(0);
+        for (byte[] frame : frames) {
+            wire.writeBytes(frame);
+        }
+        byte[] bytes = wire.slice(0, wire.woffset);
+        Package<?> whole = null;
+        int received = 0;
+        // Reads that end mid-prefix and mid-frame
+        for (int off = 0; off < bytes.length; off += 999) {
+            receiver.append(ByteBuffer.wrap(bytes, off, Math.min(999, bytes.length - off)));
+            byte[] frame;
+            while ((frame = receiver.nextFrame()) != null) {
+                received++;
+                Package<?> chunk = Package.tryDecodeRaw(new ByteArray(frame), EncoderFactory.PROTOBUF, null);
+                String key = FrameCodec.chunkKey(chunk);
+                Package<?> joined = receiver.collectChunk(chunk);
+                if (joined == null) {
+                    assertTrue(receiver.isCollecting(key));
+                } else {
+                    whole = joined;
+                }
+            }
+        }
+
+        assertEquals(3, received);
+        assertNotNull(whole);
+        assertEquals(status, whole.decodeFromRaw(Status.class, EncoderFactory.PROTOBUF).getData());
+    }
+
+    @Test
+    public void testBadLengthDropsWhatWasReceived() throws Exception {
+        FrameCodec codec = new FrameCodec();
+        codec.setMode(FrameMode.Varint);
+        codec.append(ByteBuffer.wrap(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f, 1, 2}));
+        try {
+            codec.nextFrame();
+            fail("oversized frame accepted");
+        } catch (IOException expected) {
+        }
+        assertNull(codec.nextFrame());
+
+        codec.append(ByteBuffer.wrap(new byte[]{2, 7, 8}));
+        assertArrayEquals(new byte[]{7, 8}, codec.nextFrame());
+        assertNull(codec.nextFrame());
+
+        codec.reset();
+        assertEquals(FrameMode.Uint16, codec.getMode());
+    }
+}
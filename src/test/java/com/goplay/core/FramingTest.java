@@ -0,0 +1,54 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.FrameMode;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class FramingTest {
+
+    @Test
+    public void testVarintRoundTrip() throws Exception {
+        int[] lengths = {0, 1, 127, 128, 16383, 16384, 65535, 65536, Framing.MAX_VARINT_FRAME_SIZE};
+        ByteArray buf = new ByteArray(0);
+        for (int length : lengths) {
+            Framing.writeLength(buf, FrameMode.Varint, length);
+        }
+        for (int length : lengths) {
+            assertEquals(length, Framing.readLength(buf, FrameMode.Varint));
+        }
+        assertEquals(buf.woffset, buf.roffset);
+    }
+
+    @Test
+    public void testVarintIsShortForSmallFrames() {
+        ByteArray buf = new ByteArray(0);
+        Framing.writeLength(buf, FrameMode.Varint, 100);
+        assertEquals(1, buf.woffset);
+        Framing.writeLength(buf, FrameMode.Varint, 500 * 1024);
+        assertEquals(4, buf.woffset);
+    }
+
+    @Test
+    public void testIncompletePrefixIsLeftUnread() throws Exception {
+        ByteArray buf = new ByteArray(0);
+        Framing.writeLength(buf, FrameMode.Varint, 300 * 1024);
+        buf.woffset--;
+        assertEquals(-1, Framing.readLength(buf, FrameMode.Varint));
+        assertEquals(0, buf.roffset);
+
+        ByteArray uint16 = new ByteArray(0);
+        uint16.writeUint8(5);
+        assertEquals(-1, Framing.readLength(uint16, FrameMode.Uint16));
+        assertEquals(0, uint16.roffset);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOversizedFrameIsRefused() throws Exception {
+        ByteArray buf = new ByteArray(0);
+        Framing.writeLength(buf, FrameMode.Varint, Framing.MAX_VARINT_FRAME_SIZE + 1);
+        Framing.readLength(buf, FrameMode.Varint);
+    }
+}
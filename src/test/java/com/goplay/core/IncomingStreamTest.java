@@ -0,0 +1,81 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IncomingStreamTest {
+
+    @Test
+    public void testReadsChunksInOrder() throws Exception {
+        IncomingStream stream = new IncomingStream(3, 1024);
+        assertFalse(stream.offer(new byte[]{1, 2}));
+        assertFalse(stream.offer(new byte[0]));
+        assertTrue(stream.offer(new byte[]{3}));
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        while (stream.read(dst) >= 0) {
+        }
+        assertEquals(3, dst.position());
+        assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOf(dst.array(), 3));
+        assertFalse(stream.isSpilled());
+        stream.close();
+    }
+
+    @Test
+    public void testSpillsPastThreshold() throws Exception {
+        IncomingStream stream = new IncomingStream(10, 250);
+        for (int i = 0; i < 10; i++) {
+            byte[] chunk = new byte[100];
+            Arrays.fill(chunk, (byte) i);
+            stream.offer(chunk);
+        }
+        assertTrue(stream.isSpilled());
+        assertEquals(1000, stream.getReceivedBytes());
+
+        try (InputStream in = stream.asInputStream()) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i / 100, in.read());
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testReadBlocksUntilChunkArrives() throws Exception {
+        IncomingStream stream = new IncomingStream(2, 1024);
+        CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return stream.read(ByteBuffer.allocate(16));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(read.isDone());
+
+        stream.offer(new byte[5]);
+        assertEquals(5, (int) read.get(5, TimeUnit.SECONDS));
+        assertFalse(stream.isComplete());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testFailureEndsReads() throws Exception {
+        IncomingStream stream = new IncomingStream(2, 1024);
+        stream.offer(new byte[]{1});
+        stream.fail(new EOFException("connection lost"));
+
+        ByteBuffer dst = ByteBuffer.allocate(16);
+        // Data received before the failure is still read
+        assertEquals(1, stream.read(dst));
+        stream.read(dst);
+    }
+}
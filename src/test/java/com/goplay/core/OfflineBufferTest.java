@@ -0,0 +1,71 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the bounds, eviction order and replay of the offline buffer.
+ */
+public class OfflineBufferTest {
+
+    @Test
+    public void testReplaysInOrderAcrossPriorities() {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1000);
+        List<Integer> replayed = new ArrayList<>();
+        buffer.add(1, 10, () -> replayed.add(1), null);
+        buffer.add(0, 10, () -> replayed.add(2), null);
+        buffer.add(5, 10, () -> replayed.add(3), null);
+
+        assertEquals(3, buffer.replay());
+        assertEquals(List.of(1, 2, 3), replayed);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.getBytes());
+    }
+
+    @Test
+    public void testEvictsLowestPriorityFirst() {
+        OfflineBuffer buffer = new OfflineBuffer(2, 1000);
+        List<String> evicted = new ArrayList<>();
+        buffer.add(1, 10, () -> { }, () -> evicted.add("high"));
+        buffer.add(0, 10, () -> { }, () -> evicted.add("low"));
+
+        assertNotNull(buffer.add(1, 10, () -> { }, () -> evicted.add("high2")));
+        assertEquals(List.of("low"), evicted);
+
+        // Only higher priorities could make room
+        assertNull(buffer.add(0, 10, () -> { }, () -> evicted.add("refused")));
+        assertEquals(1, buffer.getRefusedCount());
+        assertEquals(2, buffer.getCount());
+    }
+
+    @Test
+    public void testByteBoundEvictsOldestOfSamePriority() {
+        OfflineBuffer buffer = new OfflineBuffer(100, 100);
+        List<Integer> evicted = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int n = i;
+            buffer.add(0, 30, () -> { }, () -> evicted.add(n));
+        }
+
+        assertEquals(List.of(0), evicted);
+        assertEquals(90, buffer.getBytes());
+        assertNull("larger than the whole buffer", buffer.add(9, 101, () -> { }, null));
+    }
+
+    @Test
+    public void testRemovedEntryIsNotReplayed() {
+        OfflineBuffer buffer = new OfflineBuffer(10, 1000);
+        List<Integer> replayed = new ArrayList<>();
+        OfflineBuffer.Entry entry = buffer.add(0, 10, () -> replayed.add(1), null);
+        buffer.add(0, 10, () -> replayed.add(2), null);
+
+        assertTrue(buffer.remove(entry));
+        assertFalse(buffer.remove(entry));
+        buffer.replay();
+        assertEquals(List.of(2), replayed);
+    }
+}
@@ -0,0 +1,267 @@
+package com.goplay.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the outbound writer.
+ */
+public class OutboundWriterTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPerProducerOrderUnderContention() throws Exception {
+        int producers = 16;
+        int perProducer = 2000;
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutboundWriter writer = new OutboundWriter(executor, written::write, 4096);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    writer.offer(new byte[]{(byte) id, (byte) (i >> 8), (byte) i});
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+
+        byte[] data = written.toByteArray();
+        assertEquals(producers * perProducer * 3, data.length);
+        int[] next = new int[producers];
+        for (int off = 0; off < data.length; off += 3) {
+            int id = data[off];
+            int seq = ((data[off + 1] & 0xff) << 8) | (data[off + 2] & 0xff);
+            assertEquals("producer " + id + " out of order", next[id]++, seq);
+        }
+        assertTrue(writer.getBatchCount() < producers * perProducer);
+    }
+
+    @Test
+    public void testShutdownWritesQueuedFramesThenRejects() throws Exception {
+        List<byte[]> batches = new ArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        OutboundWriter writer = new OutboundWriter(executor, batches::add, 4);
+
+        writer.offer(new byte[]{1, 2});
+        writer.offer(new byte[]{3, 4});
+        writer.offer(new byte[]{5});
+        writer.offer(new byte[]{6, 7, 8, 9, 10});
+        gate.countDown();
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+
+        assertFalse(writer.offer(new byte[]{11}));
+        assertEquals(3, batches.size());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, batches.get(0));
+        assertArrayEquals(new byte[]{5}, batches.get(1));
+        assertArrayEquals(new byte[]{6, 7, 8, 9, 10}, batches.get(2));
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testAbortDropsQueuedFrames() throws Exception {
+        List<byte[]> batches = new ArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        OutboundWriter writer = new OutboundWriter(executor, batches::add, 1024);
+
+        writer.offer(new byte[]{1});
+        writer.abort();
+        gate.countDown();
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+
+        assertTrue(batches.isEmpty());
+        assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testBulkTransfersInterleaveAndControlPreempts() throws Exception {
+        List<Byte> order = new ArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        CountDownLatch written = new CountDownLatch(9);
+        OutboundWriter[] writer = new OutboundWriter[1];
+        writer[0] = new OutboundWriter(executor, data -> {
+            order.add(data[0]);
+            written.countDown();
+            // A pong becoming due mid-upload goes out at the next chunk boundary
+            if (data[0] == 11) writer[0].offer(OutboundWriter.Lane.CONTROL, new byte[]{99});
+        }, 1);
+
+        writer[0].offerTransfer(new byte[][]{{10}, {11}, {12}});
+        writer[0].offerTransfer(new byte[][]{{20}, {21}, {22}});
+        writer[0].offer(new byte[]{50});
+        writer[0].offer(OutboundWriter.Lane.CONTROL, new byte[]{90});
+        gate.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+
+        assertEquals(List.of((byte) 90, (byte) 50, (byte) 10, (byte) 20, (byte) 11, (byte) 99,
+                (byte) 21, (byte) 12, (byte) 22), order);
+        OutboundWriter.LaneStats bulk = writer[0].getLaneStats(OutboundWriter.Lane.BULK);
+        assertEquals(6, bulk.getWrittenCount());
+        assertEquals(0, bulk.getQueueDepth());
+        assertEquals(2, writer[0].getLaneStats(OutboundWriter.Lane.CONTROL).getWrittenCount());
+    }
+
+    @Test
+    public void testExpiredFramesAreSkipped() throws Exception {
+        List<byte[]> batches = new ArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        OutboundWriter writer = new OutboundWriter(executor, batches::add, 1024);
+        int[] expired = {0};
+        long past = System.nanoTime() - 1;
+        long future = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+
+        writer.offer(OutboundWriter.Lane.INTERACTIVE, new byte[]{1}, past, () -> expired[0]++);
+        writer.offer(OutboundWriter.Lane.INTERACTIVE, new byte[]{2}, future, () -> expired[0]++);
+        writer.offerTransfer(new byte[][]{{3}, {4}}, past, () -> expired[0]++);
+        writer.offer(new byte[]{5});
+        gate.countDown();
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, batches.size());
+        assertArrayEquals(new byte[]{2, 5}, batches.get(0));
+        assertEquals(2, expired[0]);
+        assertEquals(3, writer.getExpiredCount());
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void testConflatedOffersKeepOnlyLatest() throws Exception {
+        List<byte[]> batches = new ArrayList<>();
+        CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        OutboundWriter writer = new OutboundWriter(executor, batches::add, 1024);
+
+        for (int i = 1; i <= 10; i++) {
+            writer.offerConflated("pos", new byte[]{(byte) i});
+        }
+        writer.offer(new byte[]{50});
+        writer.offerConflated("input", new byte[]{60});
+        writer.offerConflated("pos", new byte[]{11});
+        gate.countDown();
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+
+        // The latest position keeps the queue slot of the first unsent one
+        assertEquals(1, batches.size());
+        assertArrayEquals(new byte[]{11, 50, 60}, batches.get(0));
+        assertEquals(10, writer.getConflatedCount());
+        assertEquals(10 / 12.0, writer.getConflationRatio(), 1e-9);
+    }
+
+    @Test
+    public void testCorkedFramesLeaveInOneBatch() throws Exception {
+        List<byte[]> batches = new ArrayList<>();
+        OutboundWriter writer = new OutboundWriter(executor, batches::add, 1024);
+
+        writer.cork();
+        writer.offer(new byte[]{1});
+        writer.offer(OutboundWriter.Lane.CONTROL, new byte[]{2});
+        writer.offer(new byte[]{3});
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+        assertTrue(batches.isEmpty());
+
+        writer.uncork();
+        writer.shutdown().get(5, TimeUnit.SECONDS);
+        assertEquals(1, batches.size());
+        assertArrayEquals(new byte[]{2, 1, 3}, batches.get(0));
+    }
+
+    @Test
+    public void testPongStaysAheadOfUploadOnSlowWire() throws Exception {
+        // An emulated socket that sends 8 MB/s; queued counts what it has not sent yet
+        long bytesPerMs = 8 * 1024;
+        AtomicLong queued = new AtomicLong();
+        ScheduledExecutorService wire = Executors.newSingleThreadScheduledExecutor();
+        wire.scheduleAtFixedRate(() -> queued.updateAndGet(q -> Math.max(0, q - bytesPerMs)),
+                1, 1, TimeUnit.MILLISECONDS);
+        long[] aheadOfPong = {-1};
+        CountDownLatch pongWritten = new CountDownLatch(1);
+        OutboundWriter writer = new OutboundWriter(executor, data -> {
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == 99) {
+                    aheadOfPong[0] = queued.get() + i;
+                    pongWritten.countDown();
+                }
+            }
+            queued.addAndGet(data.length);
+        }, 64 * 1024);
+        long watermark = 128 * 1024;
+        writer.setBackpressure(queued::get, watermark, 1024 * 1024, wire);
+        try {
+            byte[][] chunks = new byte[64][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new byte[64 * 1024 - 16];
+            }
+            writer.offerTransfer(chunks);
+            Thread.sleep(50);
+            writer.offer(OutboundWriter.Lane.CONTROL, new byte[]{99});
+
+            assertTrue(pongWritten.await(5, TimeUnit.SECONDS));
+            // Behind at most the watermark and one chunk, not the rest of the 4 MB upload
+            assertTrue("pong behind " + aheadOfPong[0] + " bytes", aheadOfPong[0] < watermark + 64 * 1024);
+            assertTrue((aheadOfPong[0] / bytesPerMs) < 30);
+            writer.shutdown().get(10, TimeUnit.SECONDS);
+            assertEquals(64, writer.getLaneStats(OutboundWriter.Lane.BULK).getWrittenCount());
+        } finally {
+            wire.shutdownNow();
+        }
+    }
+}
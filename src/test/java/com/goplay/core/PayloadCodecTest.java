@@ -0,0 +1,173 @@
+package com.goplay.core;
+
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for dictionary compression of package content and dictionary training.
+ */
+public class PayloadCodecTest {
+    private static final String ROUTE = "chat.history";
+    private static final int ENCODED_ROUTE = 7;
+
+    @Test
+    public void testTrainedDictionaryBeatsPlainDeflate() {
+        List<byte[]> samples = samples(500, 0);
+        PayloadCodec codec = codec(DictionaryTrainer.train(samples, 2048));
+
+        long plain = 0;
+        long raw = 0;
+        for (byte[] sample : samples(200, 1000)) {
+            byte[] packed = codec.compress(ENCODED_ROUTE, sample, sample.length);
+            if (packed == null) continue;
+            raw += sample.length;
+            plain += Math.min(sample.length, deflate(sample));
+        }
+        assertTrue(codec.getCompressedCount() > 150);
+        assertTrue("dictionary should more than halve what plain deflate sends",
+                codec.getCompressedBytes() * 2 < plain);
+        assertTrue(codec.getCompressedBytes() < raw / 2);
+    }
+
+    @Test
+    public void testRoundTripThroughPackage() throws Exception {
+        byte[] dictionary = DictionaryTrainer.train(samples(200, 0), 1024);
+        PayloadCodec sender = codec(dictionary);
+        PayloadCodec receiver = codec(dictionary);
+
+        Status data = Status.newBuilder().setCode(3).setMessage(new String(samples(1, 9999).get(0))).build();
+        Package<Status> pack = Package.createFromData(ENCODED_ROUTE, data, PackageType.Request_VALUE, EncoderFactory.PROTOBUF);
+        ByteArray plain = pack.encode(EncoderFactory.PROTOBUF);
+        ByteArray packed = pack.encode(EncoderFactory.PROTOBUF, sender);
+        assertTrue(packed.getLength() < plain.getLength());
+
+        Package<?> decoded = Package.tryDecodeRaw(packed, EncoderFactory.PROTOBUF, receiver);
+        PackageInfo info = ((Header) decoded.getHeader()).getPackageInfo();
+        assertEquals(0, info.getDictionary());
+        assertEquals(data, decoded.decodeFromRaw(Status.class, EncoderFactory.PROTOBUF).getData());
+        // The package itself stays uncompressed, so encoding it again gives the same bytes
+        assertArrayEquals(plain.getData(), pack.encode(EncoderFactory.PROTOBUF).getData());
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void testUnknownDictionaryIsRejected() throws Exception {
+        PayloadCodec sender = codec(DictionaryTrainer.train(samples(200, 0), 1024));
+        PayloadCodec receiver = codec("something else entirely".getBytes());
+        byte[] sample = samples(1, 5000).get(0);
+        byte[] packed = sender.compress(ENCODED_ROUTE, sample, sample.length);
+
+        receiver.decompress(ENCODED_ROUTE, sender.getDictionaryId(ENCODED_ROUTE), packed);
+    }
+
+    @Test
+    public void testRetrainedDictionaryKeepsOldOneDecodable() throws Exception {
+        byte[] first = DictionaryTrainer.train(samples(200, 0), 1024);
+        byte[] second = DictionaryTrainer.train(samples(200, 3000), 512);
+        PayloadCodec old = codec(first);
+        PayloadCodec receiver = codec(first);
+        receiver.addDictionary(ROUTE, second);
+        assertNotEquals(old.getDictionaryId(ENCODED_ROUTE), receiver.getDictionaryId(ENCODED_ROUTE));
+
+        byte[] sample = samples(1, 7000).get(0);
+        byte[] packed = old.compress(ENCODED_ROUTE, sample, sample.length);
+        assertArrayEquals(sample, receiver.decompress(ENCODED_ROUTE, old.getDictionaryId(ENCODED_ROUTE), packed));
+    }
+
+    @Test
+    public void testIncompressibleContentIsLeftAlone() {
+        PayloadCodec codec = codec(DictionaryTrainer.train(samples(200, 0), 1024));
+        byte[] noise = new byte[100];
+        new Random(1).nextBytes(noise);
+
+        assertNull(codec.compress(ENCODED_ROUTE, noise, noise.length));
+        assertNull("routes without a dictionary are not compressed", codec.compress(ENCODED_ROUTE + 1, noise, noise.length));
+        assertEquals(1, codec.getSkippedCount());
+    }
+
+    @Test
+    public void testTrainsPerRouteFromCapture() throws Exception {
+        ByteArray capture = new ByteArray(0);
+        RespHandShake hs = RespHandShake.newBuilder().putRoutes(ROUTE, ENCODED_ROUTE).putRoutes("rare", 8).build();
+        frame(capture, Package.createFromData(0, hs, PackageType.HankShakeResp_VALUE, EncoderFactory.PROTOBUF));
+        for (byte[] sample : samples(100, 0)) {
+            Status data = Status.newBuilder().setMessage(new String(sample)).build();
+            frame(capture, Package.createFromData(ENCODED_ROUTE, data, PackageType.Push_VALUE, EncoderFactory.PROTOBUF));
+        }
+        frame(capture, Package.createFromData(8, Status.newBuilder().setCode(1).build(),
+                PackageType.Notify_VALUE, EncoderFactory.PROTOBUF));
+
+        Path file = Files.createTempFile("capture", ".bin");
+        Path dir = Files.createTempDirectory("dicts");
+        try {
+            Files.write(file, capture.slice(0, capture.woffset));
+            Map<String, List<byte[]>> samples = DictionaryTrainer.readCapture(file);
+            assertEquals(100, samples.get(ROUTE).size());
+            assertEquals(1, samples.get("rare").size());
+
+            DictionaryTrainer.main(new String[]{file.toString(), dir.toString(), "1024"});
+            assertTrue(Files.exists(dir.resolve(ROUTE + ".dict")));
+            assertFalse("too few samples to train", Files.exists(dir.resolve("rare.dict")));
+            assertTrue(Files.size(dir.resolve(ROUTE + ".dict")) <= 1024);
+
+            PayloadCodec loaded = PayloadCodec.load(dir);
+            loaded.bindRoutes(hs.getRoutesMap());
+            assertNotEquals(0, loaded.getDictionaryId(ENCODED_ROUTE));
+        } finally {
+            Files.deleteIfExists(dir.resolve(ROUTE + ".dict"));
+            Files.deleteIfExists(dir);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static PayloadCodec codec(byte[] dictionary) {
+        PayloadCodec codec = new PayloadCodec();
+        codec.addDictionary(ROUTE, dictionary);
+        codec.bindRoutes(Map.of(ROUTE, ENCODED_ROUTE));
+        return codec;
+    }
+
+    private static void frame(ByteArray out, Package<?> pack) throws Exception {
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF);
+        out.writeUint16(data.getLength());
+        out.writeBytes(data);
+    }
+
+    private static int deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length * 2 + 64];
+        int size = deflater.deflate(out);
+        deflater.end();
+        return size;
+    }
+
+    // Chat lines of under 200 bytes, repetitive across messages but not within one
+    private static List<byte[]> samples(int count, int seed) {
+        String[] words = {"gg", "anyone", "raid", "tonight", "need", "healer", "lfg", "boss", "loot", "drop"};
+        Random random = new Random(seed);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder("{\"channel\":\"guild\",\"from\":\"player")
+                    .append(random.nextInt(500)).append("\",\"ts\":").append(1_700_000_000 + random.nextInt(100_000))
+                    .append(",\"text\":\"");
+            for (int w = 1 + random.nextInt(5); w > 0; w--) {
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            samples.add(sb.append("\",\"flags\":0}").toString().getBytes());
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,86 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for token-bucket rate limiting.
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testRejectAfterBurst() {
+        RateLimiter limiter = new RateLimiter(10, 10, 0, 0, RateLimiter.Policy.REJECT);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.acquire(100, false));
+        }
+        assertEquals(RateLimiter.REJECTED, limiter.acquire(100, false));
+        assertEquals(10, limiter.getAdmittedCount());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testByteLimitRefundsMessageToken() {
+        RateLimiter limiter = new RateLimiter(100, 2, 1000, 1000, RateLimiter.Policy.REJECT);
+
+        assertEquals(RateLimiter.REJECTED, limiter.acquire(5000, false));
+        // The message token taken before the byte check failed was given back
+        assertEquals(0, limiter.acquire(10, false));
+        assertEquals(0, limiter.acquire(10, false));
+        assertEquals(RateLimiter.REJECTED, limiter.acquire(10, false));
+    }
+
+    @Test
+    public void testDelaySpacesMessagesOut() {
+        RateLimiter limiter = new RateLimiter(100, 1, 0, 0, RateLimiter.Policy.DELAY);
+
+        assertEquals(0, limiter.acquire(0, false));
+        long first = limiter.acquire(0, false);
+        long second = limiter.acquire(0, false);
+
+        assertTrue(first > 0 && first <= TimeUnit.MILLISECONDS.toNanos(10));
+        assertTrue(second > first);
+        assertEquals(2, limiter.getDelayedCount());
+
+        limiter.setMaxDelay(0);
+        assertEquals(RateLimiter.REJECTED, limiter.acquire(0, false));
+    }
+
+    @Test
+    public void testConflateSendsOnlyLatest() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RateLimiter limiter = new RateLimiter(5, 1, 0, 0, RateLimiter.Policy.CONFLATE);
+            List<Integer> sent = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+
+            assertEquals(0, limiter.acquire(0, true));
+            for (int i = 1; i <= 5; i++) {
+                int n = i;
+                long wait = limiter.acquire(0, true);
+                assertTrue(wait > 0);
+                limiter.conflate(() -> {
+                    sent.add(n);
+                    done.countDown();
+                }, 0, wait, scheduler);
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            scheduler.shutdown();
+            assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(List.of(5), sent);
+            assertEquals(4, limiter.getConflatedCount());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for request admission control.
+ */
+public class RequestWindowTest {
+
+    @Test
+    public void testQueuePolicyAdmitsOnRelease() {
+        RequestWindow window = new RequestWindow(2, RequestWindow.Policy.QUEUE);
+        List<Integer> admitted = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            int n = i;
+            window.submit("a", () -> admitted.add(n), () -> fail("should queue, not reject"));
+        }
+        assertEquals(List.of(0, 1), admitted);
+        assertEquals(2, window.getQueueDepth());
+
+        window.release("a");
+        assertEquals(List.of(0, 1, 2), admitted);
+        assertEquals(2, window.getInFlight());
+        assertEquals(1, window.getQueueDepth());
+    }
+
+    @Test
+    public void testRouteLimitDoesNotBlockOtherRoutes() {
+        RequestWindow window = new RequestWindow(0, RequestWindow.Policy.QUEUE);
+        window.setRouteLimit("slow", 1);
+        List<String> admitted = new ArrayList<>();
+
+        window.submit("slow", () -> admitted.add("slow-1"), () -> fail());
+        window.submit("slow", () -> admitted.add("slow-2"), () -> fail());
+        window.submit("fast", () -> admitted.add("fast-1"), () -> fail());
+
+        assertEquals(List.of("slow-1", "fast-1"), admitted);
+        assertEquals(1, window.getInFlight("slow"));
+
+        window.release("slow");
+        assertEquals(List.of("slow-1", "fast-1", "slow-2"), admitted);
+    }
+
+    @Test
+    public void testFailFastRejectsWhenFull() {
+        RequestWindow window = new RequestWindow(1, RequestWindow.Policy.FAIL_FAST);
+        int[] rejected = {0};
+
+        window.submit("a", () -> { }, () -> rejected[0]++);
+        window.submit("a", () -> fail("window is full"), () -> rejected[0]++);
+
+        assertEquals(1, rejected[0]);
+        assertEquals(1, window.getRejectedCount());
+        assertEquals(0, window.getQueueDepth());
+    }
+
+    @Test
+    public void testBlockPolicyTimesOut() {
+        RequestWindow window = new RequestWindow();
+        window.configure(1, RequestWindow.Policy.BLOCK, 20);
+        int[] rejected = {0};
+
+        window.submit("a", () -> { }, () -> fail());
+        window.submit("a", () -> fail("window is full"), () -> rejected[0]++);
+
+        assertEquals(1, rejected[0]);
+    }
+
+    @Test
+    public void testBlockPolicyQueuesSubmitsThatMayNotBlock() {
+        RequestWindow window = new RequestWindow();
+        window.configure(1, RequestWindow.Policy.BLOCK, 0);
+        int[] admitted = {0};
+
+        window.submit("a", () -> { }, () -> fail());
+        // Would park this thread forever if it blocked
+        window.submit("a", () -> admitted[0]++, () -> fail(), false);
+        assertEquals(0, admitted[0]);
+        assertEquals(1, window.getQueueDepth());
+
+        window.release("a");
+        assertEquals(1, admitted[0]);
+        assertEquals(1, window.getInFlight());
+    }
+
+    @Test
+    public void testFullQueueRejects() {
+        RequestWindow window = new RequestWindow();
+        window.configure(1, RequestWindow.Policy.QUEUE, 0, 2);
+        int[] rejected = {0};
+
+        window.submit("a", () -> { }, () -> fail());
+        window.submit("a", () -> { }, () -> fail("queue has room"));
+        window.submit("a", () -> { }, () -> fail("queue has room"));
+        window.submit("a", () -> fail("queue is full"), () -> rejected[0]++);
+
+        assertEquals(1, rejected[0]);
+        assertEquals(2, window.getQueueDepth());
+        assertEquals(1, window.getRejectedCount());
+    }
+
+    @Test
+    public void testQueuedRequestIsRejectedAfterMaxWait() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RequestWindow window = new RequestWindow();
+            window.configure(1, RequestWindow.Policy.QUEUE, 50, 0);
+            window.setTimer(timer);
+            CountDownLatch rejected = new CountDownLatch(1);
+
+            window.submit("a", () -> { }, () -> fail());
+            // The slot is never released, as with a stalled server
+            window.submit("a", () -> fail("window is full"), rejected::countDown);
+
+            assertTrue(rejected.await(2, TimeUnit.SECONDS));
+            assertEquals(0, window.getQueueDepth());
+            assertEquals(1, window.getRejectedCount());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueuedRequestExpiresOnNextSubmitWithoutTimer() throws Exception {
+        RequestWindow window = new RequestWindow();
+        window.configure(1, RequestWindow.Policy.QUEUE, 20, 0);
+        int[] rejected = {0};
+
+        window.submit("a", () -> { }, () -> fail());
+        window.submit("a", () -> fail("window is full"), () -> rejected[0]++);
+        Thread.sleep(40);
+        window.submit("b", () -> fail("window is full"), () -> fail("still within its wait"));
+
+        assertEquals(1, rejected[0]);
+        assertEquals(1, window.getQueueDepth());
+    }
+
+    @Test
+    public void testReleaseFromAdmitCallbackDoesNotRecurse() {
+        RequestWindow window = new RequestWindow(1, RequestWindow.Policy.QUEUE);
+        int[] admitted = {0};
+
+        window.submit("a", () -> admitted[0]++, () -> fail());
+        // Each queued request fails immediately and gives its slot straight back
+        for (int i = 0; i < 100_000; i++) {
+            window.submit("a", () -> {
+                admitted[0]++;
+                window.release("a");
+            }, () -> fail());
+        }
+        window.release("a");
+
+        assertEquals(100_001, admitted[0]);
+        assertEquals(0, window.getInFlight());
+        assertEquals(0, window.getQueueDepth());
+    }
+}
@@ -0,0 +1,94 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the response cache.
+ */
+public class ResponseCacheTest {
+
+    private static RequestKey key(String route, int n) {
+        return new RequestKey(route, String.class, new byte[]{(byte) n});
+    }
+
+    @Test
+    public void testOnlyConfiguredRoutesAreCached() {
+        ResponseCache<String> cache = new ResponseCache<>(16);
+        cache.setTtl("config", 60_000, 0);
+
+        cache.put(key("config", 1), "a");
+        cache.put(key("other", 1), "b");
+
+        assertEquals("a", cache.get(key("config", 1)).value);
+        assertNull(cache.get(key("other", 1)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testStaleWindowAllowsOneRefresh() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(16);
+        cache.setTtl("time", 1, 60_000);
+        cache.put(key("time", 1), "old");
+        Thread.sleep(5);
+
+        ResponseCache.Lookup<String> hit = cache.get(key("time", 1));
+        assertTrue(hit.stale);
+        assertEquals("old", hit.value);
+        assertTrue(cache.beginRefresh(key("time", 1)));
+        assertFalse(cache.beginRefresh(key("time", 1)));
+
+        // Long enough that the refreshed entry cannot go stale again before it is read
+        cache.setTtl("time", 60_000, 60_000);
+        cache.put(key("time", 1), "new");
+        assertFalse(cache.get(key("time", 1)).stale);
+    }
+
+    @Test
+    public void testExpiredPastStaleWindowIsMiss() throws Exception {
+        ResponseCache<String> cache = new ResponseCache<>(16);
+        cache.setTtl("time", 1, 0);
+        cache.put(key("time", 1), "old");
+        Thread.sleep(5);
+
+        assertNull(cache.get(key("time", 1)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testHotEntriesSurviveScan() {
+        ResponseCache<String> cache = new ResponseCache<>(10);
+        cache.setTtl("item", 60_000, 0);
+        cache.put(key("item", 0), "hot");
+        cache.get(key("item", 0));
+
+        // One-off entries churn through probation without touching the protected entry
+        for (int i = 1; i <= 50; i++) {
+            cache.put(key("item", i), "cold");
+        }
+
+        assertEquals(10, cache.size());
+        assertNotNull(cache.get(key("item", 0)));
+        assertNull(cache.get(key("item", 1)));
+        assertTrue(cache.getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testPushInvalidatesRoutes() {
+        ResponseCache<String> cache = new ResponseCache<>(16);
+        cache.setTtl("catalog", 60_000, 0);
+        cache.setTtl("config", 60_000, 0);
+        cache.invalidateOn("push.catalogChanged", "catalog");
+        cache.put(key("catalog", 1), "a");
+        cache.put(key("config", 1), "b");
+
+        cache.onPush("push.unrelated");
+        assertEquals(2, cache.size());
+
+        cache.onPush("push.catalogChanged");
+        assertNull(cache.get(key("catalog", 1)));
+        assertNotNull(cache.get(key("config", 1)));
+    }
+}
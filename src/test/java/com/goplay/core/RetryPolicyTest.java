@@ -0,0 +1,50 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the retry budget and hedge delays.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void testBudgetAllowsRatioOfCalls() {
+        RetryBudget budget = new RetryBudget(0.1, 2);
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        // Ten calls earn one extra attempt
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(3, budget.getWithdrawnCount());
+        assertEquals(2, budget.getExhaustedCount());
+    }
+
+    @Test
+    public void testBudgetIsCapped() {
+        RetryBudget budget = new RetryBudget(1.0, 3);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(3, budget.getBalance());
+    }
+
+    @Test
+    public void testHedgeDelayNeedsSamples() {
+        RetryPolicy policy = new RetryPolicy(1, 0.95, 50, new RetryBudget());
+        LatencyTracker tracker = new LatencyTracker();
+        assertEquals(-1, policy.hedgeDelayMs(tracker));
+
+        for (int i = 0; i < 50; i++) {
+            tracker.recordMillis(40);
+        }
+        assertEquals(40, policy.hedgeDelayMs(tracker), 4);
+        assertEquals(-1, new RetryPolicy(1, 0, 0, new RetryBudget()).hedgeDelayMs(tracker));
+    }
+}
@@ -0,0 +1,109 @@
+package com.goplay.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for in-flight call coalescing.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testIdenticalCallsStartOneCall() {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CompletableFuture<String> call = new CompletableFuture<>();
+        int[] started = {0};
+
+        CompletableFuture<String> a = flight.execute(new RequestKey("r", String.class, new byte[]{1, 2}), () -> {
+            started[0]++;
+            return call;
+        });
+        CompletableFuture<String> b = flight.execute(new RequestKey("r", String.class, new byte[]{1, 2}), () -> {
+            started[0]++;
+            return new CompletableFuture<>();
+        });
+
+        assertEquals(1, started[0]);
+        assertNotSame(a, b);
+        assertEquals(1, flight.getCoalescedCount());
+
+        call.complete("done");
+        assertEquals("done", a.join());
+        assertEquals("done", b.join());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    public void testCallerCompletesOnlyItsOwnFuture() {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CompletableFuture<String> call = new CompletableFuture<>();
+        RequestKey key = new RequestKey("r", String.class, new byte[]{1});
+
+        CompletableFuture<String> a = flight.execute(key, () -> call);
+        CompletableFuture<String> b = flight.execute(key, CompletableFuture::new);
+        CompletableFuture<String> c = flight.execute(key, CompletableFuture::new);
+        b.complete("mine");
+        c.obtrudeValue("also mine");
+
+        assertFalse(a.isDone());
+        assertFalse(call.isDone());
+        call.complete("done");
+        assertEquals("done", a.join());
+        assertEquals("mine", b.join());
+    }
+
+    @Test
+    public void testCallIsCancelledWhenTheLastCallerCancels() {
+        SingleFlight<String> flight = new SingleFlight<>();
+        CompletableFuture<String> call = new CompletableFuture<>();
+        RequestKey key = new RequestKey("r", String.class, new byte[]{1});
+
+        CompletableFuture<String> a = flight.execute(key, () -> call);
+        CompletableFuture<String> b = flight.execute(key, CompletableFuture::new);
+        b.cancel(false);
+        assertFalse(a.isDone());
+        assertFalse(call.isDone());
+
+        a.cancel(false);
+        assertTrue(call.isCancelled());
+        assertEquals(0, flight.getInFlightCount());
+
+        // A later identical call starts afresh
+        CompletableFuture<String> next = new CompletableFuture<>();
+        CompletableFuture<String> d = flight.execute(key, () -> next);
+        next.complete("again");
+        assertEquals("again", d.join());
+        assertEquals(2, flight.getStartedCount());
+    }
+
+    @Test
+    public void testDifferentPayloadOrRouteStartsNewCall() {
+        SingleFlight<String> flight = new SingleFlight<>();
+
+        CompletableFuture<String> a = flight.execute(new RequestKey("r", String.class, new byte[]{1}), CompletableFuture::new);
+        CompletableFuture<String> b = flight.execute(new RequestKey("r", String.class, new byte[]{2}), CompletableFuture::new);
+        CompletableFuture<String> c = flight.execute(new RequestKey("s", String.class, new byte[]{1}), CompletableFuture::new);
+
+        assertNotSame(a, b);
+        assertNotSame(a, c);
+        assertEquals(3, flight.getStartedCount());
+        assertEquals(0, flight.getCoalescedCount());
+    }
+
+    @Test
+    public void testCompletedCallIsNotReused() {
+        SingleFlight<String> flight = new SingleFlight<>();
+
+        CompletableFuture<String> a = flight.execute(new RequestKey("r", String.class, null),
+                () -> CompletableFuture.completedFuture("first"));
+        CompletableFuture<String> b = flight.execute(new RequestKey("r", String.class, null),
+                () -> CompletableFuture.completedFuture("second"));
+
+        assertEquals("first", a.join());
+        assertEquals("second", b.join());
+        assertEquals(0, flight.getCoalescedCount());
+    }
+}
@@ -0,0 +1,35 @@
+package com.goplay.transport;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class AddressCacheTest {
+
+    @Test
+    public void testResolvesOnceWithinTtl() throws Exception {
+        AddressCache cache = new AddressCache(60_000);
+        InetAddress first = cache.resolve("localhost");
+        InetAddress second = cache.resolveAsync("localhost").get();
+
+        assertSame(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateAndExpiryResolveAgain() throws Exception {
+        AddressCache cache = new AddressCache(60_000);
+        cache.resolve("localhost");
+        cache.invalidate("localhost");
+        assertNull(cache.lookup("localhost"));
+        cache.resolve("localhost");
+        assertEquals(2, cache.getMissCount());
+
+        AddressCache expired = new AddressCache(0);
+        expired.resolve("localhost");
+        assertNull(expired.lookup("localhost"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.ByteArray;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares round-trip latency over loopback TCP with blocking and busy-polling event
+ * loops. One connection sends a frame, waits for its echo, and repeats. Not a unit test;
+ * run it by hand, e.g.
+ *
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; com.goplay.transport.BusyPollBenchmark 20000
+ *
+ * The test server answers from a blocking socket thread, so its wake-up cost is in both
+ * columns; the difference is the client side alone.
+ */
+public class BusyPollBenchmark {
+    public static void main(String[] args) throws Exception {
+        GoPlayLogger.disableAll();
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        GoPlayTestServer server = GoPlayTestServer.launchTcp();
+        System.out.printf("%-10s %10s %10s %10s%n", "loop", "p50 us", "p99 us", "p99.9 us");
+        run("blocking", new TcpEventLoopGroup(1), server, roundTrips);
+        run("busy-poll", new TcpEventLoopGroup(1, new BusyPoll()), server, roundTrips);
+        server.stop();
+    }
+
+    private static void run(String name, TcpEventLoopGroup group, GoPlayTestServer server,
+                            int roundTrips) throws Exception {
+        byte[] frame = echoFrame();
+        CountDownLatch opened = new CountDownLatch(1);
+        SynchronousQueue<Boolean> echoes = new SynchronousQueue<>();
+        Transport transport = group.create(URI.create(server.getUrl()), new Echoes(opened, echoes));
+        transport.connect();
+        opened.await(5, TimeUnit.SECONDS);
+
+        // Warm up the JIT before measuring
+        for (int i = 0; i < roundTrips / 10; i++) {
+            transport.send(frame);
+            echoes.take();
+        }
+        long[] samples = new long[roundTrips];
+        for (int i = 0; i < roundTrips; i++) {
+            long start = System.nanoTime();
+            transport.send(frame);
+            echoes.take();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        System.out.printf("%-10s %10.1f %10.1f %10.1f%n", name,
+                percentile(samples, 0.5), percentile(samples, 0.99), percentile(samples, 0.999));
+
+        transport.close();
+        group.shutdown();
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * q))] / 1000.0;
+    }
+
+    // Hands each whole echo frame to the measuring thread
+    private static class Echoes implements Transport.Listener {
+        private final CountDownLatch opened;
+        private final SynchronousQueue<Boolean> echoes;
+        private final ByteArray received = new ByteArray(0);
+
+        Echoes(CountDownLatch opened, SynchronousQueue<Boolean> echoes) {
+            this.opened = opened;
+            this.echoes = echoes;
+        }
+
+        @Override
+        public void onOpen() {
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(ByteBuffer data) {
+            received.writeBytes(new ByteArray(data));
+            byte[] buf = received.getData();
+            while (received.woffset - received.roffset >= 2) {
+                int size = (buf[received.roffset] & 0xff) | ((buf[received.roffset + 1] & 0xff) << 8);
+                if (received.woffset - received.roffset < 2 + size) break;
+                received.roffset += 2 + size;
+                try {
+                    echoes.put(Boolean.TRUE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+    }
+
+    private static byte[] echoFrame() throws Exception {
+        Package<?> pack = Package.createFromData(1, Status.newBuilder().setCode(1).build(),
+                PackageType.Request_VALUE, EncoderFactory.PROTOBUF);
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF);
+        ByteArray frame = new ByteArray(0);
+        frame.writeUint16(data.getLength());
+        frame.writeBytes(data);
+        return frame.slice(0, frame.woffset);
+    }
+}
@@ -0,0 +1,119 @@
+package com.goplay.transport;
+
+import com.goplay.core.GoPlayLogger;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the CPU against bytes tradeoff of permessage-deflate: echoes chat-history-like
+ * messages of several sizes through a local server, uncompressed and with deflate with
+ * and without context takeover. Not a unit test; run it by hand, e.g.
+ *
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; com.goplay.transport.DeflateBenchmark 2000
+ *
+ * CPU is the whole process, so it includes the server compressing its replies as well.
+ */
+public class DeflateBenchmark {
+    private static final int[] SIZES = {256, 2048, 16384};
+    // Messages in flight at once
+    private static final int WINDOW = 32;
+    // Distinct messages cycled through, so context takeover cannot just repeat the last one
+    private static final int VARIANTS = 64;
+
+    public static void main(String[] args) throws Exception {
+        GoPlayLogger.disableAll();
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        DeflateEchoServer server = DeflateEchoServer.launch();
+        // Warm up the JIT before measuring
+        run(null, new PerMessageDeflate(), server, chatHistory(2048), messages);
+        System.out.printf("%-14s %7s %10s %12s %12s%n", "mode", "size", "wire %", "msgs/s", "CPU us/msg");
+        for (int size : SIZES) {
+            byte[][] variants = chatHistory(size);
+            run("off", null, server, variants, messages);
+            run("takeover", new PerMessageDeflate(1024, true), server, variants, messages);
+            run("no-takeover", new PerMessageDeflate(1024, false), server, variants, messages);
+        }
+        server.stop(1000);
+    }
+
+    private static void run(String name, PerMessageDeflate deflate, DeflateEchoServer server,
+                            byte[][] variants, int messages) throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        Semaphore window = new Semaphore(WINDOW);
+        Transport transport = new WebSocketTransport(URI.create(server.getUrl()), new Transport.Listener() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer data) {
+                window.release();
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+        }, deflate);
+        transport.connect();
+        opened.await(5, TimeUnit.SECONDS);
+
+        long cpuStart = processCpuNanos();
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            window.acquire();
+            transport.send(variants[i % variants.length]);
+        }
+        window.acquire(WINDOW);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double cpuMicros = (processCpuNanos() - cpuStart) / 1e3;
+
+        transport.close();
+        if (name == null) return;
+        double wire = deflate == null ? 100.0 : 100.0 * deflate.getWireBytesSent() / deflate.getRawBytesSent();
+        System.out.printf("%-14s %7d %10.1f %12.0f %12.1f%n", name, variants[0].length, wire,
+                messages / seconds, cpuMicros / messages);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    // Lines of chat from a small vocabulary, like a history page
+    private static byte[][] chatHistory(int size) {
+        byte[][] variants = new byte[VARIANTS][];
+        for (int i = 0; i < VARIANTS; i++) {
+            variants[i] = chatHistory(size, new Random(i));
+        }
+        return variants;
+    }
+
+    private static byte[] chatHistory(int size, Random random) {
+        String[] words = {"gg", "anyone", "raid", "tonight", "need", "healer", "lfg", "boss", "loot",
+                "drop", "legendary", "sword", "trade", "gold", "guild", "invite", "ready", "wipe"};
+        StringBuilder sb = new StringBuilder(size + 64);
+        while (sb.length() < size) {
+            sb.append("{\"from\":\"player").append(random.nextInt(50))
+                    .append("\",\"ts\":").append(1_700_000_000L + random.nextInt(1_000_000))
+                    .append(",\"text\":\"");
+            for (int w = 1 + random.nextInt(8); w > 0; w--) {
+                sb.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            sb.append("\"}\n");
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
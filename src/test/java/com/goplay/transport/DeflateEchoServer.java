@@ -0,0 +1,65 @@
+package com.goplay.transport;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WebSocket server that accepts permessage-deflate and echoes binary messages back.
+ * It compresses replies of 1024 bytes or more: the library's server side copies its
+ * extension per connection without the settings, so the default threshold applies.
+ */
+public class DeflateEchoServer extends WebSocketServer {
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private DeflateEchoServer() {
+        super(new InetSocketAddress("127.0.0.1", 0),
+                Collections.singletonList(new Draft_6455(new PerMessageDeflateExtension())));
+        setReuseAddr(true);
+    }
+
+    public static DeflateEchoServer launch() throws InterruptedException {
+        DeflateEchoServer server = new DeflateEchoServer();
+        server.start();
+        if (!server.started.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("server did not start");
+        return server;
+    }
+
+    public String getUrl() {
+        return "ws://127.0.0.1:" + getPort();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        conn.send(message);
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+    }
+
+    @Override
+    public void onStart() {
+        started.countDown();
+    }
+}
@@ -0,0 +1,149 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.ByteArray;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the java.net.http WebSocket transport against the test server.
+ */
+public class JdkWebSocketTransportTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        GoPlay.setTransportFactory(null);
+        server.stop();
+    }
+
+    @Test
+    public void testRequestOverJdkWebSocket() throws Exception {
+        GoPlay.setTransportFactory(new JdkWebSocketTransport.Factory());
+        try {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+            Status payload = Status.newBuilder().setCode(6).setMessage("jdk").build();
+            GoPlay.ResponseResult<Status> result =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, result.getCode());
+            assertEquals(payload, result.data);
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+            assertFalse(GoPlay.isConnected());
+        } finally {
+            GoPlay.setTransportFactory(null);
+        }
+    }
+
+    @Test
+    public void testConnectionsShareOneExecutor() throws Exception {
+        int connections = 100;
+        int perConnection = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        JdkWebSocketTransport.Factory factory = new JdkWebSocketTransport.Factory(executor, 4);
+        byte[] frame = echoFrame();
+        CountDownLatch answered = new CountDownLatch(connections);
+        CountDownLatch closed = new CountDownLatch(connections);
+        List<Transport> transports = new ArrayList<>();
+        long clientThreadsBefore = clientThreadCount();
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                int[] frames = {0};
+                ByteArray received = new ByteArray(0);
+                Transport[] self = new Transport[1];
+                self[0] = factory.create(URI.create(server.getUrl()), new Transport.Listener() {
+                    @Override
+                    public void onOpen() {
+                        try {
+                            // More answers than the window; the transport must keep requesting
+                            for (int n = 0; n < perConnection; n++) {
+                                self[0].send(frame);
+                            }
+                        } catch (Exception e) {
+                            fail(e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(ByteBuffer data) {
+                        received.writeBytes(new ByteArray(data));
+                        while (received.hasReadSize(2)) {
+                            int size = received.readUint16();
+                            if (!received.hasReadSize(size)) {
+                                received.roffset -= 2;
+                                break;
+                            }
+                            received.readBytes(size);
+                            if (++frames[0] == perConnection) answered.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                    }
+
+                    @Override
+                    public void onClose(int code, String reason, boolean remote) {
+                        closed.countDown();
+                    }
+                });
+                transports.add(self[0]);
+                self[0].connect();
+            }
+
+            assertTrue(answered.await(20, TimeUnit.SECONDS));
+            // One selector thread for the shared client, whatever the connection count
+            assertTrue(clientThreadCount() - clientThreadsBefore <= 4);
+
+            for (Transport t : transports) {
+                t.close();
+            }
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Live threads other than the test server's
+    private static long clientThreadCount() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> !t.getName().startsWith("GoPlayTestServer"))
+                .count();
+    }
+
+    private static byte[] echoFrame() throws Exception {
+        Package<?> pack = Package.createFromData(1, Status.newBuilder().setCode(1).build(),
+                PackageType.Request_VALUE, EncoderFactory.PROTOBUF);
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF);
+        ByteArray frame = new ByteArray(0);
+        frame.writeUint16(data.getLength());
+        frame.writeBytes(data);
+        return frame.slice(0, frame.woffset);
+    }
+}
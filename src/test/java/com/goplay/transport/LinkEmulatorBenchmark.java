@@ -0,0 +1,79 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures request latency over emulated links, to see how a change behaves on a slow or
+ * jittery network before trying it on one. Not a unit test; run it by hand, e.g.
+ *
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; com.goplay.transport.LinkEmulatorBenchmark 400
+ *
+ * Every profile uses the same seed, so reruns see the same delays.
+ */
+public class LinkEmulatorBenchmark {
+    private static final int IN_FLIGHT = 8;
+
+    public static void main(String[] args) throws Exception {
+        GoPlayLogger.disableAll();
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        GoPlayTestServer server = GoPlayTestServer.launchTcp();
+
+        System.out.printf("%-10s %8s %8s %8s %8s%n", "link", "p50 ms", "p90 ms", "p99 ms", "req/s");
+        run(server, "loopback", 0, 0, 0, 0, requests);
+        run(server, "wifi", 5, 2, 0, 0, requests);
+        run(server, "4g", 30, 10, 2 * 1024 * 1024, 0.01, requests);
+        run(server, "3g", 100, 40, 128 * 1024, 0.05, requests);
+
+        GoPlay.setTransportFactory(null);
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void run(GoPlayTestServer server, String name, long latencyMs, long jitterMs,
+                            long bytesPerSecond, double reorder, int requests) throws Exception {
+        LinkEmulator link = new LinkEmulator(TcpEventLoopGroup.shared(), 1);
+        link.setLatency(latencyMs, jitterMs);
+        link.setBandwidth(bytesPerSecond);
+        link.setReorder(reorder, 2 * latencyMs);
+        GoPlay.setTransportFactory(link);
+        if (!GoPlay.connect(server.getUrl()).get(10, TimeUnit.SECONDS)) {
+            System.out.printf("%-10s  connect failed%n", name);
+            return;
+        }
+
+        char[] text = new char[512];
+        Arrays.fill(text, 'b');
+        Status payload = Status.newBuilder().setCode(1).setMessage(new String(text)).build();
+        long[] latencies = new long[requests];
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i += IN_FLIGHT) {
+            List<CompletableFuture<?>> batch = new ArrayList<>();
+            for (int n = i; n < Math.min(i + IN_FLIGHT, requests); n++) {
+                int index = n;
+                long sent = System.nanoTime();
+                batch.add(GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class)
+                        .thenRun(() -> latencies[index] = System.nanoTime() - sent));
+            }
+            CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        GoPlay.disconnect().get(10, TimeUnit.SECONDS);
+
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %8.1f %8.1f %8.1f %8.0f%n", name, percentile(latencies, 0.5),
+                percentile(latencies, 0.9), percentile(latencies, 0.99), requests / seconds);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
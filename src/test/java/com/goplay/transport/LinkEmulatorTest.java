@@ -0,0 +1,186 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the link emulator, against the TCP test server and against a transport that
+ * records what reaches it.
+ */
+public class LinkEmulatorTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launchTcp();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        GoPlay.setTransportFactory(null);
+        server.stop();
+    }
+
+    @Test
+    public void testRequestTakesTheLatencyBothWays() throws Exception {
+        LinkEmulator link = new LinkEmulator(TcpEventLoopGroup.shared(), 1);
+        link.setLatency(50, 0);
+        link.setBandwidth(1024 * 1024);
+        GoPlay.setTransportFactory(link);
+        try {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+            Status payload = Status.newBuilder().setCode(7).setMessage("emulated").build();
+            long start = System.nanoTime();
+            GoPlay.ResponseResult<Status> result =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(payload, result.data);
+            assertTrue("round trip took " + elapsedMs + " ms", elapsedMs >= 100);
+            assertTrue(link.getDelayedCount() > 0);
+        } finally {
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+            GoPlay.setTransportFactory(null);
+        }
+    }
+
+    @Test
+    public void testSameSeedReordersFramesTheSameWay() throws Exception {
+        List<Integer> first = sendThroughReorderingLink(42);
+        List<Integer> second = sendThroughReorderingLink(42);
+
+        assertEquals(30, first.size());
+        assertEquals(first, second);
+        List<Integer> sorted = new ArrayList<>(first);
+        sorted.sort(null);
+        assertNotEquals(sorted, first);
+    }
+
+    @Test
+    public void testDisconnectReportsAbnormalClose() throws Exception {
+        RecordingFactory recorder = new RecordingFactory();
+        LinkEmulator link = new LinkEmulator(recorder, 7);
+        link.setDisconnect(20);
+        CompletableFuture<Integer> closed = new CompletableFuture<>();
+        CountDownLatch opened = new CountDownLatch(1);
+        Transport transport = link.create(URI.create("tcp://localhost:1"), new Transport.Listener() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer data) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                closed.complete(code);
+            }
+        });
+
+        transport.connect();
+
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        assertEquals(1006, (int) closed.get(5, TimeUnit.SECONDS));
+        assertFalse(transport.isOpen());
+        assertTrue(recorder.closed);
+        assertEquals(1, link.getDisconnectCount());
+    }
+
+    // Sends numbered frames back to back and returns the order they reached the wrapped transport
+    private static List<Integer> sendThroughReorderingLink(long seed) throws Exception {
+        RecordingFactory recorder = new RecordingFactory();
+        LinkEmulator link = new LinkEmulator(recorder, seed);
+        link.setLatency(5, 0);
+        link.setReorder(0.2, 300);
+        CountDownLatch opened = new CountDownLatch(1);
+        Transport transport = link.create(URI.create("tcp://localhost:1"), new Transport.Listener() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer data) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+        });
+        transport.connect();
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 30; i++) {
+            transport.send(new byte[]{(byte) i});
+        }
+        recorder.received.await(5, TimeUnit.SECONDS);
+        assertTrue(link.getReorderedCount() > 0);
+        synchronized (recorder.order) {
+            return new ArrayList<>(recorder.order);
+        }
+    }
+
+    // Opens at once and records the first byte of each send
+    private static class RecordingFactory implements TransportFactory {
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch received = new CountDownLatch(30);
+        volatile boolean closed;
+
+        @Override
+        public Transport create(URI uri, Transport.Listener listener) {
+            return new Transport() {
+                @Override
+                public void connect() {
+                    listener.onOpen();
+                }
+
+                @Override
+                public void send(byte[] data) {
+                    synchronized (order) {
+                        order.add((int) data[0]);
+                    }
+                    received.countDown();
+                }
+
+                @Override
+                public void close() {
+                    closed = true;
+                    listener.onClose(1000, "", false);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return !closed;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests permessage-deflate on the Java-WebSocket transport.
+ */
+public class PerMessageDeflateTest {
+    private static DeflateEchoServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = DeflateEchoServer.launch();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        server.stop(1000);
+    }
+
+    @Test
+    public void testLargeMessagesAreCompressedSmallOnesBypassed() throws Exception {
+        PerMessageDeflate deflate = new PerMessageDeflate(256, true);
+        LinkedBlockingQueue<byte[]> echoes = new LinkedBlockingQueue<>();
+        Transport transport = open(new WebSocketTransport.Factory(deflate), echoes);
+        try {
+            byte[] large = new byte[8192];
+            for (int i = 0; i < large.length; i++) {
+                large[i] = (byte) ("inventory-item-" + (i % 64)).charAt(i % 15);
+            }
+            byte[] small = "ping".getBytes();
+
+            transport.send(large);
+            assertArrayEquals(large, echoes.poll(5, TimeUnit.SECONDS));
+            transport.send(small);
+            assertArrayEquals(small, echoes.poll(5, TimeUnit.SECONDS));
+
+            assertEquals(1, deflate.getCompressedCount());
+            assertEquals(1, deflate.getBypassedCount());
+            assertEquals(large.length + small.length, deflate.getRawBytesSent());
+            assertTrue(deflate.getWireBytesSent() < large.length / 4);
+            // The server compresses only the large reply
+            assertEquals(large.length + small.length, deflate.getRawBytesReceived());
+            assertTrue(deflate.getWireBytesReceived() < large.length / 4 + small.length);
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testWithoutContextTakeoverEachMessageStandsAlone() throws Exception {
+        PerMessageDeflate deflate = new PerMessageDeflate(0, false);
+        LinkedBlockingQueue<byte[]> echoes = new LinkedBlockingQueue<>();
+        Transport transport = open(new WebSocketTransport.Factory(deflate), echoes);
+        try {
+            byte[] message = new byte[2048];
+            Arrays.fill(message, (byte) 'x');
+            transport.send(message);
+            assertArrayEquals(message, echoes.poll(5, TimeUnit.SECONDS));
+            long first = deflate.getWireBytesSent();
+            transport.send(message);
+            assertArrayEquals(message, echoes.poll(5, TimeUnit.SECONDS));
+
+            // A repeat compresses no better when the window is dropped between messages
+            assertEquals(first, deflate.getWireBytesSent() - first);
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testServerWithoutDeflateStillWorks() throws Exception {
+        GoPlayTestServer plain = GoPlayTestServer.launch();
+        PerMessageDeflate deflate = new PerMessageDeflate(0, true);
+        GoPlay.setTransportFactory(new WebSocketTransport.Factory(deflate));
+        try {
+            assertTrue(GoPlay.connect(plain.getUrl()).get(5, TimeUnit.SECONDS));
+            Status payload = Status.newBuilder().setCode(7).setMessage("plain").build();
+            GoPlay.ResponseResult<Status> result =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+            assertEquals(payload, result.data);
+            assertEquals(0, deflate.getCompressedCount());
+        } finally {
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+            GoPlay.setTransportFactory(null);
+            plain.stop();
+        }
+    }
+
+    private static Transport open(TransportFactory factory, LinkedBlockingQueue<byte[]> echoes) throws Exception {
+        CountDownLatch opened = new CountDownLatch(1);
+        Transport transport = factory.create(URI.create(server.getUrl()), new Transport.Listener() {
+            @Override
+            public void onOpen() {
+                opened.countDown();
+            }
+
+            @Override
+            public void onMessage(ByteBuffer data) {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                echoes.offer(bytes);
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+        });
+        transport.connect();
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        return transport;
+    }
+}
@@ -0,0 +1,386 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.ByteArray;
+import com.goplay.core.Emitter;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the raw TCP transport against the test server in TCP mode.
+ */
+public class TcpTransportTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launchTcp();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    @Test
+    public void testRequestOverTcp() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+
+        Status payload = Status.newBuilder().setCode(5).setMessage("tcp").build();
+        GoPlay.ResponseResult<Status> result =
+                GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+        assertEquals(0, result.getCode());
+        assertEquals(payload, result.data);
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        assertFalse(GoPlay.isConnected());
+    }
+
+    @Test
+    public void testLargeRequestTravelsWholeWithVarintFraming() throws Exception {
+        assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+        assertEquals(FrameMode.Uint16, GoPlay.getFrameMode());
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+
+        server.setVarintFraming(true);
+        AtomicInteger chunks = new AtomicInteger();
+        Emitter.Function countChunks = args -> {
+            Header h = (Header) ((Package<?>) args[0]).getHeader();
+            if (h.getPackageInfo().getChunkCount() > 0) chunks.incrementAndGet();
+        };
+        GoPlay.on(GoPlay.Consts.Events.BEFORE_RECV, countChunks);
+        try {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+            assertEquals(FrameMode.Varint, GoPlay.getFrameMode());
+
+            char[] text = new char[300 * 1024];
+            Arrays.fill(text, 's');
+            Status payload = Status.newBuilder().setCode(6).setMessage(new String(text)).build();
+            GoPlay.ResponseResult<Status> result =
+                    GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class).get(5, TimeUnit.SECONDS);
+
+            assertEquals(payload, result.data);
+            assertEquals(0, chunks.get());
+        } finally {
+            GoPlay.off(GoPlay.Consts.Events.BEFORE_RECV, countChunks);
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+            server.setVarintFraming(false);
+        }
+    }
+
+    @Test
+    public void testManyConnectionsShareTwoLoops() throws Exception {
+        int connections = 200;
+        TcpEventLoopGroup group = new TcpEventLoopGroup(2);
+        byte[] frame = echoFrame();
+        CountDownLatch answered = new CountDownLatch(connections);
+        CountDownLatch closed = new CountDownLatch(connections);
+        List<Transport> transports = new ArrayList<>();
+        int threadsBefore = Thread.activeCount();
+
+        try {
+            for (int i = 0; i < connections; i++) {
+                ByteArray received = new ByteArray(0);
+                Transport[] self = new Transport[1];
+                self[0] = group.create(URI.create(server.getUrl()), new Transport.Listener() {
+                    @Override
+                    public void onOpen() {
+                        try {
+                            self[0].send(frame);
+                        } catch (Exception e) {
+                            fail(e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onMessage(ByteBuffer data) {
+                        boolean whole = isWholeFrame(received);
+                        received.writeBytes(new ByteArray(data));
+                        if (!whole && isWholeFrame(received)) answered.countDown();
+                    }
+
+                    @Override
+                    public void onError(Exception ex) {
+                    }
+
+                    @Override
+                    public void onClose(int code, String reason, boolean remote) {
+                        closed.countDown();
+                    }
+                });
+                transports.add(self[0]);
+                self[0].connect();
+            }
+
+            assertTrue(answered.await(10, TimeUnit.SECONDS));
+            assertEquals(connections, group.getChannelCount());
+            // Connections use the loops, not threads of their own (the server adds one each)
+            assertTrue(Thread.activeCount() - threadsBefore <= connections + 2);
+
+            for (Transport t : transports) {
+                t.close();
+            }
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            for (Transport t : transports) {
+                assertFalse(t.isOpen());
+            }
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseFromReadCallbackIsNotDelayed() throws Exception {
+        TcpEventLoopGroup group = new TcpEventLoopGroup(1);
+        byte[] frame = echoFrame();
+        CountDownLatch closed = new CountDownLatch(1);
+
+        try {
+            Transport[] self = new Transport[1];
+            self[0] = group.create(URI.create(server.getUrl()), new Transport.Listener() {
+                @Override
+                public void onOpen() {
+                    try {
+                        self[0].send(frame);
+                    } catch (Exception e) {
+                        fail(e.getMessage());
+                    }
+                }
+
+                @Override
+                public void onMessage(ByteBuffer data) {
+                    // Runs on the loop thread, like a kick handled by the client
+                    self[0].close();
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                    closed.countDown();
+                }
+            });
+            self[0].connect();
+
+            // Nothing else wakes the loop, so the close must not wait for another event
+            assertTrue(closed.await(2, TimeUnit.SECONDS));
+            assertFalse(self[0].isOpen());
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseWritesWhatWasAccepted() throws Exception {
+        int frames = 256;
+        byte[] frame = new byte[32 * 1024];
+        ServerSocket slow = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        long[] read = {0};
+        Thread reader = startSlowReader(slow, read);
+        TcpEventLoopGroup group = new TcpEventLoopGroup(1);
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+
+        try {
+            Transport transport = group.create(URI.create("tcp://127.0.0.1:" + slow.getLocalPort()),
+                    new Transport.Listener() {
+                        @Override
+                        public void onOpen() {
+                            opened.countDown();
+                        }
+
+                        @Override
+                        public void onMessage(ByteBuffer data) {
+                        }
+
+                        @Override
+                        public void onError(Exception ex) {
+                        }
+
+                        @Override
+                        public void onClose(int code, String reason, boolean remote) {
+                            closed.countDown();
+                        }
+                    });
+            transport.connect();
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < frames; i++) {
+                transport.send(frame);
+            }
+            assertTrue(transport.getBufferedBytes() > 0);
+            transport.close();
+
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            reader.join(5000);
+            assertEquals((long) frames * frame.length, read[0]);
+        } finally {
+            group.shutdown();
+            slow.close();
+        }
+    }
+
+    @Test
+    public void testDrainIsReported() throws Exception {
+        byte[] frame = new byte[32 * 1024];
+        ServerSocket slow = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        startSlowReader(slow, new long[1]);
+        TcpEventLoopGroup group = new TcpEventLoopGroup(1);
+        CountDownLatch opened = new CountDownLatch(1);
+        CountDownLatch drained = new CountDownLatch(1);
+
+        try {
+            Transport transport = group.create(URI.create("tcp://127.0.0.1:" + slow.getLocalPort()),
+                    new Transport.Listener() {
+                        @Override
+                        public void onOpen() {
+                            opened.countDown();
+                        }
+
+                        @Override
+                        public void onMessage(ByteBuffer data) {
+                        }
+
+                        @Override
+                        public void onError(Exception ex) {
+                        }
+
+                        @Override
+                        public void onClose(int code, String reason, boolean remote) {
+                        }
+
+                        @Override
+                        public void onDrained() {
+                            drained.countDown();
+                        }
+                    });
+            transport.connect();
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+            while (transport.getBufferedBytes() == 0) {
+                transport.send(frame);
+            }
+
+            assertTrue(drained.await(5, TimeUnit.SECONDS));
+            assertEquals(0, transport.getBufferedBytes());
+            transport.close();
+        } finally {
+            group.shutdown();
+            slow.close();
+        }
+    }
+
+    @Test
+    public void testBusyPollRoundTrips() throws Exception {
+        int roundTrips = 50;
+        // Tiny spin and yield budgets so the loop also parks and is unparked between sends
+        TcpEventLoopGroup group = new TcpEventLoopGroup(1, new BusyPoll(100, 10, 1_000, 1_000_000));
+        byte[] frame = echoFrame();
+        CountDownLatch answered = new CountDownLatch(roundTrips);
+        CountDownLatch opened = new CountDownLatch(1);
+        ByteArray received = new ByteArray(0);
+
+        try {
+            Transport transport = group.create(URI.create(server.getUrl()), new Transport.Listener() {
+                @Override
+                public void onOpen() {
+                    opened.countDown();
+                }
+
+                @Override
+                public void onMessage(ByteBuffer data) {
+                    received.writeBytes(new ByteArray(data));
+                    // getLength() is the capacity, so frames are found against woffset
+                    byte[] buf = received.getData();
+                    while (received.woffset - received.roffset >= 2) {
+                        int size = (buf[received.roffset] & 0xff) | ((buf[received.roffset + 1] & 0xff) << 8);
+                        if (received.woffset - received.roffset < 2 + size) break;
+                        received.roffset += 2 + size;
+                        answered.countDown();
+                    }
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                }
+            });
+            transport.connect();
+            assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < roundTrips; i++) {
+                long expected = answered.getCount() - 1;
+                transport.send(frame);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (answered.getCount() > expected && System.nanoTime() < deadline) {
+                    Thread.sleep(i % 2 == 0 ? 0 : 5);
+                }
+                assertEquals(expected, answered.getCount());
+            }
+            transport.close();
+        } finally {
+            group.shutdown();
+        }
+    }
+
+    // Accepts one connection and reads it to the end, starting late so sends back up
+    private static Thread startSlowReader(ServerSocket server, long[] read) {
+        Thread reader = new Thread(() -> {
+            try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+                Thread.sleep(300);
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    read[0] += n;
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return reader;
+    }
+
+    private static boolean isWholeFrame(ByteArray buf) {
+        if (buf.woffset < 2) return false;
+        byte[] data = buf.getData();
+        int size = (data[0] & 0xff) | ((data[1] & 0xff) << 8);
+        return buf.woffset >= 2 + size;
+    }
+
+    private static byte[] echoFrame() throws Exception {
+        Package<?> pack = Package.createFromData(1, Status.newBuilder().setCode(1).build(),
+                PackageType.Request_VALUE, EncoderFactory.PROTOBUF);
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF);
+        ByteArray frame = new ByteArray(0);
+        frame.writeUint16(data.getLength());
+        frame.writeBytes(data);
+        return frame.slice(0, frame.woffset);
+    }
+}
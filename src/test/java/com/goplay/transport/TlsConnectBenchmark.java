@@ -0,0 +1,78 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.GoPlayLogger;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares GoPlay connect latency over wss:// against a local TLS test server with
+ * session resumption (one TlsContext for all connections) and without (a fresh context
+ * per connection, as Java-WebSocket does on its own). A connect is the TCP connect, the
+ * TLS handshake, the WebSocket upgrade and the GoPlay handshake. Not a unit test; run
+ * it by hand, e.g.
+ *
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; com.goplay.transport.TlsConnectBenchmark 200
+ *
+ * CPU is the whole process, so it includes the server's side of each handshake.
+ */
+public class TlsConnectBenchmark {
+    public static void main(String[] args) throws Exception {
+        GoPlayLogger.disableAll();
+        int connects = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        GoPlayTestServer server = GoPlayTestServer.launchTls();
+        // Warm up the JIT before measuring
+        run(null, server, connects / 2, true);
+        run(null, server, connects / 2, false);
+        System.out.printf("%-12s %10s %10s %12s %10s%n", "mode", "p50 ms", "p99 ms", "CPU ms/conn", "resumed");
+        run("resumed", server, connects, true);
+        run("full", server, connects, false);
+        run("resumed", server, connects, true);
+        run("full", server, connects, false);
+        server.stop();
+        System.exit(0);
+    }
+
+    private static void run(String name, GoPlayTestServer server, int connects, boolean shared) throws Exception {
+        TlsContext sharedTls = new TlsContext(GoPlayTestServer.clientSslContext());
+        List<TlsContext> contexts = new ArrayList<>();
+        long[] samples = new long[connects];
+        long cpuStart = processCpuNanos();
+        for (int i = 0; i < connects; i++) {
+            TlsContext tls = shared ? sharedTls : new TlsContext(GoPlayTestServer.clientSslContext());
+            if (!shared || i == 0) contexts.add(tls);
+            GoPlay.setTransportFactory(new WebSocketTransport.Factory(null, tls));
+            long start = System.nanoTime();
+            if (!GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS)) throw new IllegalStateException("connect failed");
+            samples[i] = System.nanoTime() - start;
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        }
+        double cpuMillis = (processCpuNanos() - cpuStart) / 1e6;
+        GoPlay.setTransportFactory(null);
+        if (name == null) return;
+
+        // Handshake listeners run on threads of their own; let the last ones finish
+        Thread.sleep(500);
+        long handshakes = 0;
+        long resumed = 0;
+        for (TlsContext tls : contexts) {
+            handshakes += tls.getHandshakeCount();
+            resumed += tls.getResumedCount();
+        }
+
+        Arrays.sort(samples);
+        System.out.printf("%-12s %10.2f %10.2f %12.2f %6d/%d%n", name, samples[connects / 2] / 1e6,
+                samples[(int) (connects * 0.99)] / 1e6, cpuMillis / connects, resumed, handshakes);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
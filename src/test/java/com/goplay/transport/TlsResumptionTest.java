@@ -0,0 +1,78 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlay;
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.protocols.ProtocolProto.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that reconnects over wss:// resume the TLS session and skip DNS.
+ */
+public class TlsResumptionTest {
+    private static GoPlayTestServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        GoPlayLogger.disableAll();
+        server = GoPlayTestServer.launchTls();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        GoPlay.setTransportFactory(null);
+        server.stop();
+    }
+
+    @Test
+    public void testReconnectResumesSession() throws Exception {
+        TlsContext tls = new TlsContext(GoPlayTestServer.clientSslContext());
+        GoPlay.setTransportFactory(new WebSocketTransport.Factory(null, tls));
+        long hits = AddressCache.shared().getHitCount();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+            Status payload = Status.newBuilder().setCode(i).setMessage("tls").build();
+            assertEquals(payload, GoPlay.request(GoPlayTestServer.ROUTE_ECHO, payload, Status.class)
+                    .get(5, TimeUnit.SECONDS).data);
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        }
+
+        awaitHandshakes(tls, 3);
+        assertEquals(3, tls.getHandshakeCount());
+        assertEquals(2, tls.getResumedCount());
+        assertTrue(AddressCache.shared().getHitCount() >= hits + 2);
+    }
+
+    @Test
+    public void testFreshContextsDoFullHandshakes() throws Exception {
+        TlsContext[] contexts = new TlsContext[2];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = new TlsContext(GoPlayTestServer.clientSslContext());
+            GoPlay.setTransportFactory(new WebSocketTransport.Factory(null, contexts[i]));
+            assertTrue(GoPlay.connect(server.getUrl()).get(5, TimeUnit.SECONDS));
+            GoPlay.disconnect().get(5, TimeUnit.SECONDS);
+        }
+
+        for (TlsContext tls : contexts) {
+            awaitHandshakes(tls, 1);
+            assertEquals(1, tls.getHandshakeCount());
+            assertEquals(0, tls.getResumedCount());
+        }
+    }
+
+    // Handshake listeners are notified on a thread of their own, shortly after the handshake
+    private static void awaitHandshakes(TlsContext tls, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tls.getHandshakeCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
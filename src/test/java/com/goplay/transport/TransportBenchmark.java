@@ -0,0 +1,153 @@
+package com.goplay.transport;
+
+import com.goplay.GoPlayTestServer;
+import com.goplay.core.ByteArray;
+import com.goplay.core.GoPlayLogger;
+import com.goplay.core.Package;
+import com.goplay.core.protocols.ProtocolProto.*;
+import com.goplay.encoder.EncoderFactory;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares client transports at many concurrent connections: threads, heap and echo
+ * throughput. Not a unit test; run it by hand, e.g.
+ *
+ *   java -cp target/classes:target/test-classes:&lt;deps&gt; com.goplay.transport.TransportBenchmark 1000 5000 10000
+ *
+ * Client and test server share the process, so it needs about two file descriptors per
+ * connection (ulimit -n). The test server's own threads are left out of the thread count.
+ */
+public class TransportBenchmark {
+    private static final int MESSAGES_PER_CONNECTION = 20;
+
+    public static void main(String[] args) throws Exception {
+        GoPlayLogger.disableAll();
+        int[] counts = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1000, 5000, 10000};
+
+        System.out.printf("%-15s %8s %8s %10s %12s%n", "transport", "conns", "threads", "heap MB", "msgs/s");
+        for (int connections : counts) {
+            run("java-websocket", WebSocketTransport::new, connections);
+            run("jdk-http", new JdkWebSocketTransport.Factory(), connections);
+        }
+    }
+
+    private static void run(String name, TransportFactory factory, int connections) throws Exception {
+        GoPlayTestServer server = GoPlayTestServer.launch();
+        URI uri = URI.create(server.getUrl());
+        byte[] frame = echoFrame();
+        long threadsBefore = clientThreadCount();
+        long heapBefore = usedHeap();
+
+        CountDownLatch opened = new CountDownLatch(connections);
+        CountDownLatch answered = new CountDownLatch(connections);
+        CountDownLatch closed = new CountDownLatch(connections);
+        List<Transport> transports = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Transport t = factory.create(uri, new Counter(opened, answered, closed));
+            transports.add(t);
+            t.connect();
+        }
+        if (!opened.await(120, TimeUnit.SECONDS)) {
+            System.out.printf("%-15s %8d  only %d connections opened%n", name, connections,
+                    connections - opened.getCount());
+        }
+        long threads = clientThreadCount() - threadsBefore;
+        long heap = usedHeap() - heapBefore;
+
+        long start = System.nanoTime();
+        for (Transport t : transports) {
+            for (int n = 0; n < MESSAGES_PER_CONNECTION; n++) {
+                if (t.isOpen()) t.send(frame);
+            }
+        }
+        answered.await(120, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long messages = (connections - answered.getCount()) * (long) MESSAGES_PER_CONNECTION;
+
+        System.out.printf("%-15s %8d %8d %10.1f %12.0f%n", name, connections, threads,
+                heap / (1024.0 * 1024.0), messages / seconds);
+
+        for (Transport t : transports) {
+            t.close();
+        }
+        closed.await(60, TimeUnit.SECONDS);
+        server.stop();
+    }
+
+    // Counts whole echo frames per connection
+    private static class Counter implements Transport.Listener {
+        private final CountDownLatch opened;
+        private final CountDownLatch answered;
+        private final CountDownLatch closed;
+        private final ByteArray received = new ByteArray(0);
+        private int frames;
+
+        Counter(CountDownLatch opened, CountDownLatch answered, CountDownLatch closed) {
+            this.opened = opened;
+            this.answered = answered;
+            this.closed = closed;
+        }
+
+        @Override
+        public void onOpen() {
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(ByteBuffer data) {
+            received.writeBytes(new ByteArray(data));
+            while (received.hasReadSize(2)) {
+                int size = received.readUint16();
+                if (!received.hasReadSize(size)) {
+                    received.roffset -= 2;
+                    break;
+                }
+                received.readBytes(size);
+                if (++frames == MESSAGES_PER_CONNECTION) answered.countDown();
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            closed.countDown();
+        }
+    }
+
+    private static long clientThreadCount() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> !t.getName().startsWith("GoPlayTestServer"))
+                .count();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static byte[] echoFrame() throws Exception {
+        Package<?> pack = Package.createFromData(1, Status.newBuilder().setCode(1).build(),
+                PackageType.Request_VALUE, EncoderFactory.PROTOBUF);
+        ByteArray data = pack.encode(EncoderFactory.PROTOBUF);
+        ByteArray frame = new ByteArray(0);
+        frame.writeUint16(data.getLength());
+        frame.writeBytes(data);
+        return frame.slice(0, frame.woffset);
+    }
+}